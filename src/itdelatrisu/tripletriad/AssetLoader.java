@@ -0,0 +1,310 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.newdawn.slick.Image;
+import org.newdawn.slick.SlickException;
+import org.newdawn.slick.opengl.ImageData;
+import org.newdawn.slick.opengl.ImageDataFactory;
+import org.newdawn.slick.opengl.LoadableImageData;
+import org.newdawn.slick.util.Log;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Asynchronous asset loader.
+ * <p>
+ * Decoding (images, audio, card data) is performed by a pool of worker
+ * threads; only texture uploads, which require the GL context, are left
+ * to the main thread.  Scaled images are read from the {@link ImageCache}
+ * if possible.
+ * <p>
+ * Load times are written to the log if verbose logging is enabled
+ * (i.e. with {@code -Dorg.newdawn.slick.forceVerboseLog=true}).
+ */
+public class AssetLoader {
+	/** Worker thread pool. */
+	private static ExecutorService pool;
+
+	/** Number of submitted and finished decoding tasks. */
+	private static AtomicInteger taskCount = new AtomicInteger(), finishedCount = new AtomicInteger();
+
+	/** Loading start time, in nanoseconds. */
+	private static long startTime;
+
+	// This class should not be instantiated.
+	private AssetLoader() {}
+
+	/**
+	 * Starts the worker threads.
+	 */
+	public static void start() {
+		if (pool != null)
+			return;
+
+		startTime = System.nanoTime();
+		pool = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(),
+			new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, String.format("AssetLoader-%d", count.incrementAndGet()));
+					t.setDaemon(true);
+					return t;
+				}
+			}
+		);
+	}
+
+	/**
+	 * Stops the worker threads and logs the total load time.
+	 */
+	public static void finish() {
+		if (pool == null)
+			return;
+
+		pool.shutdown();
+		pool = null;
+		ImageCache.save();
+		Log.info(String.format("Loaded %d assets in %d ms.",
+				finishedCount.get(), elapsed(startTime)));
+	}
+
+	/**
+	 * Submits a task to the worker threads.
+	 * @param task the task
+	 * @return the pending result
+	 */
+	public static <T> Future<T> submit(final Callable<T> task) {
+		start();
+		taskCount.incrementAndGet();
+		return pool.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				try {
+					return task.call();
+				} finally {
+					finishedCount.incrementAndGet();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Decodes an image on a worker thread.
+	 * @param ref the image resource name
+	 * @return the pending image data
+	 */
+	public static Future<ImageData> loadImage(final String ref) {
+		return submit(new Callable<ImageData>() {
+			@Override
+			public ImageData call() throws Exception {
+				return decodeImage(ref);
+			}
+		});
+	}
+
+	/**
+	 * Decodes an image on a worker thread, scaled to the given size.
+	 * @param ref the image resource name
+	 * @param width the scaled width
+	 * @param height the scaled height, or 0 to preserve the aspect ratio
+	 * @return the pending image data
+	 */
+	public static Future<ImageData> loadImage(final String ref, final int width, final int height) {
+		return submit(new Callable<ImageData>() {
+			@Override
+			public ImageData call() throws Exception {
+				return decodeScaledImage(ref, width, height, 0f);
+			}
+		});
+	}
+
+	/**
+	 * Decodes an image on a worker thread, scaled by the given factor.
+	 * @param ref the image resource name
+	 * @param scale the scale factor
+	 * @return the pending image data
+	 */
+	public static Future<ImageData> loadImage(final String ref, final float scale) {
+		return submit(new Callable<ImageData>() {
+			@Override
+			public ImageData call() throws Exception {
+				return decodeScaledImage(ref, 0, 0, scale);
+			}
+		});
+	}
+
+	/**
+	 * Decodes a sequence of images (e.g. animation frames) on a worker thread,
+	 * scaled to the given size.
+	 * @param width the scaled width
+	 * @param height the scaled height
+	 * @param refs the image resource names
+	 * @return the pending image data, in the same order
+	 */
+	public static Future<ImageData[]> loadImages(final int width, final int height, final String... refs) {
+		return submit(new Callable<ImageData[]>() {
+			@Override
+			public ImageData[] call() throws Exception {
+				ImageData[] data = new ImageData[refs.length];
+				for (int i = 0; i < refs.length; i++)
+					data[i] = decodeScaledImage(refs[i], width, height, 0f);
+				return data;
+			}
+		});
+	}
+
+	/**
+	 * Decodes a sequence of images (e.g. animation frames) on a worker thread,
+	 * scaled by the given factor.
+	 * @param scale the scale factor
+	 * @param refs the image resource names
+	 * @return the pending image data, in the same order
+	 */
+	public static Future<ImageData[]> loadImages(final float scale, final String... refs) {
+		return submit(new Callable<ImageData[]>() {
+			@Override
+			public ImageData[] call() throws Exception {
+				ImageData[] data = new ImageData[refs.length];
+				for (int i = 0; i < refs.length; i++)
+					data[i] = decodeScaledImage(refs[i], 0, 0, scale);
+				return data;
+			}
+		});
+	}
+
+	/**
+	 * Returns scaled image data, from the image cache if possible.
+	 * @param ref the image resource name
+	 * @param width the scaled width (if scale is 0)
+	 * @param height the scaled height (if scale is 0), or 0 to preserve the aspect ratio
+	 * @param scale the scale factor, or 0 to use the given dimensions
+	 * @return the image data
+	 */
+	private static ImageData decodeScaledImage(String ref, int width, int height, float scale) throws Exception {
+		String key = (scale > 0f) ? String.format("%s@%s", ref, Float.toString(scale)) :
+		                            String.format("%s@%dx%d", ref, width, height);
+		long hash = ImageCache.hash(ref);
+		ImageData data = ImageCache.get(key, hash);
+		if (data != null)
+			return data;
+
+		BufferedImage img = ImageCache.read(ref);
+		if (scale > 0f) {
+			width = (int) (img.getWidth() * scale);
+			height = (int) (img.getHeight() * scale);
+		} else if (height <= 0)
+			height = (int) ((float) img.getHeight() * width / img.getWidth());
+		return ImageCache.put(key, hash, ImageCache.scale(img, width, height));
+	}
+
+	/**
+	 * Decodes an image into a raw pixel buffer.
+	 * @param ref the image resource name
+	 * @return the image data
+	 */
+	private static ImageData decodeImage(String ref) throws Exception {
+		LoadableImageData data = ImageDataFactory.getImageDataFor(ref);
+		try (InputStream in = new BufferedInputStream(ResourceLoader.getResourceAsStream(ref))) {
+			data.loadImage(in, false, null);
+		}
+		return data;
+	}
+
+	/**
+	 * Uploads a decoded image as a texture (main thread only).
+	 * @param data the pending image data
+	 * @return the image
+	 * @throws SlickException failure to decode the image
+	 */
+	public static Image getImage(Future<ImageData> data) throws SlickException {
+		return new Image(get(data));
+	}
+
+	/**
+	 * Uploads a sequence of decoded images as textures (main thread only).
+	 * @param data the pending image data
+	 * @return the images
+	 * @throws SlickException failure to decode the images
+	 */
+	public static Image[] getImages(Future<ImageData[]> data) throws SlickException {
+		ImageData[] frames = get(data);
+		Image[] images = new Image[frames.length];
+		for (int i = 0; i < frames.length; i++)
+			images[i] = new Image(frames[i]);
+		return images;
+	}
+
+	/**
+	 * Waits for a task to complete and returns its result.
+	 * @param result the pending result
+	 * @return the result
+	 * @throws SlickException if the task failed or was interrupted
+	 */
+	public static <T> T get(Future<T> result) throws SlickException {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			throw new SlickException("Failed to load asset.", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SlickException("Interrupted while loading asset.", e);
+		}
+	}
+
+	/**
+	 * Returns the fraction of submitted decoding tasks that have finished.
+	 * @return the progress [0, 1]
+	 */
+	public static float getProgress() {
+		int total = taskCount.get();
+		return (total == 0) ? 1f : (float) finishedCount.get() / total;
+	}
+
+	/**
+	 * Logs the time taken by a loading stage.
+	 * @param stage the stage name
+	 * @param start the stage start time, from {@link System#nanoTime()}
+	 */
+	public static void logTime(String stage, long start) {
+		Log.info(String.format("%s: %d ms", stage, elapsed(start)));
+	}
+
+	/**
+	 * Returns the milliseconds elapsed since a time.
+	 * @param start the start time, from {@link System#nanoTime()}
+	 * @return the elapsed time (in ms)
+	 */
+	private static long elapsed(long start) {
+		return (System.nanoTime() - start) / 1000000L;
+	}
+}
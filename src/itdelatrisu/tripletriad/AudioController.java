@@ -18,33 +18,69 @@
 
 package itdelatrisu.tripletriad;
 
-import org.newdawn.slick.Music;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import org.lwjgl.openal.AL10;
 import org.newdawn.slick.SlickException;
-import org.newdawn.slick.Sound;
+import org.newdawn.slick.openal.Audio;
+import org.newdawn.slick.openal.SoundStore;
+import org.newdawn.slick.openal.StreamSound;
 import org.newdawn.slick.util.Log;
+import org.newdawn.slick.util.ResourceLoader;
 
 /**
  * Controller for all audio.
  */
 public class AudioController {
+	/** BGM file name. */
+	private static final String BGM_FILE = "bgm.ogg";
+
 	/** BGM track. */
-	private static Music bgm;
+	private static Audio bgm;
+
+	/** BGM stream (decoded during playback). */
+	private static MusicStream bgmStream;
+
+	/** Pending audio decoding task. */
+	private static Future<Void> loadTask;
+
+	/** Maximum number of sound effects playing at once. */
+	private static final int MAX_VOICES = 8;
+
+	/** OpenAL sources of the voices (-1 if free). */
+	private static final int[] voiceSources = new int[MAX_VOICES];
+
+	/** Effects playing in the voices. */
+	private static final Effect[] voiceEffects = new Effect[MAX_VOICES];
+
+	/** Start times of the voices, in milliseconds. */
+	private static final long[] voiceStartTimes = new long[MAX_VOICES];
 
 	/** Sound effects. */
 	public enum Effect {
-		BACK ("sound-back.wav"),
-		CARD ("sound-card.wav"),
-		INVALID ("sound-invalid.wav"),
-		SELECT ("sound-select.wav"),
-		SPECIAL ("sound-special.wav"),
-		START ("sound-start.wav"),
-		TURN ("sound-turn.wav");
+		BACK ("sound-back.wav", 50, 1),
+		CARD ("sound-card.wav", 50, 2),
+		INVALID ("sound-invalid.wav", 100, 1),
+		SELECT ("sound-select.wav", 30, 2),
+		SPECIAL ("sound-special.wav", 0, 1),
+		START ("sound-start.wav", 0, 1),
+		TURN ("sound-turn.wav", 50, 3);
 
 		/** The associated file name. */
 		private String filename;
 
 		/** The associated sound. */
-		private Sound sound;
+		private Audio sound;
+
+		/** Minimum time between plays, in milliseconds. */
+		private int minInterval;
+
+		/** Maximum number of voices playing this effect at once. */
+		private int maxVoices;
+
+		/** Last play time, in milliseconds. */
+		private long lastPlayTime = Long.MIN_VALUE / 2;
 
 		/**
 		 * Initializes all sound effects.
@@ -52,7 +88,7 @@ public class AudioController {
 		private static void init() {
 			for (Effect effect : Effect.values()) {
 				try {
-					effect.sound = new Sound(effect.filename);
+					effect.sound = SoundStore.get().getWAV(effect.filename);
 				} catch (Exception e) {
 					Log.error(String.format("Failed to load sound '%s'.", effect.filename), e);
 				}
@@ -62,30 +98,167 @@ public class AudioController {
 		/**
 		 * Constructor.
 		 * @param filename the file name
+		 * @param minInterval the minimum time between plays (in ms)
+		 * @param maxVoices the maximum number of simultaneous plays
 		 */
-		Effect(String filename) {
+		Effect(String filename, int minInterval, int maxVoices) {
 			this.filename = filename;
+			this.minInterval = minInterval;
+			this.maxVoices = maxVoices;
 		}
 
 		/**
-		 * Plays the sound effect.
+		 * Plays the sound effect, unless it was played too recently.
+		 * If all voices are busy, the oldest one is stopped.
 		 */
-		public void play() { if (sound != null) sound.play(); }
+		public void play() {
+			if (sound == null)
+				return;
+
+			long time = System.nanoTime() / 1000000L;
+			if (time - lastPlayTime < minInterval)
+				return;
+			lastPlayTime = time;
+
+			int voice = getVoice(this);
+			if (voiceSources[voice] != -1)  // steal
+				SoundStore.get().stopSoundEffect(voiceSources[voice]);
+			setVoice(voice, sound.playAsSoundEffect(1f, SoundStore.get().getSoundVolume(), false), this, time);
+		}
+	}
+
+	static {
+		for (int i = 0; i < MAX_VOICES; i++)
+			voiceSources[i] = -1;
 	}
 
 	// This class should not be instantiated.
 	private AudioController() {}
 
+	/**
+	 * Returns a voice to play an effect in: the effect's oldest voice if it
+	 * is already playing the maximum number of times, otherwise a free voice,
+	 * otherwise the oldest voice.
+	 * @param effect the effect to be played
+	 * @return the voice index
+	 */
+	private static int getVoice(Effect effect) {
+		int count = 0, oldestSame = -1, oldest = -1, free = -1;
+		for (int i = 0; i < MAX_VOICES; i++) {
+			int source = voiceSources[i];
+			if (source != -1 && AL10.alGetSourcei(source, AL10.AL_SOURCE_STATE) != AL10.AL_PLAYING)
+				setVoice(i, -1, null, 0);
+			if (voiceSources[i] == -1) {
+				if (free == -1)
+					free = i;
+				continue;
+			}
+			if (voiceEffects[i] == effect) {
+				count++;
+				if (oldestSame == -1 || voiceStartTimes[i] < voiceStartTimes[oldestSame])
+					oldestSame = i;
+			}
+			if (oldest == -1 || voiceStartTimes[i] < voiceStartTimes[oldest])
+				oldest = i;
+		}
+		if (count >= effect.maxVoices)
+			return oldestSame;
+		return (free != -1) ? free : oldest;
+	}
+
+	/**
+	 * Sets the state of a voice.
+	 * @param voice the voice index
+	 * @param source the OpenAL source, or -1 if free
+	 * @param effect the effect playing
+	 * @param time the start time (in ms)
+	 */
+	private static void setVoice(int voice, int source, Effect effect, long time) {
+		// sources are reused by SoundStore once stopped: release stale voices
+		if (source != -1) {
+			for (int i = 0; i < MAX_VOICES; i++) {
+				if (voiceSources[i] == source)
+					voiceSources[i] = -1;
+			}
+		}
+		voiceSources[voice] = source;
+		voiceEffects[voice] = (source != -1) ? effect : null;
+		voiceStartTimes[voice] = time;
+	}
+
+	/**
+	 * Starts decoding all audio in the background.
+	 * <p>
+	 * OpenAL contexts are process-wide, so buffers can be filled from a
+	 * worker thread (unlike GL textures).
+	 */
+	public static void load() {
+		loadTask = AssetLoader.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				decode();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Opens the BGM stream and decodes all sound effects.
+	 * <p>
+	 * The BGM track is always streamed (never fully decoded into memory).
+	 * @throws SlickException failure to load the BGM track
+	 */
+	private static void decode() throws SlickException {
+		SoundStore store = SoundStore.get();
+		store.setMaxSources(MAX_VOICES + 2);  // music, voices, and one unused by SoundStore
+		store.init();
+		if (store.soundWorks()) {
+			if (!ResourceLoader.resourceExists(BGM_FILE))
+				throw new SlickException(String.format("Resource not found: %s", BGM_FILE));
+			bgmStream = new MusicStream(store.getSource(0), BGM_FILE);
+			bgm = new StreamSound(bgmStream);
+		}
+		Effect.init();
+	}
+
 	/**
 	 * Initializes sounds and starts the BGM track.
+	 * If {@link #load()} was not called, audio is decoded here.
 	 */
 	public static void init() {
 		try {
-			bgm = new Music("bgm.ogg");
-			bgm.loop();
-			Effect.init();
+			if (loadTask != null) {
+				AssetLoader.get(loadTask);
+				loadTask = null;
+			} else
+				decode();
+			if (bgm != null) {
+				bgm.playAsMusic(1f, 1f, true);
+				SoundStore.get().setCurrentMusicVolume(1f);
+			}
 		} catch (SlickException e) {
 			Log.error("Failed to load audio.", e);
 		}
 	}
+
+	/**
+	 * Updates the BGM stream (refills any processed buffers).
+	 * @param delta the delta interval since the last call
+	 */
+	public static void update(int delta) {
+		if (bgm != null)
+			SoundStore.get().poll(delta);
+	}
+
+	/**
+	 * Logs BGM streaming statistics.
+	 */
+	public static void logStats() {
+		if (bgmStream == null)
+			return;
+
+		Log.info(String.format("BGM: decoded %d sections in %d ms (CPU), %d buffer underruns.",
+				bgmStream.getSectionCount(), bgmStream.getDecodeTime() / 1000000L,
+				bgmStream.getUnderruns()));
+	}
 }
\ No newline at end of file
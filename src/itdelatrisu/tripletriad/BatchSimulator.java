@@ -0,0 +1,529 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+import itdelatrisu.tripletriad.ai.AI;
+import itdelatrisu.tripletriad.ai.RandomAI;
+import itdelatrisu.tripletriad.ai.SelfPlay;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Simulates a batch of games in lockstep.
+ * <p>
+ * All games are stored in flat primitive arrays indexed by game (card
+ * ranks and elements, board cells, and bitmasks of owners and hands), and
+ * {@link #step()} advances every unfinished game by one move, one pass over
+ * the arrays at a time: choosing the moves, computing the captures, then
+ * applying them.  No objects are created while simulating.
+ * <p>
+ * Each game has a table of 10 cards (the player's cards at indices 0-4,
+ * the opponent's at 5-9).  Moves are encoded as in {@link GameState}
+ * ({@code (card << 4) | position}), using these table indices, and
+ * captures follow the same rules, using the rules active when the batch
+ * was created.
+ * <p>
+ * Usage (benchmark): {@code BatchSimulator [games] [batch size]}
+ * (rules are read from the configuration file).
+ */
+public class BatchSimulator {
+	/** Move policies. */
+	public enum Policy {
+		/** Uniformly random card and position. */
+		RANDOM,
+
+		/** Move with the most captures (first found on ties). */
+		GREEDY
+	}
+
+	/** Cards per game. */
+	private static final int CARDS = 10;
+
+	/** Bitmask of all board positions. */
+	private static final int FULL = 0x1FF;
+
+	/** Number of games. */
+	private final int size;
+
+	/** Move policy. */
+	private final Policy policy;
+
+	/** Active rules. */
+	private final boolean same, sameWall, plus, combo;
+
+	/** Card ranks (by (game * 10 + card) * 4 + rank location). */
+	private final byte[] ranks;
+
+	/** Card IDs (by game * 10 + card). */
+	private final short[] ids;
+
+	/** Card elements (by game * 10 + card; ordinal of {@link Element}). */
+	private final byte[] cardElements;
+
+	/** Board elements (by game * 9 + position; 0 if neutral). */
+	private final byte[] cellElements;
+
+	/** Card at each position (by game * 9 + position; -1 if empty). */
+	private final byte[] cells;
+
+	/** Bitmasks of occupied positions and positions owned by the player. */
+	private final short[] occupied, playerOwned;
+
+	/** Bitmasks of the cards in each hand. */
+	private final short[] playerHands, opponentHands;
+
+	/** Side to move (PLAYER or OPPONENT). */
+	private final boolean[] turns;
+
+	/** Last move and captures of each game (-1 if the game did not move). */
+	private final short[] moves, captures;
+
+	/** Random number generator state (xorshift64*). */
+	private long seed;
+
+	/**
+	 * Constructor.
+	 * @param size the number of games
+	 * @param policy the move policy
+	 * @param seed the random seed
+	 */
+	public BatchSimulator(int size, Policy policy, long seed) {
+		this.size = size;
+		this.policy = policy;
+		this.seed = (seed == 0) ? 0x9E3779B97F4A7C15L : seed;
+		this.same = Rule.SAME.isActive();
+		this.sameWall = Rule.SAME_WALL.isActive();
+		this.plus = Rule.PLUS.isActive();
+		this.combo = Rule.COMBO.isActive();
+		this.ranks = new byte[size * CARDS * 4];
+		this.ids = new short[size * CARDS];
+		this.cardElements = new byte[size * CARDS];
+		this.cellElements = new byte[size * 9];
+		this.cells = new byte[size * 9];
+		this.occupied = new short[size];
+		this.playerOwned = new short[size];
+		this.playerHands = new short[size];
+		this.opponentHands = new short[size];
+		this.turns = new boolean[size];
+		this.moves = new short[size];
+		this.captures = new short[size];
+	}
+
+	/**
+	 * Sets up a new game.
+	 * @param game the game index
+	 * @param playerCards the player's cards (5)
+	 * @param opponentCards the opponent's cards (5)
+	 * @param elements the element board (or null)
+	 * @param turn the side to move first (PLAYER or OPPONENT)
+	 */
+	public void deal(int game, Card[] playerCards, Card[] opponentCards, Element[] elements, boolean turn) {
+		for (int i = 0; i < CARDS; i++) {
+			Card c = (i < 5) ? playerCards[i] : opponentCards[i - 5];
+			int card = game * CARDS + i;
+			for (Card.Rank rank : Card.Rank.values())
+				ranks[card * 4 + rank.ordinal()] = (byte) c.getRank(rank);
+			ids[card] = (short) c.getID();
+			cardElements[card] = (byte) c.getElement().ordinal();
+		}
+		for (int pos = 0; pos < 9; pos++) {
+			cellElements[game * 9 + pos] = (byte) ((elements == null) ? 0 : elements[pos].ordinal());
+			cells[game * 9 + pos] = -1;
+		}
+		occupied[game] = 0;
+		playerOwned[game] = 0;
+		playerHands[game] = 0x1F;
+		opponentHands[game] = 0x1F << 5;
+		turns[game] = turn;
+		moves[game] = -1;
+		captures[game] = 0;
+	}
+
+	/**
+	 * Advances every unfinished game by one move.
+	 * @return the number of games advanced
+	 */
+	public int step() {
+		// choose moves
+		int count = 0;
+		for (int g = 0; g < size; g++) {
+			int hand = (turns[g] == TripleTriad.PLAYER) ? playerHands[g] : opponentHands[g];
+			if (playerHands[g] == 0 || opponentHands[g] == 0) {
+				moves[g] = -1;
+				continue;
+			}
+			int empty = ~occupied[g] & FULL;
+			if (policy == Policy.RANDOM) {
+				int card = selectBit(hand, nextInt(Integer.bitCount(hand)));
+				int pos = selectBit(empty, nextInt(Integer.bitCount(empty)));
+				moves[g] = (short) GameState.getMove(card, pos);
+			} else {
+				int best = -1, bestCount = -1;
+				for (int h = hand; h != 0; h &= h - 1) {
+					int card = Integer.numberOfTrailingZeros(h);
+					for (int e = empty; e != 0; e &= e - 1) {
+						int pos = Integer.numberOfTrailingZeros(e);
+						int n = Integer.bitCount(getCaptures(g, card, pos));
+						if (n > bestCount) {
+							best = GameState.getMove(card, pos);
+							bestCount = n;
+						}
+					}
+				}
+				moves[g] = (short) best;
+			}
+			count++;
+		}
+
+		// compute captures
+		for (int g = 0; g < size; g++) {
+			int move = moves[g];
+			if (move != -1)
+				captures[g] = (short) getCaptures(g, GameState.getMoveCard(move), GameState.getMovePosition(move));
+		}
+
+		// apply moves
+		for (int g = 0; g < size; g++) {
+			int move = moves[g];
+			if (move == -1)
+				continue;
+			int card = GameState.getMoveCard(move);
+			int pos = GameState.getMovePosition(move);
+			cells[g * 9 + pos] = (byte) card;
+			occupied[g] |= 1 << pos;
+			if (turns[g] == TripleTriad.PLAYER) {
+				playerHands[g] &= ~(1 << card);
+				playerOwned[g] |= (1 << pos) | captures[g];
+			} else {
+				opponentHands[g] &= ~(1 << card);
+				playerOwned[g] &= ~captures[g];
+			}
+			turns[g] = !turns[g];
+		}
+		return count;
+	}
+
+	/**
+	 * Plays every game to the end.
+	 */
+	public void run() {
+		while (step() > 0)
+			;
+	}
+
+	/**
+	 * Returns the element rank bonus of a card at a position.
+	 * @param game the game index
+	 * @param card the card index
+	 * @param position the board position
+	 * @return the bonus (-1, 0, or 1)
+	 */
+	private int getBonus(int game, int card, int position) {
+		int element = cellElements[game * 9 + position];
+		if (element == 0)
+			return 0;
+		return (cardElements[game * CARDS + card] == element) ? 1 : -1;
+	}
+
+	/**
+	 * Returns the rank of a card.
+	 * @param game the game index
+	 * @param card the card index
+	 * @param location the rank location
+	 * @return the rank
+	 */
+	private int getRank(int game, int card, int location) {
+		return ranks[(game * CARDS + card) * 4 + location];
+	}
+
+	/**
+	 * Returns the positions whose owners change if the side to move places
+	 * a card (see {@link GameState#getCaptures(int)}).
+	 * @param game the game index
+	 * @param card the card index
+	 * @param position the board position (must be empty)
+	 * @return the bitmask of captured positions
+	 */
+	private int getCaptures(int game, int card, int position) {
+		int base = game * 9;
+		int owned = (turns[game] == TripleTriad.PLAYER) ? playerOwned[game] : occupied[game] & ~playerOwned[game];
+		int opposing = occupied[game] & ~owned;
+
+		// process card results on all sides
+		int sameMask = 0, sums = 0, sumSides = 0, result = 0;
+		boolean isWall = false;
+		int sourceBonus = getBonus(game, card, position);
+		for (int dir = 0; dir < 4; dir++) {
+			int target = GameState.NEIGHBORS[position * 4 + dir];
+			int sourceRank = getRank(game, card, GameState.SOURCE_SIDE[dir]);
+			if (target == -1) {  // "Same Wall"
+				if (sourceRank == 10)
+					isWall = true;
+				continue;
+			}
+			int targetCard = cells[base + target];
+			if (targetCard == -1)
+				continue;
+
+			int targetRank = getRank(game, targetCard, GameState.TARGET_SIDE[dir]);
+			if (sourceRank == targetRank)
+				sameMask |= 1 << target;
+			sums |= (sourceRank + targetRank) << (dir * 5);
+			sumSides |= 1 << dir;
+			if ((opposing & (1 << target)) != 0 &&
+				sourceRank + sourceBonus > targetRank + getBonus(game, targetCard, target))
+				result |= 1 << target;
+		}
+
+		// "Same" or "Plus"
+		int special = 0;
+		if (same && Integer.bitCount(sameMask) >= ((isWall && sameWall) ? 1 : 2) && (sameMask & opposing) != 0)
+			special = sameMask;
+		else if (plus)
+			special = GameState.getPlus(position, sums, sumSides, opposing);
+		if (special == 0)
+			return result;
+
+		result = (special & opposing) | (result & ~special);
+		if (!combo)
+			return result;
+
+		// chain combos from the opposing "Same"/"Plus" cards
+		owned |= (1 << position) | result;
+		int sources = special & opposing;
+		while (sources != 0) {
+			int comboMask = 0;
+			for (int s = sources; s != 0; s &= s - 1) {
+				int source = Integer.numberOfTrailingZeros(s);
+				int sourceCard = cells[base + source];
+				for (int dir = 0; dir < 4; dir++) {
+					int target = GameState.NEIGHBORS[source * 4 + dir];
+					if (target == -1 || (occupied[game] & ~owned & (1 << target)) == 0)
+						continue;
+					int targetCard = cells[base + target];
+					if (getRank(game, sourceCard, GameState.SOURCE_SIDE[dir]) + getBonus(game, sourceCard, source) >
+						getRank(game, targetCard, GameState.TARGET_SIDE[dir]) + getBonus(game, targetCard, target))
+						comboMask |= 1 << target;
+				}
+			}
+			owned |= comboMask;
+			result |= comboMask;
+			sources = comboMask;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the next random integer in [0, bound).
+	 * @param bound the bound (positive)
+	 * @return the integer
+	 */
+	private int nextInt(int bound) {
+		seed ^= seed >>> 12;
+		seed ^= seed << 25;
+		seed ^= seed >>> 27;
+		return (int) ((((seed * 0x2545F4914F6CDD1DL) >>> 32) * bound) >>> 32);
+	}
+
+	/**
+	 * Returns the index of the n-th set bit of a bitmask.
+	 * @param mask the bitmask
+	 * @param n the bit number (less than the number of set bits)
+	 * @return the bit index
+	 */
+	private static int selectBit(int mask, int n) {
+		for (int i = 0; i < n; i++)
+			mask &= mask - 1;
+		return Integer.numberOfTrailingZeros(mask);
+	}
+
+	/**
+	 * Returns the number of games.
+	 * @return the batch size
+	 */
+	public int size() { return size; }
+
+	/**
+	 * Returns whether or not a game is over.
+	 * @param game the game index
+	 * @return true if either hand is empty
+	 */
+	public boolean isGameOver(int game) { return (playerHands[game] == 0 || opponentHands[game] == 0); }
+
+	/**
+	 * Returns the player's score in a game (cards owned on the board and in hand).
+	 * @param game the game index
+	 * @return the score [0, 10]
+	 */
+	public int getScore(int game) {
+		return Integer.bitCount(playerOwned[game]) + Integer.bitCount(playerHands[game]);
+	}
+
+	/**
+	 * Returns the side to move in a game.
+	 * @param game the game index
+	 * @return PLAYER or OPPONENT
+	 */
+	public boolean getTurn(int game) { return turns[game]; }
+
+	/**
+	 * Returns the ID of a card in a game.
+	 * @param game the game index
+	 * @param card the card index
+	 * @return the card ID
+	 */
+	public int getCardID(int game, int card) { return ids[game * CARDS + card]; }
+
+	/**
+	 * Returns the card at a board position in a game.
+	 * @param game the game index
+	 * @param position the board position
+	 * @return the card index, or -1 if empty
+	 */
+	public int getBoardCard(int game, int position) { return cells[game * 9 + position]; }
+
+	/**
+	 * Returns the board positions owned by the player in a game.
+	 * @param game the game index
+	 * @return the bitmask of positions
+	 */
+	public int getPlayerOwned(int game) { return playerOwned[game]; }
+
+	/**
+	 * Returns the cards in a side's hand in a game.
+	 * @param game the game index
+	 * @param side PLAYER or OPPONENT
+	 * @return the bitmask of card indices
+	 */
+	public int getHand(int game, boolean side) {
+		return (side == TripleTriad.PLAYER) ? playerHands[game] : opponentHands[game];
+	}
+
+	/**
+	 * Returns the element of a board position in a game.
+	 * @param game the game index
+	 * @param position the board position
+	 * @return the ordinal of the {@link Element} (NEUTRAL if none)
+	 */
+	public int getElement(int game, int position) { return cellElements[game * 9 + position]; }
+
+	/**
+	 * Returns the last move played in a game by {@link #step()}.
+	 * @param game the game index
+	 * @return the move (card table index and position), or -1 if none
+	 */
+	public int getLastMove(int game) { return moves[game]; }
+
+	/**
+	 * Returns the positions captured by the last move played in a game.
+	 * @param game the game index
+	 * @return the bitmask of captured positions
+	 */
+	public int getLastCaptures(int game) { return captures[game]; }
+
+	public static void main(String[] args) {
+		int games = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int batchSize = (args.length > 1) ? Integer.parseInt(args[1]) : 4096;
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		List<Card> deck = new Deck().getCards();
+
+		// deals for one batch
+		Random random = new Random(0);
+		Card[][][] hands = new Card[batchSize][][];
+		Element[][] elements = new Element[batchSize][];
+		boolean[] turns = new boolean[batchSize];
+		for (int g = 0; g < batchSize; g++) {
+			hands[g] = SelfPlay.deal(deck, random);
+			elements[g] = SelfPlay.getElements(random);
+			turns[g] = random.nextBoolean();
+		}
+
+		for (Policy policy : Policy.values()) {
+			BatchSimulator batch = new BatchSimulator(batchSize, policy, 1);
+
+			// check the first batch against game states
+			for (int g = 0; g < batchSize; g++)
+				batch.deal(g, hands[g][0], hands[g][1], elements[g], turns[g]);
+			GameState[] states = new GameState[batchSize];
+			for (int g = 0; g < batchSize; g++) {
+				states[g] = new GameState(new Card[9], elements[g],
+						Arrays.asList(hands[g][0]), Arrays.asList(hands[g][1]), turns[g]);
+			}
+			int mismatches = 0;
+			while (batch.step() > 0) {
+				for (int g = 0; g < batchSize; g++) {
+					int move = batch.getLastMove(g);
+					if (move == -1)
+						continue;
+					int card = GameState.getMoveCard(move);
+					Card c = hands[g][card / 5][card % 5];
+					int stateMove = states[g].getMove(c, GameState.getMovePosition(move));
+					if (states[g].makeMove(stateMove) != batch.getLastCaptures(g))
+						mismatches++;
+				}
+			}
+			for (int g = 0; g < batchSize; g++) {
+				if (batch.getScore(g) != states[g].getScore(TripleTriad.PLAYER))
+					mismatches++;
+			}
+
+			// time all batches
+			long time = System.nanoTime();
+			long wins = 0;
+			for (int played = 0; played < games; played += batchSize) {
+				for (int g = 0; g < batchSize; g++)
+					batch.deal(g, hands[g][0], hands[g][1], elements[g], turns[g]);
+				batch.run();
+				for (int g = 0; g < batchSize; g++) {
+					if (batch.getScore(g) > 5)
+						wins++;
+				}
+			}
+			time = System.nanoTime() - time;
+			int played = (games + batchSize - 1) / batchSize * batchSize;
+			System.out.printf("%s: %d games, %.0f games/s, player won %.1f%%, %d mismatches%n",
+					policy.toString(), played, played * 1e9 / time, wins * 100.0 / played, mismatches);
+		}
+
+		// one game at a time, for comparison
+		SelfPlay.AIFactory factory = new SelfPlay.AIFactory() {
+			@Override
+			public AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+				return new RandomAI(hand, board, elements);
+			}
+		};
+		int count = Math.max(games / 100, 1);
+		long time = System.nanoTime();
+		for (int i = 0; i < count; i++) {
+			int g = i % batchSize;
+			SelfPlay.play(hands[g][0], hands[g][1], elements[g], turns[g], factory, factory);
+		}
+		time = System.nanoTime() - time;
+		System.out.printf("SelfPlay (random AIs): %d games, %.0f games/s%n", count, count * 1e9 / time);
+	}
+}
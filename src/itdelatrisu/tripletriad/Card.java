@@ -18,34 +18,17 @@
 
 package itdelatrisu.tripletriad;
 
-import org.newdawn.slick.Graphics;
 import org.newdawn.slick.Image;
-import org.newdawn.slick.util.Log;
 
 /**
- * Card data type.
+ * Card instance in a game (a {@link CardDef} with its position and owner).
  */
 public class Card {
 	/** Rank locations. */
 	public enum Rank { TOP, LEFT, RIGHT, BOTTOM };
 
-	/** Card ID. */
-	private int id;
-
-	/** Card name. */
-	private String name;
-
-	/** Card ranks. */
-	private int rankTop, rankLeft, rankRight, rankBottom;
-
-	/** Card element. */
-	private Element element;
-
-	/** Card level. */
-	private int level;
-
-	/** Card image. */
-	private Image img;
+	/** Card definition. */
+	private final CardDef def;
 
 	/** Card position [0, 8], or -1 if not played. */
 	private int position = -1;
@@ -69,12 +52,11 @@ public class Card {
 	private static boolean isCardPlaying = false;
 
 	/**
-	 * Returns the integer rank of a character.
-	 * @param c the character
-	 * @return the rank
+	 * Constructor.
+	 * @param def the card definition
 	 */
-	private static int getRank(char c) {
-		return (c == 'A') ? 10 : Character.getNumericValue(c);
+	public Card(CardDef def) {
+		this.def = def;
 	}
 
 	/**
@@ -86,112 +68,71 @@ public class Card {
 	 * @param level the card level
 	 */
 	public Card(int id, String name, String ranks, Element element, int level) {
-		this.id = id;
-		this.name = name;
-		this.rankTop = getRank(ranks.charAt(0));
-		this.rankLeft = getRank(ranks.charAt(1));
-		this.rankRight = getRank(ranks.charAt(2));
-		this.rankBottom = getRank(ranks.charAt(3));
-		this.element = element;
-		this.level = level;
+		this(CardDef.valueOf(id, name, ranks, element, level));
 	}
 
 	/**
-	 * Creates a copy of a card.
+	 * Creates a new instance of a card.
 	 * @param original the original card
 	 */
 	public Card(Card original) {
-		this.id = original.id;
-		this.name = original.name;
-		this.rankTop = original.rankTop;
-		this.rankLeft = original.rankLeft;
-		this.rankRight = original.rankRight;
-		this.rankBottom = original.rankBottom;
-		this.element = original.element;
-		this.level = original.level;
-		this.img = original.img;
-
-		if (img == null)
-			loadCardImage();
+		this(original, true);
 	}
 
 	/**
-	 * Loads card image data.
+	 * Creates a new instance of a card.
+	 * @param original the original card
+	 * @param loadImage whether to load the card image (false for simulations,
+	 *        which do not require a GL context)
 	 */
-	private void loadCardImage() {
-		try {
-			// base image
-			Image card = new Image(String.format("%03d.png", id));
-			int length = card.getWidth();
-			Graphics g = card.getGraphics();
-
-			// ranks
-			int rankWidth = GameImage.RANK_0.getImage().getWidth();
-			int rankHeight = GameImage.RANK_0.getImage().getHeight();
-			float rankOffset = length * 0.06f;
-			g.drawImage(GameImage.getRank(rankTop).getImage(), rankOffset + (rankWidth / 2f), rankOffset);
-			g.drawImage(GameImage.getRank(rankLeft).getImage(), rankOffset, rankOffset + rankHeight);
-			g.drawImage(GameImage.getRank(rankRight).getImage(), rankOffset + rankWidth, rankOffset + rankHeight);
-			g.drawImage(GameImage.getRank(rankBottom).getImage(), rankOffset + (rankWidth / 2f), rankOffset + (rankHeight * 2));
-
-			// element
-			if (element != Element.NEUTRAL) {
-				Image e = element.getFirstFrame();
-				g.drawImage(e, (length * 0.94f) - e.getWidth(), length * 0.05f);
-			}
-
-			g.flush();
-			card = card.getScaledCopy(Options.getCardLength(), Options.getCardLength());
-			this.img = card;
-		} catch (Exception e) {
-			Log.error(String.format("Failed to load card %d.", id), e);
-		}
+	public Card(Card original, boolean loadImage) {
+		this.def = original.def;
+		if (loadImage)
+			def.loadImage();
 	}
 
+	/**
+	 * Returns the card definition.
+	 * @return the definition
+	 */
+	public CardDef getDef() { return def; }
+
 	/**
 	 * Returns the card ID.
 	 * @return the ID
 	 */
-	public int getID() { return id; }
+	public int getID() { return def.getID(); }
 
 	/**
 	 * Returns the card name.
 	 * @return the name
 	 */
-	public String getName() { return name; }
+	public String getName() { return def.getName(); }
 
 	/**
 	 * Returns the card rank.
 	 * @param rank the rank location
 	 * @return the rank
 	 */
-	public int getRank(Rank rank) {
-		switch (rank) {
-			case TOP: return rankTop;
-			case LEFT: return rankLeft;
-			case RIGHT: return rankRight;
-			case BOTTOM: return rankBottom;
-		}
-		return -1;
-	}
+	public int getRank(Rank rank) { return def.getRank(rank); }
 
 	/**
 	 * Returns the card element.
 	 * @return the element
 	 */
-	public Element getElement() { return element; }
+	public Element getElement() { return def.getElement(); }
 
 	/**
 	 * Returns the card level.
 	 * @return the level
 	 */
-	public int getLevel() { return level; }
+	public int getLevel() { return def.getLevel(); }
 
 	/**
 	 * Returns the card image.
-	 * @return the image
+	 * @return the image, or null if not loaded
 	 */
-	public Image getImage() { return img; }
+	public Image getImage() { return def.getImage(); }
 
 	/**
 	 * Draws the card at a location.
@@ -199,8 +140,8 @@ public class Card {
 	 * @param y the y coordinate
 	 */
 	public void draw(float x, float y) {
-		if (img == null)
-			loadCardImage();
+		def.loadImage();
+		Image img = def.getImage();
 
 		// card placing: calculate scale
 		float scale = 1f;
@@ -250,9 +191,8 @@ public class Card {
 	 * @param y the center y coordinate
 	 */
 	public void drawCentered(float x, float y) {
-		if (img == null)
-			loadCardImage();
-
+		def.loadImage();
+		Image img = def.getImage();
 		draw(x - (img.getWidth() / 2) , y - (img.getHeight() / 2));
 	}
 
@@ -317,6 +257,12 @@ public class Card {
 	 */
 	public void resetPosition() { position = -1; }
 
+	/**
+	 * Sets the card position, without any animation (e.g. for simulations).
+	 * @param position the board position
+	 */
+	public void setPosition(int position) { this.position = position; }
+
 	/**
 	 * Plays the card at a position and initiates the animation.
 	 * @param position the board position
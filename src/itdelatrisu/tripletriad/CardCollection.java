@@ -0,0 +1,443 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+import itdelatrisu.tripletriad.ai.CardStats;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.newdawn.slick.util.Log;
+
+/**
+ * The player's persistent card collection.
+ * <p>
+ * The collection is a count of owned copies per card ID, stored in a small
+ * binary file (a short header and one byte per ID) that is read and written
+ * in a single I/O operation.  A new collection starts with one copy of each
+ * level 1 card.
+ * <p>
+ * Trades are appended to a journal file as one synced batch per game, and
+ * are folded into the collection file every few games (and on exit).  The
+ * collection file is replaced atomically, and carries a generation number
+ * so that a journal already folded into it is never replayed.
+ */
+public class CardCollection {
+	/** Collection file. */
+	private static final File COLLECTION_FILE = new File(".triple-triad.collection");
+
+	/** Trade journal file. */
+	private static final File JOURNAL_FILE = new File(".triple-triad.collection.log");
+
+	/** File header values. */
+	private static final int MAGIC = 0x54544343, JOURNAL_MAGIC = 0x5454434A, VERSION = 2;
+
+	/** File header sizes. */
+	private static final int HEADER_SIZE = 16, JOURNAL_HEADER_SIZE = 8;
+
+	/** Size of a journal record (card ID and count change). */
+	private static final int RECORD_SIZE = 3;
+
+	/** Number of journaled trades before the collection file is rewritten. */
+	private static final int COMPACT_INTERVAL = 16;
+
+	/** Maximum number of copies of a card. */
+	public static final int MAX_COUNT = 255;
+
+	/** Random draws of a repeated card before taking any undrawn card. */
+	private static final int MAX_REDRAWS = 16;
+
+	/** Owned copies (by card ID), or null if not loaded. */
+	private static int[] counts;
+
+	/** Generation of the collection file (incremented on every write). */
+	private static int generation = 0;
+
+	/** Number of trades in the journal. */
+	private static int journaled = 0;
+
+	/** Whether the collection has changed since it was last written. */
+	private static boolean modified = false;
+
+	/** Alias table over owned copies (Vose's method): owned card ID and alternative ID of each column. */
+	private static int[] aliasIDs, aliasOthers;
+
+	/** Alias table: probability of keeping each column's own ID. */
+	private static double[] aliasProbs;
+
+	/** Number of columns in the alias table (-1 if outdated). */
+	private static int aliasSize = -1;
+
+	/** Alias table construction work lists. */
+	private static int[] small, large;
+
+	/** Draw number in which each card ID was last drawn. */
+	private static int[] drawn;
+
+	/** Number of random hands drawn. */
+	private static int drawCount = 0;
+
+	// This class should not be instantiated.
+	private CardCollection() {}
+
+	/**
+	 * Reads the collection file and replays the trade journal, or creates
+	 * a starter collection.
+	 * @param deck the deck
+	 */
+	public static synchronized void load(Deck deck) {
+		counts = new int[deck.getIDCount()];
+		aliasIDs = new int[counts.length];
+		aliasOthers = new int[counts.length];
+		aliasProbs = new double[counts.length];
+		small = new int[counts.length];
+		large = new int[counts.length];
+		drawn = new int[counts.length];
+		aliasSize = -1;
+		generation = 0;
+		journaled = 0;
+		modified = false;
+
+		// interrupted replace: the new file was written, but not renamed
+		File tmp = new File(COLLECTION_FILE.getPath() + ".tmp");
+		if (!COLLECTION_FILE.isFile() && tmp.isFile())
+			tmp.renameTo(COLLECTION_FILE);
+
+		if (!readCollection(deck)) {
+			// starter collection
+			Arrays.fill(counts, 0);
+			for (Card c : deck.getCards()) {
+				if (c.getLevel() == 1)
+					counts[c.getID()] = 1;
+			}
+			modified = true;
+		}
+		readJournal();
+	}
+
+	/**
+	 * Reads the collection file.
+	 * @param deck the deck
+	 * @return true if read
+	 */
+	private static boolean readCollection(Deck deck) {
+		if (!COLLECTION_FILE.isFile())
+			return false;
+
+		try (RandomAccessFile in = new RandomAccessFile(COLLECTION_FILE, "r")) {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			int version = (bytes.length >= 12 && buf.getInt() == MAGIC) ? buf.getInt() : -1;
+			if (version == 1 || version == VERSION) {
+				int n = Math.min(buf.getInt(), counts.length);
+				int fileGeneration = (version == 1) ? 0 : buf.getInt();
+				if (bytes.length >= buf.position() + n) {
+					for (int id = 0; id < n; id++) {
+						int count = buf.get() & 0xFF;
+						if (deck.getCard(id) != null)
+							counts[id] = count;
+					}
+					generation = fileGeneration;
+					return true;
+				}
+			}
+			Log.warn(String.format("Ignoring file '%s' (unknown format).", COLLECTION_FILE.getAbsolutePath()));
+		} catch (IOException e) {
+			Log.error(String.format("Failed to read file '%s'.", COLLECTION_FILE.getAbsolutePath()), e);
+		}
+		return false;
+	}
+
+	/**
+	 * Replays the trade journal, if it belongs to the current collection file.
+	 * Only complete batches are replayed (an incomplete batch is truncated).
+	 */
+	private static void readJournal() {
+		if (!JOURNAL_FILE.isFile())
+			return;
+
+		try (RandomAccessFile in = new RandomAccessFile(JOURNAL_FILE, "rw")) {
+			byte[] bytes = new byte[(int) in.length()];
+			in.readFully(bytes);
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			if (bytes.length < JOURNAL_HEADER_SIZE || buf.getInt() != JOURNAL_MAGIC || buf.getInt() != generation)
+				return;  // stale (already folded into the collection file)
+
+			int length = buf.position();
+			while (buf.hasRemaining()) {
+				int n = buf.get() & 0xFF;
+				if (buf.remaining() < n * RECORD_SIZE)
+					break;
+				for (int i = 0; i < n; i++)
+					change(buf.getShort(), buf.get());
+				journaled++;
+				length = buf.position();
+			}
+			if (length < bytes.length)
+				in.setLength(length);
+		} catch (IOException e) {
+			Log.error(String.format("Failed to read file '%s'.", JOURNAL_FILE.getAbsolutePath()), e);
+		}
+	}
+
+	/**
+	 * Writes the collection file, if the collection has changed.
+	 * The file is written to a temporary file first, then replaced, and the
+	 * trade journal is deleted.
+	 */
+	public static synchronized void save() {
+		if (!modified || counts == null)
+			return;
+
+		ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + counts.length);
+		buf.putInt(MAGIC).putInt(VERSION).putInt(counts.length).putInt(generation + 1);
+		for (int count : counts)
+			buf.put((byte) count);
+		buf.flip();
+
+		File tmp = new File(COLLECTION_FILE.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tmp)) {
+			out.write(buf.array(), 0, buf.limit());
+			out.getFD().sync();
+		} catch (IOException e) {
+			Log.error(String.format("Failed to write to file '%s'.", tmp.getAbsolutePath()), e);
+			return;
+		}
+		if (!tmp.renameTo(COLLECTION_FILE) && !(COLLECTION_FILE.delete() && tmp.renameTo(COLLECTION_FILE))) {
+			Log.error(String.format("Failed to replace file '%s'.", COLLECTION_FILE.getAbsolutePath()));
+			tmp.delete();
+			return;
+		}
+		generation++;
+		journaled = 0;
+		JOURNAL_FILE.delete();
+		modified = false;
+	}
+
+	/**
+	 * Returns whether or not the collection is loaded.
+	 * @return true if loaded
+	 */
+	public static synchronized boolean isLoaded() { return (counts != null); }
+
+	/**
+	 * Returns the number of owned copies of a card.
+	 * @param id the card ID
+	 * @return the count
+	 */
+	public static synchronized int getCount(int id) {
+		return (counts != null && id >= 0 && id < counts.length) ? counts[id] : 0;
+	}
+
+	/**
+	 * Returns the number of distinct cards owned.
+	 * @return the number of IDs with at least one copy
+	 */
+	public static synchronized int getOwnedCount() {
+		int owned = 0;
+		if (counts != null) {
+			for (int count : counts) {
+				if (count > 0)
+					owned++;
+			}
+		}
+		return owned;
+	}
+
+	/**
+	 * Changes the number of copies of a card (within [0, MAX_COUNT]).
+	 * @param id the card ID
+	 * @param delta the change in count
+	 * @return true if changed
+	 */
+	private static boolean change(int id, int delta) {
+		if (id < 0 || id >= counts.length)
+			return false;
+		int count = Math.max(0, Math.min(MAX_COUNT, counts[id] + delta));
+		if (count == counts[id])
+			return false;
+		counts[id] = count;
+		modified = true;
+		aliasSize = -1;
+		return true;
+	}
+
+	/**
+	 * Transfers cards after a game.
+	 * <p>
+	 * The changes are appended to the trade journal as a single batch and
+	 * synced, so a trade is never lost or half-applied after a crash.
+	 * @param won the cards won by the player
+	 * @param lost the cards lost by the player
+	 */
+	public static synchronized void transfer(List<Card> won, List<Card> lost) {
+		if (counts == null || (won.isEmpty() && lost.isEmpty()))
+			return;
+
+		ByteBuffer batch = ByteBuffer.allocate(1 + (won.size() + lost.size()) * RECORD_SIZE);
+		batch.put((byte) (won.size() + lost.size()));
+		for (Card c : won) {
+			change(c.getID(), 1);
+			batch.putShort((short) c.getID()).put((byte) 1);
+		}
+		for (Card c : lost) {
+			if (!change(c.getID(), -1))
+				Log.warn(String.format("Lost card %d is not in the collection.", c.getID()));
+			batch.putShort((short) c.getID()).put((byte) -1);
+		}
+		batch.flip();
+
+		// append to the journal (a new journal starts with a header)
+		boolean isNew = (journaled == 0 || !JOURNAL_FILE.isFile());
+		try (FileOutputStream out = new FileOutputStream(JOURNAL_FILE, !isNew)) {
+			if (isNew) {
+				ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+				header.putInt(JOURNAL_MAGIC).putInt(generation);
+				out.write(header.array());
+			}
+			out.write(batch.array(), 0, batch.limit());
+			out.getFD().sync();
+			journaled++;
+		} catch (IOException e) {
+			Log.error(String.format("Failed to write to file '%s'.", JOURNAL_FILE.getAbsolutePath()), e);
+		}
+
+		if (journaled >= COMPACT_INTERVAL)
+			save();
+	}
+
+	/**
+	 * Chooses a hand of distinct cards from the collection: the strongest
+	 * owned cards by card statistics (if loaded), then by rank total.
+	 * @param deck the deck
+	 * @param size the hand size
+	 * @return the cards (fewer than the hand size if not enough are owned)
+	 */
+	public static synchronized List<Card> getHand(Deck deck, int size) {
+		if (counts == null)
+			load(deck);
+
+		// insertion sort into the best cards so far
+		List<Card> hand = new ArrayList<Card>(size + 1);
+		for (int id = 0; id < counts.length; id++) {
+			Card c = deck.getCard(id);
+			if (counts[id] == 0 || c == null)
+				continue;
+			int i = hand.size();
+			while (i > 0 && CardStats.compare(c, hand.get(i - 1)) > 0)
+				i--;
+			if (i < size) {
+				hand.add(i, c);
+				if (hand.size() > size)
+					hand.remove(size);
+			}
+		}
+		return hand;
+	}
+
+	/**
+	 * Draws a random hand of distinct cards from the collection (for the
+	 * "Random" rule).  Each owned copy is equally likely to be drawn.
+	 * <p>
+	 * Cards are sampled from an alias table over the owned counts (rebuilt
+	 * only when the collection changes), so each draw takes constant time
+	 * and allocates nothing.  Repeated IDs are redrawn.
+	 * @param deck the deck
+	 * @param hand the hand to fill
+	 * @param random the random number generator
+	 * @return the number of cards drawn (less than the hand size if not
+	 *         enough distinct cards are owned)
+	 */
+	public static synchronized int drawHand(Deck deck, Card[] hand, Random random) {
+		if (counts == null)
+			load(deck);
+		if (aliasSize == -1)
+			buildAliasTable();
+
+		drawCount++;
+		int size = Math.min(hand.length, aliasSize);
+		for (int i = 0; i < size; i++) {
+			int id = -1;
+			for (int attempt = 0; attempt < MAX_REDRAWS && id == -1; attempt++) {
+				int column = random.nextInt(aliasSize);
+				id = (random.nextDouble() < aliasProbs[column]) ? aliasIDs[column] : aliasOthers[column];
+				if (drawn[id] == drawCount)
+					id = -1;
+			}
+			if (id == -1) {
+				// a few cards hold most copies: take the next undrawn ID
+				for (int column = random.nextInt(aliasSize); id == -1; column = (column + 1) % aliasSize) {
+					if (drawn[aliasIDs[column]] != drawCount)
+						id = aliasIDs[column];
+				}
+			}
+			drawn[id] = drawCount;
+			hand[i] = deck.getCard(id);
+		}
+		return size;
+	}
+
+	/**
+	 * Builds the alias table over the owned counts.
+	 */
+	private static void buildAliasTable() {
+		int n = 0, total = 0;
+		for (int id = 0; id < counts.length; id++) {
+			if (counts[id] > 0) {
+				aliasIDs[n++] = id;
+				total += counts[id];
+			}
+		}
+
+		// split columns into under- and over-full (scaled to an average of 1)
+		int smallCount = 0, largeCount = 0;
+		for (int i = 0; i < n; i++) {
+			aliasProbs[i] = (double) counts[aliasIDs[i]] * n / total;
+			aliasOthers[i] = aliasIDs[i];
+			if (aliasProbs[i] < 1.0)
+				small[smallCount++] = i;
+			else
+				large[largeCount++] = i;
+		}
+
+		// fill each under-full column from an over-full one
+		while (smallCount > 0 && largeCount > 0) {
+			int s = small[--smallCount], l = large[largeCount - 1];
+			aliasOthers[s] = aliasIDs[l];
+			aliasProbs[l] -= 1.0 - aliasProbs[s];
+			if (aliasProbs[l] < 1.0) {
+				largeCount--;
+				small[smallCount++] = l;
+			}
+		}
+		while (largeCount > 0)
+			aliasProbs[large[--largeCount]] = 1.0;
+		while (smallCount > 0)
+			aliasProbs[small[--smallCount]] = 1.0;  // rounding error
+		aliasSize = n;
+	}
+}
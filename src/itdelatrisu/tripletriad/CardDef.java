@@ -0,0 +1,261 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.newdawn.slick.Image;
+import org.newdawn.slick.opengl.ImageData;
+import org.newdawn.slick.util.Log;
+
+/**
+ * Immutable card definition (shared by all instances of a card).
+ * <p>
+ * Definitions are interned by ID, so each card's data and composed image
+ * exist once no matter how many games or simulations use the card.
+ * Per-game state (position and owner) is kept in {@link Card}.
+ */
+public class CardDef {
+	/** Interned definitions (by ID). */
+	private static CardDef[] table = new CardDef[0];
+
+	/** Card ID. */
+	private final int id;
+
+	/** Card name. */
+	private final String name;
+
+	/** Card ranks. */
+	private final int rankTop, rankLeft, rankRight, rankBottom;
+
+	/** Card element. */
+	private final Element element;
+
+	/** Card level. */
+	private final int level;
+
+	/** Card image (loaded on first use). */
+	private Image img;
+
+	/**
+	 * Returns the interned definition of a card, creating it if necessary.
+	 * @param id the card ID
+	 * @param name the card name
+	 * @param ranks the card ranks ({top}{left}{right}{bottom})
+	 * @param element the card element
+	 * @param level the card level
+	 * @return the definition
+	 */
+	public static synchronized CardDef valueOf(int id, String name, String ranks, Element element, int level) {
+		CardDef def = new CardDef(id, name, ranks, element, level);
+		if (id >= table.length)
+			table = Arrays.copyOf(table, Math.max(id + 1, table.length * 2));
+		CardDef old = table[id];
+		if (old != null && old.equals(def))
+			return old;
+		table[id] = def;
+		return def;
+	}
+
+	/**
+	 * Returns the interned definition of a card.
+	 * @param id the card ID
+	 * @return the definition, or null if none
+	 */
+	public static synchronized CardDef get(int id) {
+		return (id >= 0 && id < table.length) ? table[id] : null;
+	}
+
+	/**
+	 * Returns the integer rank of a character.
+	 * @param c the character
+	 * @return the rank
+	 */
+	private static int getRank(char c) {
+		return (c == 'A') ? 10 : Character.getNumericValue(c);
+	}
+
+	/**
+	 * Constructor.
+	 * @param id the card ID
+	 * @param name the card name
+	 * @param ranks the card ranks ({top}{left}{right}{bottom})
+	 * @param element the card element
+	 * @param level the card level
+	 */
+	private CardDef(int id, String name, String ranks, Element element, int level) {
+		this.id = id;
+		this.name = name;
+		this.rankTop = getRank(ranks.charAt(0));
+		this.rankLeft = getRank(ranks.charAt(1));
+		this.rankRight = getRank(ranks.charAt(2));
+		this.rankBottom = getRank(ranks.charAt(3));
+		this.element = element;
+		this.level = level;
+	}
+
+	/**
+	 * Returns whether or not two definitions hold the same data.
+	 * @param def the other definition
+	 * @return true if equal
+	 */
+	private boolean equals(CardDef def) {
+		return (id == def.id && name.equals(def.name) &&
+		        rankTop == def.rankTop && rankLeft == def.rankLeft &&
+		        rankRight == def.rankRight && rankBottom == def.rankBottom &&
+		        element == def.element && level == def.level);
+	}
+
+	/**
+	 * Loads the card image (from the image cache if possible), unless
+	 * already loaded.  Requires a GL context.
+	 */
+	public void loadImage() {
+		if (img == null)
+			loadCardImage();
+	}
+
+	/**
+	 * Loads card image data, from the image cache if possible.
+	 */
+	private void loadCardImage() {
+		try {
+			String[] refs = {
+				String.format("%03d.png", id),
+				GameImage.RANK_0.getFilename(),
+				GameImage.getRank(rankTop).getFilename(),
+				GameImage.getRank(rankLeft).getFilename(),
+				GameImage.getRank(rankRight).getFilename(),
+				GameImage.getRank(rankBottom).getFilename(),
+				(element != Element.NEUTRAL) ? element.getFirstFrameName() : ""
+			};
+			String key = String.format("card-%03d", id);
+			long hash = ImageCache.hash(refs);
+			ImageData data = ImageCache.get(key, hash);
+			if (data == null)
+				data = ImageCache.put(key, hash, composeCardImage(refs));
+			this.img = new Image(data);
+		} catch (Exception e) {
+			Log.error(String.format("Failed to load card %d.", id), e);
+		}
+	}
+
+	/**
+	 * Draws the ranks and element onto the base card image, scaled to the
+	 * card length.
+	 * @param refs the image file names (base image, RANK_0, top, left,
+	 *        right and bottom ranks, element or an empty string)
+	 * @return the card image
+	 * @throws IOException failure to read an image
+	 */
+	private BufferedImage composeCardImage(String[] refs) throws IOException {
+		// base image
+		BufferedImage card = ImageCache.read(refs[0]);
+		if (card.getType() != BufferedImage.TYPE_INT_ARGB) {
+			BufferedImage copy = new BufferedImage(card.getWidth(), card.getHeight(), BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = copy.createGraphics();
+			g.drawImage(card, 0, 0, null);
+			g.dispose();
+			card = copy;
+		}
+		int length = card.getWidth();
+		Graphics2D g = card.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+
+		// ranks
+		BufferedImage rank0 = ImageCache.read(refs[1]);
+		int rankWidth = rank0.getWidth();
+		int rankHeight = rank0.getHeight();
+		float rankOffset = length * 0.06f;
+		drawImage(g, ImageCache.read(refs[2]), rankOffset + (rankWidth / 2f), rankOffset);
+		drawImage(g, ImageCache.read(refs[3]), rankOffset, rankOffset + rankHeight);
+		drawImage(g, ImageCache.read(refs[4]), rankOffset + rankWidth, rankOffset + rankHeight);
+		drawImage(g, ImageCache.read(refs[5]), rankOffset + (rankWidth / 2f), rankOffset + (rankHeight * 2));
+
+		// element
+		if (!refs[6].isEmpty()) {
+			BufferedImage e = ImageCache.read(refs[6]);
+			drawImage(g, e, (length * 0.94f) - e.getWidth(), length * 0.05f);
+		}
+
+		g.dispose();
+		return ImageCache.scale(card, Options.getCardLength(), Options.getCardLength());
+	}
+
+	/**
+	 * Draws an image at a (fractional) location.
+	 * @param g the graphics context
+	 * @param img the image
+	 * @param x the x coordinate
+	 * @param y the y coordinate
+	 */
+	private static void drawImage(Graphics2D g, BufferedImage img, float x, float y) {
+		g.drawImage(img, AffineTransform.getTranslateInstance(x, y), null);
+	}
+
+	/**
+	 * Returns the card ID.
+	 * @return the ID
+	 */
+	public int getID() { return id; }
+
+	/**
+	 * Returns the card name.
+	 * @return the name
+	 */
+	public String getName() { return name; }
+
+	/**
+	 * Returns the card rank.
+	 * @param rank the rank location
+	 * @return the rank
+	 */
+	public int getRank(Card.Rank rank) {
+		switch (rank) {
+			case TOP: return rankTop;
+			case LEFT: return rankLeft;
+			case RIGHT: return rankRight;
+			case BOTTOM: return rankBottom;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the card element.
+	 * @return the element
+	 */
+	public Element getElement() { return element; }
+
+	/**
+	 * Returns the card level.
+	 * @return the level
+	 */
+	public int getLevel() { return level; }
+
+	/**
+	 * Returns the card image.
+	 * @return the image, or null if not loaded
+	 */
+	public Image getImage() { return img; }
+}
@@ -18,11 +18,17 @@
 
 package itdelatrisu.tripletriad;
 
+import itdelatrisu.tripletriad.ai.CardStats;
+
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
 
 import org.newdawn.slick.util.Log;
 import org.newdawn.slick.util.ResourceLoader;
@@ -34,6 +40,21 @@ public class Deck {
 	/** List of cards. */
 	private ArrayList<Card> deck;
 
+	/** Cards by ID (null for unused IDs). */
+	private Card[] cardsByID;
+
+	/** Cards by level, each sorted by rank total. */
+	private Card[][] levels;
+
+	/** Deal number in which each card (in {@link #levels}) was last used. */
+	private int[][] used;
+
+	/** Number of level-matched deals. */
+	private int dealCount = 0;
+
+	/** Random number generator for drawing from the collection. */
+	private final Random random = new Random();
+
 	/**
 	 * Creates a deck by parsing all cards.
 	 */
@@ -94,7 +115,7 @@ public class Deck {
 				// level
 				int level = 0;
 				try {
-					level = Integer.parseInt(tokens[0]);
+					level = Integer.parseInt(tokens[4]);
 				} catch (NumberFormatException e) {
 					Log.warn(String.format("Failed to parse level in line: %s", line), e);
 					continue;
@@ -109,10 +130,71 @@ public class Deck {
 		} catch (IOException e) {
 			Log.error("Failed to read card data.", e);
 		}
+
+		// index cards by ID
+		int maxID = -1;
+		for (Card c : deck)
+			maxID = Math.max(maxID, c.getID());
+		cardsByID = new Card[maxID + 1];
+		for (Card c : deck)
+			cardsByID[c.getID()] = c;
+
+		// index cards by level
+		int maxLevel = 0;
+		for (Card c : deck)
+			maxLevel = Math.max(maxLevel, c.getLevel());
+		List<List<Card>> lists = new ArrayList<List<Card>>(maxLevel + 1);
+		for (int i = 0; i <= maxLevel; i++)
+			lists.add(new ArrayList<Card>());
+		for (Card c : deck)
+			lists.get(c.getLevel()).add(c);
+		levels = new Card[maxLevel + 1][];
+		used = new int[maxLevel + 1][];
+		for (int i = 0; i <= maxLevel; i++) {
+			List<Card> list = lists.get(i);
+			Collections.sort(list, new Comparator<Card>() {
+				@Override
+				public int compare(Card c1, Card c2) { return Integer.compare(getRankTotal(c1), getRankTotal(c2)); }
+			});
+			levels[i] = list.toArray(new Card[list.size()]);
+			used[i] = new int[list.size()];
+		}
 	}
 
+	/**
+	 * Returns the sum of a card's ranks.
+	 * @param c the card
+	 * @return the rank total [4, 40]
+	 */
+	public static int getRankTotal(Card c) {
+		return c.getRank(Card.Rank.TOP) + c.getRank(Card.Rank.LEFT) +
+		       c.getRank(Card.Rank.RIGHT) + c.getRank(Card.Rank.BOTTOM);
+	}
+
+	/**
+	 * Returns all cards in the deck.
+	 * @return an unmodifiable list of cards
+	 */
+	public List<Card> getCards() { return Collections.unmodifiableList(deck); }
+
+	/**
+	 * Returns a card by ID.
+	 * @param id the card ID
+	 * @return the card, or null if no card has the ID
+	 */
+	public Card getCard(int id) { return (id >= 0 && id < cardsByID.length) ? cardsByID[id] : null; }
+
+	/**
+	 * Returns the number of card IDs (the highest card ID + 1).
+	 * @return the ID count
+	 */
+	public int getIDCount() { return cardsByID.length; }
+
 	/**
 	 * Builds two hands of cards, without repeats.
+	 * If collection mode is enabled, the player hand is chosen from the
+	 * player's collection (see {@link CardCollection#getHand(Deck, int)}),
+	 * or drawn from it if the "Random" rule is active.
 	 * @param playerCards the player hand
 	 * @param opponentCards the opponent hand
 	 */
@@ -123,14 +205,192 @@ public class Deck {
 			return;
 		}
 
-		Collections.shuffle(deck);
+		// player hand from the collection
+		List<Card> player = null;
+		if (Options.isCollectionMode()) {
+			if (Rule.RANDOM.isActive()) {
+				int count = CardCollection.drawHand(this, playerCards, random);
+				player = Arrays.asList(playerCards).subList(0, count);
+			} else
+				player = CardCollection.getHand(this, playerCards.length);
+			if (player.size() < playerCards.length) {
+				Log.warn("Not enough cards in the collection.");
+				player = null;
+			}
+		}
+
+		List<Card> cards;
+		switch (Options.getDealMode()) {
+		case BALANCED:
+			cards = dealMatched(player, playerCards.length, opponentCards.length, 0);
+			if (CardStats.isLoaded() && player == null)
+				cards = getBalancedSplit(cards, playerCards.length);
+			break;
+		case HANDICAP:
+			cards = dealMatched(player, playerCards.length, opponentCards.length, Options.getHandicap());
+			break;
+		default:
+			Collections.shuffle(deck);
+			if (player == null)
+				cards = deck.subList(0, playerCards.length + opponentCards.length);
+			else {
+				cards = new ArrayList<Card>(player);
+				for (int i = 0; cards.size() < playerCards.length + opponentCards.length; i++) {
+					if (!player.contains(deck.get(i)))
+						cards.add(deck.get(i));
+				}
+			}
+			break;
+		}
 		for (int i = 0; i < playerCards.length; i++) {
-			playerCards[i] = new Card(deck.get(i));
+			playerCards[i] = new Card(cards.get(i));
 			playerCards[i].setOwner(TripleTriad.PLAYER);
 		}
 		for (int i = 0; i < opponentCards.length; i++) {
-			opponentCards[i] = new Card(deck.get(i + playerCards.length));
+			opponentCards[i] = new Card(cards.get(i + playerCards.length));
 			opponentCards[i].setOwner(TripleTriad.OPPONENT);
 		}
 	}
+
+	/**
+	 * Deals two hands whose total levels differ by a given gap.
+	 * <p>
+	 * The gap is spread evenly over the hands: each player card is paired
+	 * with an opponent card at a random level, offset by the gap's share.
+	 * Both cards are then drawn from the level index at the same relative
+	 * rank total, so each pair differs only by its level offset.  Each card
+	 * costs a constant number of index lookups (no shuffling or rejection).
+	 * @param player the player cards (or null to deal them)
+	 * @param playerSize the player hand size
+	 * @param opponentSize the opponent hand size
+	 * @param gap the player's total level minus the opponent's
+	 * @return the player cards followed by the opponent cards
+	 */
+	private List<Card> dealMatched(List<Card> player, int playerSize, int opponentSize, int gap) {
+		int maxLevel = levels.length - 1;
+		List<Card> opponent = new ArrayList<Card>(opponentSize);
+		dealCount++;
+		if (player != null) {
+			// given cards: mark as used
+			for (Card c : player)
+				used[c.getLevel()][indexOf(c)] = dealCount;
+			player = new ArrayList<Card>(player);
+		} else
+			player = new ArrayList<Card>(playerSize);
+		boolean dealPlayer = player.isEmpty();
+		for (int i = 0, pairs = Math.min(playerSize, opponentSize); i < pairs; i++) {
+			// level offset of this pair (remaining gap spread over remaining pairs)
+			int share = gap / (pairs - i);
+			if (gap % (pairs - i) != 0)
+				share += Integer.signum(gap);
+			share = Math.max(1 - maxLevel, Math.min(maxLevel - 1, share));
+			gap -= share;
+
+			if (dealPlayer) {
+				int minLevel = Math.max(1, 1 - share);
+				int opponentLevel = minLevel + (int) (Math.random() * (Math.min(maxLevel, maxLevel - share) - minLevel + 1));
+				double rank = Math.random();
+				player.add(draw(opponentLevel + share, rank));
+				opponent.add(draw(opponentLevel, rank));
+			} else {
+				Card c = player.get(i);
+				int level = c.getLevel();
+				double rank = (indexOf(c) + 0.5) / levels[level].length;
+				opponent.add(draw(Math.max(1, Math.min(maxLevel, level - share)), rank));
+			}
+		}
+		for (int i = player.size(); i < playerSize; i++)
+			player.add(draw(1 + (int) (Math.random() * maxLevel), Math.random()));
+		for (int i = opponent.size(); i < opponentSize; i++)
+			opponent.add(draw(1 + (int) (Math.random() * maxLevel), Math.random()));
+
+		player.addAll(opponent);
+		return player;
+	}
+
+	/**
+	 * Returns the index of a card in its level index.
+	 * @param c the card
+	 * @return the index
+	 */
+	private int indexOf(Card c) {
+		Card[] cards = levels[c.getLevel()];
+		for (int i = 0; i < cards.length; i++) {
+			if (cards[i].getID() == c.getID())
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Draws an unused card from the level index.
+	 * If the level has no unused cards, the nearest level with one is used.
+	 * @param level the card level
+	 * @param rank the relative rank total [0, 1)
+	 * @return the card
+	 */
+	private Card draw(int level, double rank) {
+		for (int d = 0; d < levels.length * 2; d++) {
+			int l = level + ((d % 2 == 0) ? d / 2 : -(d / 2 + 1));
+			if (l < 0 || l >= levels.length || levels[l].length == 0)
+				continue;
+
+			// nearest unused card to the relative rank
+			Card[] cards = levels[l];
+			int index = (int) (rank * cards.length);
+			for (int j = 0; j < cards.length * 2; j++) {
+				int k = index + ((j % 2 == 0) ? j / 2 : -(j / 2 + 1));
+				if (k >= 0 && k < cards.length && used[l][k] != dealCount) {
+					used[l][k] = dealCount;
+					return cards[k];
+				}
+			}
+		}
+		return null;  // not reached (at least 10 cards)
+	}
+
+	/**
+	 * Splits cards into two hands with the closest strengths (see
+	 * {@link CardStats#getHandValue(Card[])}), trying every split.
+	 * @param cards the cards to split
+	 * @param size the size of the first hand
+	 * @return the cards, reordered so that the first hand comes first
+	 */
+	private static List<Card> getBalancedSplit(List<Card> cards, int size) {
+		int n = cards.size();
+		Card[] first = new Card[size], second = new Card[n - size];
+		int bestSplit = (1 << size) - 1;
+		float bestDiff = Float.MAX_VALUE;
+		for (int split = 0; split < (1 << n); split++) {
+			// each pair of complementary splits only once (first card in the first hand)
+			if (Integer.bitCount(split) != size || (split & 1) == 0)
+				continue;
+
+			for (int i = 0, j = 0, k = 0; i < n; i++) {
+				if ((split & (1 << i)) != 0)
+					first[j++] = cards.get(i);
+				else
+					second[k++] = cards.get(i);
+			}
+			float diff = Math.abs(CardStats.getHandValue(first) - CardStats.getHandValue(second));
+			if (diff < bestDiff) {
+				bestDiff = diff;
+				bestSplit = split;
+			}
+		}
+
+		// randomly assign the hands
+		if (Math.random() < 0.5 && size * 2 == n)
+			bestSplit = ~bestSplit & ((1 << n) - 1);
+		List<Card> list = new ArrayList<Card>(n);
+		for (int i = 0; i < n; i++) {
+			if ((bestSplit & (1 << i)) != 0)
+				list.add(cards.get(i));
+		}
+		for (int i = 0; i < n; i++) {
+			if ((bestSplit & (1 << i)) == 0)
+				list.add(cards.get(i));
+		}
+		return list;
+	}
 }
\ No newline at end of file
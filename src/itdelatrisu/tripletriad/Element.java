@@ -21,9 +21,11 @@ package itdelatrisu.tripletriad;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.Future;
 
 import org.newdawn.slick.Animation;
-import org.newdawn.slick.Image;
+import org.newdawn.slick.opengl.ImageData;
 import org.newdawn.slick.util.Log;
 
 /**
@@ -38,31 +40,52 @@ public enum Element {
 	/** Element animation. */
 	private Animation animation;
 
-	/** First frame (unscaled). */
-	private Image firstFrame;
+	/** The decoded frame data (until initialized). */
+	private Future<ImageData[]> frameData;
+
+	/**
+	 * Returns the frame file names for an element.
+	 * @param ele the element
+	 * @return the file names
+	 */
+	private static String[] getFrameNames(Element ele) {
+		String name = ele.toString().toLowerCase();
+		String[] names = new String[FRAMES];
+		for (int i = 1; i <= names.length; i++)
+			names[i - 1] = String.format("ele-%s%d.png", name, i);
+		return names;
+	}
+
+	/**
+	 * Starts decoding all element animations in the background, pre-scaled
+	 * to the current card length.
+	 */
+	public static void load() {
+		int length = Options.getCardLength() / 4;
+		for (Element ele : Element.values()) {
+			if (ele != NEUTRAL)
+				ele.frameData = AssetLoader.loadImages(length, length, getFrameNames(ele));
+		}
+	}
 
 	/**
 	 * Initializes all element animations.
+	 * If {@link #load()} was not called, frames are decoded here.
 	 */
 	public static void init() {
-		int length = Options.getCardLength() / 4;
+		if (FIRE.frameData == null)
+			load();
 		for (Element ele : Element.values()) {
 			if (ele == NEUTRAL)
 				continue;
 
-			String name = ele.toString().toLowerCase();
-			Image[] frames = new Image[FRAMES];
 			try {
-				for (int i = 1; i <= frames.length; i++) {
-					Image frame = new Image(String.format("ele-%s%d.png", name, i));
-					if (ele.firstFrame == null)
-						ele.firstFrame = frame;
-					frames[i - 1] = frame.getScaledCopy(length, length);
-				}
-				ele.animation = new Animation(frames, 100);
+				ele.animation = new Animation(AssetLoader.getImages(ele.frameData), 100);
 			} catch (Exception e) {
-				Log.error(String.format("Failed to load images for element '%s'.", name), e);
+				Log.error(String.format("Failed to load images for element '%s'.",
+						ele.toString().toLowerCase()), e);
 			}
+			ele.frameData = null;
 		}
 	}
 
@@ -70,23 +93,30 @@ public enum Element {
 	 * Returns a random board of elements.
 	 * @return an array of size 9, with each index containing an Element
 	 */
-	public static Element[] getRandomBoard() {
+	public static Element[] getRandomBoard() { return getRandomBoard(new Random()); }
+
+	/**
+	 * Returns a random board of elements.
+	 * @param random the random number generator
+	 * @return an array of size 9, with each index containing an Element
+	 */
+	public static Element[] getRandomBoard(Random random) {
 		// shuffle elements
 		LinkedList<Element> elements = new LinkedList<Element>(Arrays.asList(Element.values()));
-		Collections.shuffle(elements);
+		Collections.shuffle(elements, random);
 
 		// build array
 		Element[] board = new Element[9];
 		for (int i = 0; i < board.length; i++)
-			board[i] = (Math.random() < 0.25) ? elements.remove() : NEUTRAL;
+			board[i] = (random.nextDouble() < 0.25) ? elements.remove() : NEUTRAL;
 		return board;
 	}
 
 	/**
-	 * Returns the first frame of the element animation (unscaled).
-	 * @return the first unscaled frame
+	 * Returns the file name of the first frame of the element animation.
+	 * @return the file name
 	 */
-	public Image getFirstFrame() { return firstFrame; }
+	public String getFirstFrameName() { return getFrameNames(this)[0]; }
 
 	/**
 	 * Draws the element at a position on the board.
@@ -0,0 +1,177 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+import java.awt.Color;
+import java.awt.FontFormatException;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+
+import org.newdawn.slick.AngelCodeFont;
+import org.newdawn.slick.Font;
+import org.newdawn.slick.Image;
+import org.newdawn.slick.SlickException;
+import org.newdawn.slick.opengl.ImageData;
+import org.newdawn.slick.opengl.InternalTextureLoader;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Baked bitmap fonts.
+ * <p>
+ * The printable ASCII glyphs of a TrueType font are rasterized once per
+ * size into an atlas stored in the {@link ImageCache}, with the glyph
+ * metrics written to an AngelCode font definition file.  Later launches
+ * load both directly, without touching the TrueType font.
+ */
+public class FontAtlas {
+	/** Font definition file. */
+	private static final File FNT_FILE = new File(".triple-triad.fnt");
+
+	/** Range of baked characters. */
+	private static final char FIRST_CHAR = 32, LAST_CHAR = 126;
+
+	/** Atlas width. */
+	private static final int ATLAS_WIDTH = 512;
+
+	/** Padding around each glyph. */
+	private static final int PADDING = 2;
+
+	// This class should not be instantiated.
+	private FontAtlas() {}
+
+	/**
+	 * Loads a font, baking its atlas first if needed (main thread only).
+	 * @param ref the TrueType font file name
+	 * @param size the font size
+	 * @return the font
+	 * @throws SlickException failure to load the font
+	 */
+	public static Font load(String ref, int size) throws SlickException {
+		String key = String.format("font-%s@%d", ref, size);
+		long hash = ImageCache.hash(ref);
+		String info = String.format("info face=\"%s\" size=%d hash=%d", ref, size, hash);
+
+		ImageData data = ImageCache.get(key, hash);
+		if (data == null || !info.equals(readInfo())) {
+			try {
+				data = ImageCache.put(key, hash, bake(ref, size, info));
+			} catch (IOException | FontFormatException e) {
+				throw new SlickException(String.format("Failed to bake font '%s'.", ref), e);
+			}
+		}
+		return new AngelCodeFont(FNT_FILE.getPath(), new Image(data));
+	}
+
+	/**
+	 * Rasterizes the glyphs of a font into an atlas and writes the font
+	 * definition file.
+	 * @param ref the TrueType font file name
+	 * @param size the font size
+	 * @param info the info line identifying the font
+	 * @return the atlas image (white glyphs on a transparent background)
+	 */
+	private static BufferedImage bake(String ref, int size, String info)
+			throws IOException, FontFormatException {
+		java.awt.Font font;
+		try (InputStream in = ResourceLoader.getResourceAsStream(ref)) {
+			font = java.awt.Font.createFont(java.awt.Font.TRUETYPE_FONT, in).deriveFont((float) size);
+		}
+
+		// measure glyphs and lay them out in rows
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D sg = scratch.createGraphics();
+		sg.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+		FontMetrics metrics = sg.getFontMetrics(font);
+		sg.dispose();
+		int ascent = metrics.getAscent();
+		int cellHeight = ascent + metrics.getDescent() + PADDING * 2;
+		int count = LAST_CHAR - FIRST_CHAR + 1;
+		int[] x = new int[count], y = new int[count], width = new int[count], advance = new int[count];
+		int penX = 0, penY = 0;
+		for (int i = 0; i < count; i++) {
+			advance[i] = metrics.charWidth((char) (FIRST_CHAR + i));
+			width[i] = advance[i] + PADDING * 2;
+			if (penX + width[i] > ATLAS_WIDTH) {
+				penX = 0;
+				penY += cellHeight;
+			}
+			x[i] = penX;
+			y[i] = penY;
+			penX += width[i];
+		}
+		int atlasHeight = InternalTextureLoader.get2Fold(penY + cellHeight);
+
+		// rasterize
+		BufferedImage atlas = new BufferedImage(ATLAS_WIDTH, atlasHeight, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = atlas.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_OFF);
+		g.setFont(font);
+		g.setColor(Color.WHITE);
+		for (int i = 0; i < count; i++)
+			g.drawString(String.valueOf((char) (FIRST_CHAR + i)), x[i] + PADDING, y[i] + PADDING + ascent);
+		g.dispose();
+
+		// glyph metrics
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(FNT_FILE), "utf-8"))) {
+			writer.write(info);
+			writer.newLine();
+			writer.write(String.format("common lineHeight=%d base=%d scaleW=%d scaleH=%d pages=1",
+					metrics.getHeight(), ascent, ATLAS_WIDTH, atlasHeight));
+			writer.newLine();
+			writer.write("page id=0 file=\"\"");
+			writer.newLine();
+			writer.write(String.format("chars count=%d", count));
+			writer.newLine();
+			for (int i = 0; i < count; i++) {
+				writer.write(String.format(
+						"char id=%d x=%d y=%d width=%d height=%d xoffset=%d yoffset=%d xadvance=%d page=0 chnl=0",
+						FIRST_CHAR + i, x[i], y[i], width[i], cellHeight, -PADDING, -PADDING, advance[i]));
+				writer.newLine();
+			}
+		}
+		return atlas;
+	}
+
+	/**
+	 * Returns the first line of the font definition file.
+	 * @return the line, or null if none
+	 */
+	private static String readInfo() {
+		if (!FNT_FILE.isFile())
+			return null;
+
+		try (BufferedReader in = new BufferedReader(new FileReader(FNT_FILE))) {
+			return in.readLine();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
@@ -18,7 +18,10 @@
 
 package itdelatrisu.tripletriad;
 
+import java.util.concurrent.Future;
+
 import org.newdawn.slick.Image;
+import org.newdawn.slick.opengl.ImageData;
 import org.newdawn.slick.util.Log;
 
 /**
@@ -86,63 +89,79 @@ public enum GameImage {
 	/** The associated image. */
 	private Image img;
 
+	/** The decoded image data (until initialized). */
+	private Future<ImageData> data;
+
+	/**
+	 * Starts decoding all game images in the background, pre-scaled to the
+	 * current card length.
+	 */
+	public static void load() {
+		int cardLength = Options.getCardLength();
+		float baseScale = cardLength / 256f;
+		int scoreLength = (int) (cardLength * 0.4f);
+		float infoScale = cardLength * 2.75f / 1024f;
+		for (GameImage o : GameImage.values()) {
+			switch (o) {
+			case BOARD_MAT:
+				o.data = AssetLoader.loadImage(o.filename, Options.getWidth(), 0);
+				break;
+			case CARD_BACK:
+			case CARD_BLUE:
+			case CARD_RED:
+			case CARD_GRAY:
+				o.data = AssetLoader.loadImage(o.filename, cardLength, cardLength);
+				break;
+			case CURSOR:
+				o.data = AssetLoader.loadImage(o.filename, baseScale / 2.25f);
+				break;
+			case SCORE_1:
+			case SCORE_2:
+			case SCORE_3:
+			case SCORE_4:
+			case SCORE_5:
+			case SCORE_6:
+			case SCORE_7:
+			case SCORE_8:
+			case SCORE_9:
+				o.data = AssetLoader.loadImage(o.filename, scoreLength, scoreLength);
+				break;
+			case RESULT_WIN:
+			case RESULT_LOSE:
+			case RESULT_DRAW:
+			case SPECIAL_SAME:
+			case SPECIAL_PLUS:
+			case SPECIAL_COMBO:
+			case BONUS_PLUS:
+			case BONUS_MINUS:
+				o.data = AssetLoader.loadImage(o.filename, baseScale);
+				break;
+			case INFO_BOX:
+			case INFO_TEXT:
+				o.data = AssetLoader.loadImage(o.filename, infoScale);
+				break;
+			default:  // unscaled
+				o.data = AssetLoader.loadImage(o.filename);
+				break;
+			}
+		}
+	}
+
 	/**
 	 * Initializes all game images.
+	 * If {@link #load()} was not called, images are decoded here.
 	 */
 	public static void init() {
+		if (BOARD_MAT.data == null)
+			load();
 		for (GameImage o : GameImage.values()) {
 			try {
-				o.img = new Image(o.filename);
+				o.img = AssetLoader.getImage(o.data);
 			} catch (Exception e) {
 				Log.error(String.format("Failed to load image '%s'.", o.filename), e);
 			}
+			o.data = null;
 		}
-		scaleImages();
-	}
-
-	/**
-	 * Scales all game images.
-	 */
-	private static void scaleImages() {
-		int cardLength = Options.getCardLength();
-		float baseScale = cardLength / 256f;
-
-		float bgScale = (float) Options.getWidth() / BOARD_MAT.img.getWidth();
-		BOARD_MAT.setScale(bgScale);
-//		BOARD_BG.setScale(bgScale);
-
-		CARD_BACK.setScale(cardLength, cardLength);
-		CARD_BLUE.setScale(cardLength, cardLength);
-		CARD_RED.setScale(cardLength, cardLength);
-		CARD_GRAY.setScale(cardLength, cardLength);
-
-		CURSOR.setScale(baseScale / 2.25f);
-
-		int scoreLength = (int) (cardLength * 0.4f);
-		SCORE_1.setScale(scoreLength, scoreLength);
-		SCORE_2.setScale(scoreLength, scoreLength);
-		SCORE_3.setScale(scoreLength, scoreLength);
-		SCORE_4.setScale(scoreLength, scoreLength);
-		SCORE_5.setScale(scoreLength, scoreLength);
-		SCORE_6.setScale(scoreLength, scoreLength);
-		SCORE_7.setScale(scoreLength, scoreLength);
-		SCORE_8.setScale(scoreLength, scoreLength);
-		SCORE_9.setScale(scoreLength, scoreLength);
-
-		RESULT_WIN.setScale(baseScale);
-		RESULT_LOSE.setScale(baseScale);
-		RESULT_DRAW.setScale(baseScale);
-
-		SPECIAL_SAME.setScale(baseScale);
-		SPECIAL_PLUS.setScale(baseScale);
-		SPECIAL_COMBO.setScale(baseScale);
-
-		BONUS_PLUS.setScale(baseScale);
-		BONUS_MINUS.setScale(baseScale);
-
-		float infoScale = cardLength * 2.75f / 1024f;
-		INFO_BOX.setScale(infoScale);
-		INFO_TEXT.setScale(infoScale);
 	}
 
 	/**
@@ -180,21 +199,14 @@ public enum GameImage {
 	}
 
 	/**
-	 * Returns the image.
-	 * @return the image
-	 */
-	public Image getImage() { return img; }
-
-	/**
-	 * Sets an image scale.
-	 * @param scale the scale [0, 1]
+	 * Returns the file name.
+	 * @return the file name
 	 */
-	private void setScale(float scale) { img = img.getScaledCopy(scale); }
+	public String getFilename() { return filename; }
 
 	/**
-	 * Sets an image scale.
-	 * @param width the scaled width
-	 * @param height the scaled height
+	 * Returns the image.
+	 * @return the image
 	 */
-	private void setScale(int width, int height) { img = img.getScaledCopy(width, height); }
+	public Image getImage() { return img; }
 }
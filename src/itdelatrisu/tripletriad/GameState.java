@@ -0,0 +1,609 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compact game state for searching.
+ * <p>
+ * The cards in a game are stored in a table (sorted by ID), and the board
+ * and hands refer to them by table index: the board is an array of indices
+ * and the hands and owners are bitmasks.  Card results follow the same
+ * rules as {@link CardResult}, using the rules active when the state was
+ * created.
+ * <p>
+ * Moves are played in place with {@link #makeMove(int)} and taken back with
+ * {@link #unmakeMove()}, which only record the move and the bitmask of
+ * captured positions on an undo stack.  Neither copies the state or
+ * touches the {@code Card} objects of the game.
+ * <p>
+ * A move is encoded as {@code (card << 4) | position}.
+ * <p>
+ * Each state has a 64-bit Zobrist key over the card (by ID) at each
+ * position, the position owners, the cards in each hand, the side to
+ * move and the element board.  The key is updated incrementally by each
+ * move.  Keys only depend on card IDs, so they can be compared between
+ * states created from different games (but not with different rules).
+ */
+public class GameState {
+	/** Maximum number of cards in a game. */
+	public static final int MAX_CARDS = 10;
+
+	/** Maximum number of legal moves (5 cards, 9 positions). */
+	public static final int MAX_MOVES = 45;
+
+	/** Rank locations (same order as {@link Card.Rank}). */
+	static final int TOP = 0, LEFT = 1, RIGHT = 2, BOTTOM = 3;
+
+	/** Neighbor positions of each position, in the order LEFT, RIGHT, TOP, BOTTOM (-1 if wall). */
+	static final int[] NEIGHBORS = new int[9 * 4];
+
+	/** Source and target rank locations of each neighbor direction. */
+	static final int[]
+		SOURCE_SIDE = { LEFT, RIGHT, TOP, BOTTOM },
+		TARGET_SIDE = { RIGHT, LEFT, BOTTOM, TOP };
+
+	/** Zobrist keys: positions owned by the player (by bitmask), and side to move. */
+	private static final long[] OWNER_KEYS = new long[1 << 9];
+	private static final long TURN_KEY;
+
+	/** Zobrist key offsets for cards on the board, in hands and elements. */
+	private static final int
+		BOARD_KEY_OFFSET = 0x100000,
+		HAND_KEY_OFFSET = 0x200000,
+		ELEMENT_KEY_OFFSET = 0x300000;
+
+	static {
+		for (int pos = 0; pos < 9; pos++) {
+			NEIGHBORS[pos * 4] = (pos % 3 != 0) ? pos - 1 : -1;
+			NEIGHBORS[pos * 4 + 1] = (pos % 3 != 2) ? pos + 1 : -1;
+			NEIGHBORS[pos * 4 + 2] = (pos > 2) ? pos - 3 : -1;
+			NEIGHBORS[pos * 4 + 3] = (pos < 6) ? pos + 3 : -1;
+		}
+		for (int mask = 1; mask < OWNER_KEYS.length; mask++) {
+			int pos = Integer.numberOfTrailingZeros(mask);
+			OWNER_KEYS[mask] = OWNER_KEYS[mask & (mask - 1)] ^ getZobrist(pos);
+		}
+		TURN_KEY = getZobrist(9);
+	}
+
+	/** Source cards (by table index). */
+	private final Card[] cards;
+
+	/** Card ranks (by table index * 4 + rank location). */
+	private final int[] ranks;
+
+	/** Element rank bonuses (by table index * 9 + position). */
+	private final int[] bonus;
+
+	/** Zobrist keys of each card at each position (by table index * 9 + position). */
+	private final long[] boardKeys;
+
+	/** Zobrist keys of each card in each hand (by table index * 2, +1 for the player). */
+	private final long[] handKeys;
+
+	/** Active rules. */
+	private final boolean same, sameWall, plus, combo;
+
+	/** Table index of the card at each position (-1 if empty). */
+	private final int[] board;
+
+	/** Bitmask of occupied positions. */
+	private int occupied;
+
+	/** Bitmask of positions owned by the player. */
+	private int playerOwned;
+
+	/** Bitmasks of the cards (table indices) in each hand. */
+	private int playerHand, opponentHand;
+
+	/** Turn (PLAYER or OPPONENT). */
+	private boolean turn;
+
+	/** Zobrist key. */
+	private long key;
+
+	/** Undo stack: moves played and positions captured by each. */
+	private final int[] undoMoves = new int[9], undoCaptures = new int[9];
+
+	/** Number of moves on the undo stack. */
+	private int undoCount = 0;
+
+	/**
+	 * Creates a state from the current game.
+	 * @param board the current board
+	 * @param elements the element board (or null)
+	 * @param playerHand the player's hand
+	 * @param opponentHand the opponent's hand
+	 * @param turn the side to move (PLAYER or OPPONENT)
+	 */
+	public GameState(Card[] board, Element[] elements,
+			List<Card> playerHand, List<Card> opponentHand, boolean turn) {
+		ArrayList<Card> list = new ArrayList<Card>(MAX_CARDS);
+		for (Card c : board) {
+			if (c != null)
+				list.add(c);
+		}
+		list.addAll(playerHand);
+		list.addAll(opponentHand);
+		if (list.size() > MAX_CARDS)
+			throw new IllegalArgumentException(String.format("Too many cards (%d).", list.size()));
+
+		// sort by ID, so that a game's table does not change between turns
+		this.cards = list.toArray(new Card[list.size()]);
+		Arrays.sort(cards, new Comparator<Card>() {
+			@Override
+			public int compare(Card c1, Card c2) { return Integer.compare(c1.getID(), c2.getID()); }
+		});
+
+		this.ranks = new int[cards.length * 4];
+		this.bonus = new int[cards.length * 9];
+		this.boardKeys = new long[cards.length * 9];
+		this.handKeys = new long[cards.length * 2];
+		for (int i = 0; i < cards.length; i++) {
+			Card c = cards[i];
+			for (int pos = 0; pos < 9; pos++)
+				boardKeys[i * 9 + pos] = getZobrist(BOARD_KEY_OFFSET + c.getID() * 9 + pos);
+			handKeys[i * 2] = getZobrist(HAND_KEY_OFFSET + c.getID() * 2);
+			handKeys[i * 2 + 1] = getZobrist(HAND_KEY_OFFSET + c.getID() * 2 + 1);
+			for (Card.Rank rank : Card.Rank.values())
+				ranks[i * 4 + rank.ordinal()] = c.getRank(rank);
+			if (elements != null) {
+				for (int pos = 0; pos < 9; pos++) {
+					if (elements[pos] != Element.NEUTRAL)
+						bonus[i * 9 + pos] = (c.getElement() == elements[pos]) ? 1 : -1;
+				}
+			}
+		}
+
+		this.same = Rule.SAME.isActive();
+		this.sameWall = Rule.SAME_WALL.isActive();
+		this.plus = Rule.PLUS.isActive();
+		this.combo = Rule.COMBO.isActive();
+
+		this.board = new int[9];
+		Arrays.fill(this.board, -1);
+		for (int pos = 0; pos < 9; pos++) {
+			if (board[pos] == null)
+				continue;
+			this.board[pos] = indexOf(board[pos]);
+			occupied |= 1 << pos;
+			if (board[pos].getOwner() == TripleTriad.PLAYER)
+				playerOwned |= 1 << pos;
+		}
+		for (Card c : playerHand)
+			this.playerHand |= 1 << indexOf(c);
+		for (Card c : opponentHand)
+			this.opponentHand |= 1 << indexOf(c);
+		this.turn = turn;
+
+		// Zobrist key
+		for (int pos = 0; pos < 9; pos++) {
+			if (this.board[pos] != -1)
+				key ^= boardKeys[this.board[pos] * 9 + pos];
+			if (elements != null && elements[pos] != Element.NEUTRAL)
+				key ^= getZobrist(ELEMENT_KEY_OFFSET + pos * 16 + elements[pos].ordinal());
+		}
+		for (int h = this.playerHand; h != 0; h &= h - 1)
+			key ^= handKeys[Integer.numberOfTrailingZeros(h) * 2 + 1];
+		for (int h = this.opponentHand; h != 0; h &= h - 1)
+			key ^= handKeys[Integer.numberOfTrailingZeros(h) * 2];
+		key ^= OWNER_KEYS[playerOwned];
+		if (turn == TripleTriad.PLAYER)
+			key ^= TURN_KEY;
+	}
+
+	/**
+	 * Creates a copy of a state (with an empty undo stack).
+	 * @param original the original state
+	 */
+	public GameState(GameState original) {
+		this.cards = original.cards;
+		this.ranks = original.ranks;
+		this.bonus = original.bonus;
+		this.boardKeys = original.boardKeys;
+		this.handKeys = original.handKeys;
+		this.same = original.same;
+		this.sameWall = original.sameWall;
+		this.plus = original.plus;
+		this.combo = original.combo;
+		this.board = original.board.clone();
+		this.occupied = original.occupied;
+		this.playerOwned = original.playerOwned;
+		this.playerHand = original.playerHand;
+		this.opponentHand = original.opponentHand;
+		this.turn = original.turn;
+		this.key = original.key;
+	}
+
+	/**
+	 * Returns a Zobrist key component.
+	 * @param index the component index
+	 * @return the pseudo-random 64-bit value (splitmix64)
+	 */
+	private static long getZobrist(int index) {
+		long z = (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the table index of a card.
+	 * @param c the card
+	 * @return the index
+	 */
+	private int indexOf(Card c) {
+		for (int i = 0; i < cards.length; i++) {
+			if (cards[i] == c)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the move placing a card at a position.
+	 * @param card the table index of the card
+	 * @param position the board position
+	 * @return the move
+	 */
+	public static int getMove(int card, int position) { return (card << 4) | position; }
+
+	/**
+	 * Returns the table index of the card played by a move.
+	 * @param move the move
+	 * @return the table index
+	 */
+	public static int getMoveCard(int move) { return move >>> 4; }
+
+	/**
+	 * Returns the board position of a move.
+	 * @param move the move
+	 * @return the board position [0, 8]
+	 */
+	public static int getMovePosition(int move) { return move & 0xF; }
+
+	/**
+	 * Returns the card with a table index.
+	 * @param index the table index
+	 * @return the card
+	 */
+	public Card getCard(int index) { return cards[index]; }
+
+	/**
+	 * Returns the element rank bonus of a card at a position.
+	 * @param index the table index
+	 * @param position the board position
+	 * @return the bonus (-1, 0, or 1)
+	 */
+	public int getBonus(int index, int position) { return bonus[index * 9 + position]; }
+
+	/**
+	 * Returns a rank of a card.
+	 * @param index the table index
+	 * @param location the rank location (ordinal of {@link Card.Rank})
+	 * @return the rank (without element bonus)
+	 */
+	public int getRank(int index, int location) { return ranks[index * 4 + location]; }
+
+	/**
+	 * Returns the card at a board position.
+	 * @param position the board position
+	 * @return the table index, or -1 if empty
+	 */
+	public int getBoardCard(int position) { return board[position]; }
+
+	/**
+	 * Returns the board positions owned by a side.
+	 * @param side PLAYER or OPPONENT
+	 * @return the bitmask of positions
+	 */
+	public int getOwned(boolean side) { return (side == TripleTriad.PLAYER) ? playerOwned : occupied & ~playerOwned; }
+
+	/**
+	 * Returns the cards in a side's hand.
+	 * @param side PLAYER or OPPONENT
+	 * @return the bitmask of table indices
+	 */
+	public int getHand(boolean side) { return (side == TripleTriad.PLAYER) ? playerHand : opponentHand; }
+
+	/**
+	 * Returns the number of cards in the table.
+	 * @return the card count
+	 */
+	public int getCardCount() { return cards.length; }
+
+	/**
+	 * Returns the move placing a card from the current game.
+	 * @param c the card
+	 * @param position the board position
+	 * @return the move, or -1 if the card is not in this state
+	 */
+	public int getMove(Card c, int position) {
+		int index = indexOf(c);
+		return (index == -1) ? -1 : getMove(index, position);
+	}
+
+	/**
+	 * Returns the side to move.
+	 * @return PLAYER or OPPONENT
+	 */
+	public boolean getTurn() { return turn; }
+
+	/**
+	 * Returns whether or not the game is over.
+	 * @return true if either hand is empty
+	 */
+	public boolean isGameOver() { return (playerHand == 0 || opponentHand == 0); }
+
+	/**
+	 * Returns the number of empty positions.
+	 * @return the number of empty positions [0, 9]
+	 */
+	public int getEmptyCount() { return 9 - Integer.bitCount(occupied); }
+
+	/**
+	 * Returns the score of a side (cards owned on the board and in hand).
+	 * @param side PLAYER or OPPONENT
+	 * @return the score
+	 */
+	public int getScore(boolean side) {
+		if (side == TripleTriad.PLAYER)
+			return Integer.bitCount(playerOwned) + Integer.bitCount(playerHand);
+		else
+			return Integer.bitCount(occupied & ~playerOwned) + Integer.bitCount(opponentHand);
+	}
+
+	/**
+	 * Returns the legal moves of the side to move.
+	 * @param moves the array to fill (at least {@link #MAX_MOVES} long)
+	 * @return the number of moves
+	 */
+	public int getMoves(int[] moves) {
+		int count = 0;
+		int hand = (turn == TripleTriad.PLAYER) ? playerHand : opponentHand;
+		int empty = ~occupied & 0x1FF;
+		for (int h = hand; h != 0; h &= h - 1) {
+			int card = Integer.numberOfTrailingZeros(h);
+			for (int e = empty; e != 0; e &= e - 1)
+				moves[count++] = getMove(card, Integer.numberOfTrailingZeros(e));
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the Zobrist key of this state.
+	 * @return the 64-bit key
+	 */
+	public long getKey() { return key; }
+
+	/**
+	 * Returns the positions whose owners change if a move is played by the
+	 * side to move.
+	 * @param move the move (position must be empty)
+	 * @return the bitmask of captured positions
+	 */
+	public int getCaptures(int move) {
+		int card = getMoveCard(move);
+		int position = getMovePosition(move);
+		int owned = (turn == TripleTriad.PLAYER) ? playerOwned : occupied & ~playerOwned;
+		int opposing = occupied & ~owned;
+
+		// process card results on all sides
+		int sameMask = 0, sums = 0, sumSides = 0, captured = 0;
+		boolean isWall = false;
+		for (int dir = 0; dir < 4; dir++) {
+			int target = NEIGHBORS[position * 4 + dir];
+			int sourceRank = ranks[card * 4 + SOURCE_SIDE[dir]];
+			if (target == -1) {  // "Same Wall"
+				if (sourceRank == 10)
+					isWall = true;
+				continue;
+			}
+			int targetCard = board[target];
+			if (targetCard == -1)
+				continue;
+
+			int targetRank = ranks[targetCard * 4 + TARGET_SIDE[dir]];
+			if (sourceRank == targetRank)
+				sameMask |= 1 << target;
+			sums |= (sourceRank + targetRank) << (dir * 5);
+			sumSides |= 1 << dir;
+			if ((opposing & (1 << target)) != 0 &&
+				sourceRank + bonus[card * 9 + position] > targetRank + bonus[targetCard * 9 + target])
+				captured |= 1 << target;
+		}
+
+		// "Same" or "Plus"
+		int special = 0;
+		if (same && Integer.bitCount(sameMask) >= ((isWall && sameWall) ? 1 : 2) && (sameMask & opposing) != 0)
+			special = sameMask;
+		else if (plus)
+			special = getPlus(position, sums, sumSides, opposing);
+		if (special == 0)
+			return captured;
+
+		captured &= ~special;
+		int result = (special & opposing) | captured;
+		if (!combo)
+			return result;
+
+		// chain combos from the opposing "Same"/"Plus" cards
+		owned |= (1 << position) | special | captured;
+		int sources = special & opposing;
+		while (sources != 0) {
+			int comboMask = 0;
+			for (int s = sources; s != 0; s &= s - 1) {
+				int source = Integer.numberOfTrailingZeros(s);
+				int sourceCard = board[source];
+				for (int dir = 0; dir < 4; dir++) {
+					int target = NEIGHBORS[source * 4 + dir];
+					if (target == -1 || (occupied & ~owned & (1 << target)) == 0)
+						continue;
+					int targetCard = board[target];
+					if (ranks[sourceCard * 4 + SOURCE_SIDE[dir]] + bonus[sourceCard * 9 + source] >
+						ranks[targetCard * 4 + TARGET_SIDE[dir]] + bonus[targetCard * 9 + target])
+						comboMask |= 1 << target;
+				}
+			}
+			owned |= comboMask;
+			result |= comboMask;
+			sources = comboMask;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the adjacent positions triggering the "Plus" rule.
+	 * <p>
+	 * If several sums are valid, only one is used: the first one in the
+	 * iteration order of the {@code HashMap} in {@link CardResult} (by
+	 * {@code sum & 15}, then by first side).
+	 * @param position the source position
+	 * @param sums the rank sums of each side (5 bits per side)
+	 * @param sumSides the bitmask of sides with an adjacent card
+	 * @param opposing the bitmask of opposing positions
+	 * @return the bitmask of positions, or 0 if none
+	 */
+	static int getPlus(int position, int sums, int sumSides, int opposing) {
+		int result = 0, resultOrder = Integer.MAX_VALUE;
+		for (int dir = 0; dir < 4; dir++) {
+			if ((sumSides & (1 << dir)) == 0)
+				continue;
+			int sum = (sums >>> (dir * 5)) & 0x1F;
+
+			// collect the sides with the same sum (skip if already seen)
+			int mask = 0, count = 0;
+			boolean seen = false;
+			for (int d = 0; d < 4; d++) {
+				if ((sumSides & (1 << d)) == 0 || ((sums >>> (d * 5)) & 0x1F) != sum)
+					continue;
+				if (d < dir) {
+					seen = true;
+					break;
+				}
+				mask |= 1 << NEIGHBORS[position * 4 + d];
+				count++;
+			}
+			if (seen || count < 2 || (mask & opposing) == 0)
+				continue;
+
+			int order = ((sum & 15) << 2) | dir;
+			if (order < resultOrder) {
+				result = mask;
+				resultOrder = order;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Plays a move for the side to move.
+	 * @param move the move (position must be empty)
+	 * @return the bitmask of captured positions
+	 */
+	public int makeMove(int move) {
+		int captures = getCaptures(move);
+		makeMove(move, captures);
+		return captures;
+	}
+
+	/**
+	 * Plays a move for the side to move, with known captures.
+	 * @param move the move (position must be empty)
+	 * @param captures the captured positions, from {@link #getCaptures(int)}
+	 */
+	public void makeMove(int move, int captures) {
+		int card = getMoveCard(move);
+		int position = getMovePosition(move);
+		undoMoves[undoCount] = move;
+		undoCaptures[undoCount++] = captures;
+
+		board[position] = card;
+		occupied |= 1 << position;
+		key ^= boardKeys[card * 9 + position] ^ OWNER_KEYS[captures] ^ TURN_KEY;
+		if (turn == TripleTriad.PLAYER) {
+			playerHand &= ~(1 << card);
+			playerOwned |= (1 << position) | captures;
+			key ^= handKeys[card * 2 + 1] ^ OWNER_KEYS[1 << position];
+		} else {
+			opponentHand &= ~(1 << card);
+			playerOwned &= ~captures;
+			key ^= handKeys[card * 2];
+		}
+		turn = !turn;
+	}
+
+	/**
+	 * Takes back the last move played with {@link #makeMove(int)}.
+	 */
+	public void unmakeMove() {
+		int move = undoMoves[--undoCount];
+		int captures = undoCaptures[undoCount];
+		int card = getMoveCard(move);
+		int position = getMovePosition(move);
+
+		turn = !turn;
+		board[position] = -1;
+		occupied &= ~(1 << position);
+		key ^= boardKeys[card * 9 + position] ^ OWNER_KEYS[captures] ^ TURN_KEY;
+		if (turn == TripleTriad.PLAYER) {
+			playerHand |= 1 << card;
+			playerOwned &= ~((1 << position) | captures);
+			key ^= handKeys[card * 2 + 1] ^ OWNER_KEYS[1 << position];
+		} else {
+			opponentHand |= 1 << card;
+			playerOwned |= captures;
+			key ^= handKeys[card * 2];
+		}
+	}
+
+	/**
+	 * Returns the state after the side to move plays a move.
+	 * @param move the move (position must be empty)
+	 * @return the new state
+	 */
+	public GameState play(int move) {
+		GameState next = new GameState(this);
+		next.makeMove(move);
+		return next;
+	}
+
+	/**
+	 * Returns whether or not another state uses the same cards, elements
+	 * and rules (i.e. whether keys and moves are comparable).
+	 * @param other the other state
+	 * @return true if compatible
+	 */
+	public boolean isCompatible(GameState other) {
+		if (other == null || cards.length != other.cards.length)
+			return false;
+		for (int i = 0; i < cards.length; i++) {
+			if (cards[i].getID() != other.cards[i].getID())
+				return false;
+		}
+		return (Arrays.equals(bonus, other.bonus) &&
+			same == other.same && sameWall == other.sameWall &&
+			plus == other.plus && combo == other.combo);
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.newdawn.slick.opengl.ImageData;
+import org.newdawn.slick.opengl.InternalTextureLoader;
+import org.newdawn.slick.util.Log;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Persistent cache of pre-scaled (and pre-composited) textures.
+ * <p>
+ * Entries are raw RGBA texture buffers keyed by name and source hash, and
+ * are stored in a single file that is memory-mapped on first use.  The
+ * whole cache is discarded if the card length or container width changes.
+ * <p>
+ * New entries are written to a separate file, since the mapped file cannot
+ * be replaced on some platforms (Windows) while it is in use; if replacing
+ * fails, the new file takes the place of the old one on the next launch.
+ */
+public class ImageCache {
+	/** Cache file. */
+	private static final File CACHE_FILE = new File(".triple-triad.cache");
+
+	/** Next generation of the cache file (replaces the cache file when possible). */
+	private static final File NEXT_FILE = new File(CACHE_FILE.getPath() + ".new");
+
+	/** File header values. */
+	private static final int MAGIC = 0x54544943, VERSION = 1;
+
+	/** Key encoding. */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Cached image data. */
+	private static class Entry implements ImageData {
+		/** Source hash. */
+		private final long hash;
+
+		/** Image dimensions. */
+		private final int width, height;
+
+		/** RGBA texture data (power-of-two dimensions). */
+		private final ByteBuffer data;
+
+		/**
+		 * Constructor.
+		 * @param hash the source hash
+		 * @param width the image width
+		 * @param height the image height
+		 * @param data the texture data
+		 */
+		Entry(long hash, int width, int height, ByteBuffer data) {
+			this.hash = hash;
+			this.width = width;
+			this.height = height;
+			this.data = data;
+		}
+
+		@Override
+		public int getDepth() { return 32; }
+
+		@Override
+		public int getWidth() { return width; }
+
+		@Override
+		public int getHeight() { return height; }
+
+		@Override
+		public int getTexWidth() { return InternalTextureLoader.get2Fold(width); }
+
+		@Override
+		public int getTexHeight() { return InternalTextureLoader.get2Fold(height); }
+
+		@Override
+		public ByteBuffer getImageBufferData() { return data.duplicate(); }
+	}
+
+	/** Cache entries, by key. */
+	private static Map<String, Entry> entries;
+
+	/** Whether entries were added since the cache was last saved. */
+	private static boolean modified = false;
+
+	// This class should not be instantiated.
+	private ImageCache() {}
+
+	/**
+	 * Loads the cache file (if valid) with a single memory-mapped read.
+	 */
+	private static void open() {
+		entries = new LinkedHashMap<String, Entry>();
+		if (NEXT_FILE.isFile() && !replace())
+			Log.warn(String.format("Failed to replace image cache '%s'.", CACHE_FILE.getAbsolutePath()));
+		if (!CACHE_FILE.isFile())
+			return;
+
+		try (RandomAccessFile file = new RandomAccessFile(CACHE_FILE, "r")) {
+			ByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			buf.order(ByteOrder.BIG_ENDIAN);
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION ||
+				buf.getInt() != Options.getCardLength() || buf.getInt() != Options.getWidth())
+				return;
+
+			int count = buf.getInt();
+			for (int i = 0; i < count; i++) {
+				byte[] key = new byte[buf.getShort()];
+				buf.get(key);
+				long hash = buf.getLong();
+				int width = buf.getInt();
+				int height = buf.getInt();
+				int offset = buf.getInt();
+				int size = InternalTextureLoader.get2Fold(width) * InternalTextureLoader.get2Fold(height) * 4;
+				ByteBuffer data = buf.duplicate();
+				data.position(offset);
+				data.limit(offset + size);
+				entries.put(new String(key, UTF8), new Entry(hash, width, height, data.slice()));
+			}
+		} catch (IOException | RuntimeException e) {
+			Log.warn(String.format("Failed to read image cache '%s'.", CACHE_FILE.getAbsolutePath()), e);
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the cached image data for a key.
+	 * @param key the cache key
+	 * @param hash the current source hash
+	 * @return the image data, or null if not cached or outdated
+	 */
+	public static synchronized ImageData get(String key, long hash) {
+		if (entries == null)
+			open();
+
+		Entry e = entries.get(key);
+		return (e != null && e.hash == hash) ? e : null;
+	}
+
+	/**
+	 * Adds an image to the cache.
+	 * @param key the cache key
+	 * @param hash the source hash
+	 * @param img the image
+	 * @return the image data
+	 */
+	public static ImageData put(String key, long hash, BufferedImage img) {
+		int width = img.getWidth(), height = img.getHeight();
+		int texWidth = InternalTextureLoader.get2Fold(width);
+		int texHeight = InternalTextureLoader.get2Fold(height);
+		int[] row = new int[width];
+		ByteBuffer data = ByteBuffer.allocateDirect(texWidth * texHeight * 4);
+		for (int y = 0; y < height; y++) {
+			img.getRGB(0, y, width, 1, row, 0, width);
+			data.position(y * texWidth * 4);
+			for (int x = 0; x < width; x++) {
+				int argb = row[x];
+				data.put((byte) (argb >> 16)).put((byte) (argb >> 8)).put((byte) argb).put((byte) (argb >> 24));
+			}
+		}
+		data.clear();
+
+		Entry e = new Entry(hash, width, height, data);
+		synchronized (ImageCache.class) {
+			if (entries == null)
+				open();
+			entries.put(key, e);
+			modified = true;
+		}
+		return e;
+	}
+
+	/**
+	 * Writes the cache file, if any entries were added.
+	 */
+	public static synchronized void save() {
+		if (!modified)
+			return;
+
+		// header
+		int headerSize = 20;
+		for (String key : entries.keySet())
+			headerSize += 2 + key.getBytes(UTF8).length + 8 + 12;
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		header.putInt(MAGIC).putInt(VERSION);
+		header.putInt(Options.getCardLength()).putInt(Options.getWidth());
+		header.putInt(entries.size());
+		int offset = headerSize;
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			byte[] key = e.getKey().getBytes(UTF8);
+			Entry entry = e.getValue();
+			header.putShort((short) key.length).put(key);
+			header.putLong(entry.hash).putInt(entry.width).putInt(entry.height).putInt(offset);
+			offset += entry.data.capacity();
+		}
+		header.flip();
+
+		// write the next generation, then try to replace the old cache
+		// (which fails if the old cache is still mapped on this platform)
+		try (FileChannel out = new FileOutputStream(NEXT_FILE).getChannel()) {
+			while (header.hasRemaining())
+				out.write(header);
+			for (Entry entry : entries.values()) {
+				ByteBuffer data = entry.getImageBufferData();
+				while (data.hasRemaining())
+					out.write(data);
+			}
+		} catch (IOException e) {
+			Log.warn(String.format("Failed to write image cache '%s'.", NEXT_FILE.getAbsolutePath()), e);
+			NEXT_FILE.delete();
+			return;
+		}
+		replace();
+		modified = false;
+	}
+
+	/**
+	 * Replaces the cache file with the next generation.
+	 * @return true if replaced, false otherwise
+	 */
+	private static boolean replace() {
+		return NEXT_FILE.renameTo(CACHE_FILE) || (CACHE_FILE.delete() && NEXT_FILE.renameTo(CACHE_FILE));
+	}
+
+	/**
+	 * Returns a hash identifying the current version of a set of resources.
+	 * <p>
+	 * This uses the resource names, sizes and modification times, so that
+	 * checking the cache does not require reading the sources.
+	 * @param refs the resource names
+	 * @return the combined hash
+	 */
+	public static long hash(String... refs) {
+		long hash = 1125899906842597L;
+		for (String ref : refs) {
+			hash = 31 * hash + ref.hashCode();
+			if (ref.isEmpty())
+				continue;
+			URL url = ResourceLoader.getResource(ref);
+			if (url == null)
+				continue;
+			try {
+				URLConnection conn = url.openConnection();
+				hash = 31 * hash + conn.getContentLengthLong();
+				hash = 31 * hash + conn.getLastModified();
+				conn.getInputStream().close();
+			} catch (IOException e) {
+				Log.warn(String.format("Failed to read resource '%s'.", ref), e);
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Decodes an image resource.
+	 * @param ref the resource name
+	 * @return the image
+	 * @throws IOException failure to read the image
+	 */
+	public static BufferedImage read(String ref) throws IOException {
+		try (InputStream in = ResourceLoader.getResourceAsStream(ref)) {
+			BufferedImage img = ImageIO.read(in);
+			if (img == null)
+				throw new IOException(String.format("Unsupported image format '%s'.", ref));
+			return img;
+		}
+	}
+
+	/**
+	 * Returns a scaled copy of an image.
+	 * @param img the image
+	 * @param width the scaled width
+	 * @param height the scaled height
+	 * @return the scaled image
+	 */
+	public static BufferedImage scale(BufferedImage img, int width, int height) {
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+		Graphics2D g = scaled.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.drawImage(img, 0, 0, width, height, null);
+		g.dispose();
+		return scaled;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.lwjgl.openal.AL10;
+import org.newdawn.slick.openal.OpenALStreamPlayer;
+import org.newdawn.slick.util.Log;
+
+/**
+ * Streaming OGG player with decoding statistics.
+ * <p>
+ * The track is decoded through jorbis one section at a time into a fixed
+ * ring of {@link OpenALStreamPlayer#BUFFER_COUNT} OpenAL buffers, so memory
+ * use does not depend on the track length.  This class additionally records
+ * the CPU time spent decoding and the number of buffer underruns (i.e. all
+ * queued buffers finished playing before they could be refilled).
+ */
+public class MusicStream extends OpenALStreamPlayer {
+	/** Thread CPU time source. */
+	private static final ThreadMXBean THREAD_MX = ManagementFactory.getThreadMXBean();
+
+	/** OpenAL source. */
+	private final int source;
+
+	/** Total decoding CPU time, in nanoseconds. */
+	private long decodeTime = 0;
+
+	/** Number of decoded sections. */
+	private int sectionCount = 0;
+
+	/** Number of buffer underruns. */
+	private int underruns = 0;
+
+	/**
+	 * Constructor.
+	 * @param source the OpenAL source
+	 * @param ref the OGG file name
+	 */
+	public MusicStream(int source, String ref) {
+		super(source, ref);
+		this.source = source;
+	}
+
+	@Override
+	public void update() {
+		if (!done() && AL10.alGetSourcei(source, AL10.AL_BUFFERS_PROCESSED) >= BUFFER_COUNT) {
+			underruns++;
+			Log.info(String.format("BGM buffer underrun (%d total).", underruns));
+		}
+		super.update();
+	}
+
+	@Override
+	public boolean stream(int bufferId) {
+		long startTime = cpuTime();
+		boolean result = super.stream(bufferId);
+		decodeTime += cpuTime() - startTime;
+		sectionCount++;
+		return result;
+	}
+
+	/**
+	 * Returns the current thread's CPU time, if supported.
+	 * @return the CPU time (or wall time), in nanoseconds
+	 */
+	private static long cpuTime() {
+		return (THREAD_MX.isCurrentThreadCpuTimeSupported()) ?
+			THREAD_MX.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	/**
+	 * Returns the total CPU time spent decoding.
+	 * @return the decoding time, in nanoseconds
+	 */
+	public long getDecodeTime() { return decodeTime; }
+
+	/**
+	 * Returns the number of decoded sections.
+	 * @return the section count
+	 */
+	public int getSectionCount() { return sectionCount; }
+
+	/**
+	 * Returns the number of buffer underruns.
+	 * @return the underrun count
+	 */
+	public int getUnderruns() { return underruns; }
+}
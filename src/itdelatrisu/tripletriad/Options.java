@@ -29,10 +29,9 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.newdawn.slick.AppGameContainer;
+import org.newdawn.slick.Font;
 import org.newdawn.slick.GameContainer;
 import org.newdawn.slick.SlickException;
-import org.newdawn.slick.UnicodeFont;
-import org.newdawn.slick.font.effects.ColorEffect;
 import org.newdawn.slick.util.Log;
 
 public class Options {
@@ -58,16 +57,43 @@ public class Options {
 	private static int fps = 60;
 
 	/** Default font. */
-	private static UnicodeFont font;
+	private static Font font;
 
 	/** Font file. */
 	private static File fontFile = new File("OpenSans-Light.ttf");
 
-	/** AI types. */
-	public enum AIType { RANDOM, OFFENSIVE, DEFENSIVE, BALANCED };
+	/** Built-in AI types (see {@link itdelatrisu.tripletriad.ai.AIRegistry} for plugins). */
+	public enum AIType { RANDOM, OFFENSIVE, DEFENSIVE, BALANCED, EXTERNAL, NEURAL };
 
-	/** Default AI types. */
-	private static AIType playerAI = AIType.BALANCED, opponentAI = AIType.BALANCED;
+	/** Default AI type names. */
+	private static String playerAI = AIType.BALANCED.toString(), opponentAI = AIType.BALANCED.toString();
+
+	/** AI time limit per move, in ms. */
+	private static int aiTime = 5000;
+
+	/** External engine command line (for the EXTERNAL AI type). */
+	private static String engine = "";
+
+	/** External engine time per move, in ms. */
+	private static int engineTime = 1000;
+
+	/** Search memo table size, in MB. */
+	private static int cacheSize = 32;
+
+	/** Hand dealing modes. */
+	public enum DealMode { RANDOM, BALANCED, HANDICAP };
+
+	/** Hand dealing mode. */
+	private static DealMode dealMode = DealMode.RANDOM;
+
+	/** Level handicap (player's total card level minus the opponent's) in HANDICAP mode. */
+	private static int handicap = 0;
+
+	/** Whether the player's hand is chosen from the player's card collection. */
+	private static boolean collectionMode = false;
+
+	/** Trade rule (applied to the collection in collection mode). */
+	private static TradeRule tradeRule = TradeRule.ONE;
 
 	// This class should not be instantiated.
 	private Options() {}
@@ -92,21 +118,70 @@ public class Options {
 
 	/**
 	 * Returns the default font.
-	 * @return the UnicodeFont
+	 * @return the font
 	 */
-	public static UnicodeFont getFont() { return font; }
+	public static Font getFont() { return font; }
 
 	/**
 	 * Returns the player AI type.
-	 * @return the AIType
+	 * @return the AI type name
 	 */
-	public static AIType getPlayerAI() { return playerAI; }
+	public static String getPlayerAI() { return playerAI; }
 
 	/**
 	 * Returns the opponent AI type.
-	 * @return the AIType
+	 * @return the AI type name
+	 */
+	public static String getOpponentAI() { return opponentAI; }
+
+	/**
+	 * Returns the AI time limit per move.
+	 * @return the time, in ms
+	 */
+	public static int getAITime() { return aiTime; }
+
+	/**
+	 * Returns the external engine command line (see {@link itdelatrisu.tripletriad.ai.Engine}).
+	 * @return the command line
+	 */
+	public static String getEngine() { return engine; }
+
+	/**
+	 * Returns the external engine time per move.
+	 * @return the time, in ms
+	 */
+	public static int getEngineTime() { return engineTime; }
+
+	/**
+	 * Returns the size of the search memo table (see {@link itdelatrisu.tripletriad.ai.Solver}).
+	 * @return the size, in MB
+	 */
+	public static int getCacheSize() { return cacheSize; }
+
+	/**
+	 * Returns the hand dealing mode.
+	 * @return the DealMode
+	 */
+	public static DealMode getDealMode() { return dealMode; }
+
+	/**
+	 * Returns the level handicap for the HANDICAP dealing mode.
+	 * @return the player's total card level minus the opponent's [-45, 45]
+	 */
+	public static int getHandicap() { return handicap; }
+
+	/**
+	 * Returns whether or not the player's hand is chosen from the player's
+	 * card collection (instead of being dealt from the whole deck).
+	 * @return true if collection mode is enabled
+	 */
+	public static boolean isCollectionMode() { return collectionMode; }
+
+	/**
+	 * Returns the trade rule.
+	 * @return the TradeRule
 	 */
-	public static AIType getOpponentAI() { return opponentAI; }
+	public static TradeRule getTradeRule() { return tradeRule; }
 
 	/**
 	 * Sets the container size and makes the window borderless if the container
@@ -137,7 +212,6 @@ public class Options {
 	 * Initializes options.
 	 * @param container the game container
 	 */
-	@SuppressWarnings("unchecked")
 	public static void init(GameContainer container) {
 		container.setTargetFrameRate(fps);
 		container.setShowFPS(false);
@@ -147,11 +221,7 @@ public class Options {
 		container.setSoundVolume(soundVolume);
 
 		try {
-			font = new UnicodeFont(fontFile.getName(),
-					(int) (32 * (cardLength / 256f) * 1.6f), false, false);
-			font.addAsciiGlyphs();
-			font.getEffects().add(new ColorEffect());
-			font.loadGlyphs();
+			font = FontAtlas.load(fontFile.getName(), (int) (32 * (cardLength / 256f) * 1.6f));
 		} catch (SlickException e) {
 			Log.error("Failed to load fonts.", e);
 		}
@@ -212,10 +282,42 @@ public class Options {
 						fontFile = newFont;
 					break;
 				case "AI_PLAYER":
-					playerAI = AIType.valueOf(value);
+					playerAI = value;
 					break;
 				case "AI_OPPONENT":
-					opponentAI = AIType.valueOf(value);
+					opponentAI = value;
+					break;
+				case "AI_TIME":
+					i = Integer.parseInt(value);
+					if (i > 0 && i <= 600000)
+						aiTime = i;
+					break;
+				case "ENGINE":
+					engine = value;
+					break;
+				case "ENGINE_TIME":
+					i = Integer.parseInt(value);
+					if (i > 0 && i <= 60000)
+						engineTime = i;
+					break;
+				case "CACHE_SIZE":
+					i = Integer.parseInt(value);
+					if (i > 0 && i <= 65536)
+						cacheSize = i;
+					break;
+				case "DEAL":
+					dealMode = DealMode.valueOf(value);
+					break;
+				case "HANDICAP":
+					i = Integer.parseInt(value);
+					if (i >= -45 && i <= 45)
+						handicap = i;
+					break;
+				case "COLLECTION":
+					collectionMode = Boolean.parseBoolean(value);
+					break;
+				case "TRADE":
+					tradeRule = TradeRule.valueOf(value);
 					break;
 				default:
 					try {
@@ -269,11 +371,42 @@ public class Options {
 			writer.newLine();
 
 			// AI
-			writer.write("# AI Type (RANDOM, OFFENSIVE, DEFENSIVE, BALANCED)");
+			writer.write("# AI Type (RANDOM, OFFENSIVE, DEFENSIVE, BALANCED, EXTERNAL, NEURAL, or a plugin name)");
+			writer.newLine();
+			writer.write(String.format("AI_PLAYER = %s", playerAI));
+			writer.newLine();
+			writer.write(String.format("AI_OPPONENT = %s", opponentAI));
 			writer.newLine();
-			writer.write(String.format("AI_PLAYER = %s", playerAI.toString()));
+			writer.write(String.format("AI_TIME = %d", aiTime));
+			writer.newLine();
+			writer.write(String.format("ENGINE = %s", engine));
+			writer.newLine();
+			writer.write(String.format("ENGINE_TIME = %d", engineTime));
+			writer.newLine();
+			writer.newLine();
+
+			// search
+			writer.write("# Search Memo Table Size, in MB (hints)");
+			writer.newLine();
+			writer.write(String.format("CACHE_SIZE = %d", cacheSize));
+			writer.newLine();
+			writer.newLine();
+
+			// dealing
+			writer.write("# Dealing (RANDOM, BALANCED, HANDICAP)");
+			writer.newLine();
+			writer.write(String.format("DEAL = %s", dealMode.toString()));
+			writer.newLine();
+			writer.write(String.format("HANDICAP = %d", handicap));
+			writer.newLine();
+			writer.write(String.format("COLLECTION = %b", collectionMode));
+			writer.newLine();
+			writer.newLine();
+
+			// trade
+			writer.write("# Trade Rule, in collection mode (NONE, ONE, DIFF, DIRECT, ALL)");
 			writer.newLine();
-			writer.write(String.format("AI_OPPONENT = %s", opponentAI.toString()));
+			writer.write(String.format("TRADE = %s", tradeRule.toString()));
 			writer.newLine();
 			writer.newLine();
 
@@ -23,7 +23,7 @@ package itdelatrisu.tripletriad;
  */
 public enum Rule {
 	OPEN (false),
-//	RANDOM (true),
+	RANDOM (true),
 	SAME (true),
 	SAME_WALL (true),
 	PLUS (true),
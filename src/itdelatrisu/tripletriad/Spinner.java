@@ -18,8 +18,11 @@
 
 package itdelatrisu.tripletriad;
 
+import java.util.concurrent.Future;
+
 import org.newdawn.slick.Animation;
 import org.newdawn.slick.Image;
+import org.newdawn.slick.opengl.ImageData;
 import org.newdawn.slick.util.Log;
 
 /**
@@ -37,23 +40,46 @@ public enum Spinner {
 	/** Spinner animation. */
 	private Animation animation;
 
+	/** The decoded frame data (until initialized). */
+	private Future<ImageData[]> frameData;
+
+	/**
+	 * Returns the frame file names for a spinner.
+	 * @param s the spinner
+	 * @return the file names
+	 */
+	private static String[] getFrameNames(Spinner s) {
+		String name = s.toString().toLowerCase();
+		String[] names = new String[FRAMES];
+		for (int i = 1; i <= names.length; i++)
+			names[i - 1] = String.format("sprite-%s%d.png", name, i);
+		return names;
+	}
+
+	/**
+	 * Starts decoding all spinner animations in the background, pre-scaled
+	 * to the current card length.
+	 */
+	public static void load() {
+		float scale = Options.getCardLength() / 256f * 2.5f;
+		for (Spinner s : Spinner.values())
+			s.frameData = AssetLoader.loadImages(scale, getFrameNames(s));
+	}
+
 	/**
 	 * Initializes all spinner animations.
+	 * If {@link #load()} was not called, frames are decoded here.
 	 */
 	public static void init() {
-		float scale = Options.getCardLength() / 256f * 2.5f;
+		if (SQUALL.frameData == null)
+			load();
 		for (Spinner s : Spinner.values()) {
-			String name = s.toString().toLowerCase();
-			Image[] frames = new Image[FRAMES];
 			try {
-				for (int i = 1; i <= frames.length; i++) {
-					Image frame = new Image(String.format("sprite-%s%d.png", name, i));
-					frames[i - 1] = frame.getScaledCopy(scale);
-				}
-				s.animation = new Animation(frames, 200);
+				s.animation = new Animation(AssetLoader.getImages(s.frameData), 200);
 			} catch (Exception e) {
 				Log.error(String.format("Failed to load sprites for spinner '%s'.", s.toString()), e);
 			}
+			s.frameData = null;
 		}
 	}
 
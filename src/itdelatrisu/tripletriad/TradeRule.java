@@ -0,0 +1,61 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+/**
+ * Trade rules (cards exchanged at the end of a game).
+ */
+public enum TradeRule {
+	/** No cards are exchanged. */
+	NONE,
+
+	/** The winner takes one card from the loser. */
+	ONE,
+
+	/** The winner takes as many cards as the score difference. */
+	DIFF,
+
+	/** Each player keeps the cards they own on the board. */
+	DIRECT,
+
+	/** The winner takes all of the loser's cards. */
+	ALL;
+
+	/**
+	 * Returns the number of cards the winner chooses from the loser's hand.
+	 * @param winnerScore the winner's final score
+	 * @param loserScore the loser's final score
+	 * @param handSize the size of the loser's original hand
+	 * @return the number of cards to take (0 if none are chosen)
+	 */
+	public int getCount(int winnerScore, int loserScore, int handSize) {
+		if (winnerScore <= loserScore)
+			return 0;
+		switch (this) {
+		case ONE:
+			return Math.min(1, handSize);
+		case DIFF:
+			return Math.min(winnerScore - loserScore, handSize);
+		case ALL:
+			return handSize;
+		default:
+			return 0;
+		}
+	}
+}
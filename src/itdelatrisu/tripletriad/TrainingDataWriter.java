@@ -0,0 +1,627 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad;
+
+import itdelatrisu.tripletriad.ai.SelfPlay;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Writes game positions for training evaluation functions, in a columnar,
+ * block-compressed binary file.
+ * <p>
+ * Each row is one position before a move: the game and ply, the board,
+ * the element layout, both hands, the side to move, the move played, and
+ * the player's final score.  Every {@link Column} has a fixed width
+ * (little-endian values, card IDs as 16-bit integers with 0 for none),
+ * and rows are stored in blocks: for each column, the block's values are
+ * stored together and compressed with {@link Deflater}.
+ * <p>
+ * File layout:<ul>
+ * <li>Header: magic ("TTGD"), version, column count, and each column's
+ *     name (length-prefixed ASCII) and width in bytes.
+ * <li>Blocks, until the end of the file: the row count, then for each
+ *     column the compressed length, the CRC-32 of the uncompressed
+ *     values, and the compressed values.</ul>
+ * <p>
+ * Rows are added in row-major form (see the {@code put} methods) and
+ * copied into column buffers.  Full blocks are compressed and written by
+ * a background thread through a {@link FileChannel}; a fixed number of
+ * block buffers is reused, so a writer that falls behind blocks the
+ * caller instead of buffering more data.
+ * <p>
+ * Usage (export simulated games): {@code TrainingDataWriter <file> [games] [RANDOM|GREEDY]}
+ * (rules are read from the configuration file).
+ */
+public class TrainingDataWriter implements Closeable {
+	/** Columns. */
+	public enum Column {
+		/** Game number (32-bit). */
+		GAME (4),
+
+		/** Number of moves played before this position. */
+		PLY (1),
+
+		/** Card ID at each board position (9 x 16-bit, 0 if empty). */
+		CELLS (18),
+
+		/** Owner of each board position (9 bytes: 0 if empty, 1 for the player, 2 for the opponent). */
+		OWNERS (9),
+
+		/** Element of each board position (9 bytes: ordinal of {@link Element}). */
+		ELEMENTS (9),
+
+		/** Card IDs in the player's hand (5 x 16-bit, 0 if none). */
+		PLAYER_HAND (10),
+
+		/** Card IDs in the opponent's hand (5 x 16-bit, 0 if none). */
+		OPPONENT_HAND (10),
+
+		/** Side to move (1 for the player, 0 for the opponent). */
+		TURN (1),
+
+		/** ID of the card played (16-bit). */
+		MOVE_CARD (2),
+
+		/** Board position of the card played. */
+		MOVE_POSITION (1),
+
+		/** Player's final score [0, 10]. */
+		SCORE (1);
+
+		/** Width of a value, in bytes. */
+		private final int width;
+
+		/** Offset in a row, in bytes. */
+		private int offset;
+
+		static {
+			int offset = 0;
+			for (Column column : values()) {
+				column.offset = offset;
+				offset += column.width;
+			}
+		}
+
+		/**
+		 * Constructor.
+		 * @param width the value width, in bytes
+		 */
+		Column(int width) { this.width = width; }
+
+		/**
+		 * Returns the width of a value.
+		 * @return the width, in bytes
+		 */
+		public int getWidth() { return width; }
+
+		/**
+		 * Returns the offset of the column in a row.
+		 * @return the offset, in bytes
+		 */
+		public int getOffset() { return offset; }
+	}
+
+	/** Row width, in bytes. */
+	public static final int ROW_BYTES;
+	static {
+		int width = 0;
+		for (Column column : Column.values())
+			width += column.width;
+		ROW_BYTES = width;
+	}
+
+	/** File format identifier ("TTGD") and version. */
+	private static final int MAGIC = 0x54544744, VERSION = 1;
+
+	/** Default number of rows per block. */
+	public static final int DEFAULT_BLOCK_ROWS = 65536;
+
+	/** Number of block buffers (being filled, queued and being written). */
+	private static final int BUFFERS = 3;
+
+	/** A block of rows, stored by column. */
+	private static class Block {
+		/** Column values. */
+		final ByteBuffer[] columns = new ByteBuffer[Column.values().length];
+
+		/** Number of rows. */
+		int rows = 0;
+
+		/**
+		 * Constructor.
+		 * @param capacity the maximum number of rows
+		 */
+		Block(int capacity) {
+			for (Column column : Column.values())
+				columns[column.ordinal()] = ByteBuffer.allocate(capacity * column.width);
+		}
+	}
+
+	/** Marks the end of the queued blocks. */
+	private static final Block END = new Block(0);
+
+	/** The file channel. */
+	private final FileChannel channel;
+
+	/** Rows per block. */
+	private final int blockRows;
+
+	/** Blocks to write, and blocks ready to be filled. */
+	private final BlockingQueue<Block> queued, free;
+
+	/** Block being filled. */
+	private Block block;
+
+	/** The background writer. */
+	private final Thread thread;
+
+	/** Whether the writer was closed. */
+	private boolean closed = false;
+
+	/** Error in the background writer (null if none). */
+	private volatile IOException error;
+
+	/** Number of rows added, and bytes written by the background writer. */
+	private long rows = 0;
+	private volatile long bytes = 0;
+
+	/**
+	 * Creates (or overwrites) a file and writes the header.
+	 * @param file the file
+	 * @param blockRows the number of rows per block
+	 * @throws IOException if the file cannot be written
+	 */
+	public TrainingDataWriter(File file, int blockRows) throws IOException {
+		this.channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.blockRows = blockRows;
+
+		// header
+		ByteBuffer header = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(Column.values().length);
+		for (Column column : Column.values()) {
+			byte[] name = column.toString().getBytes(StandardCharsets.US_ASCII);
+			header.put((byte) name.length).put(name).put((byte) column.width);
+		}
+		header.flip();
+		try {
+			writeFully(header);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		this.queued = new ArrayBlockingQueue<Block>(BUFFERS);
+		this.free = new ArrayBlockingQueue<Block>(BUFFERS);
+		for (int i = 1; i < BUFFERS; i++)
+			free.add(new Block(blockRows));
+		this.block = new Block(blockRows);
+		this.thread = new Thread("TrainingDataWriter") {
+			@Override
+			public void run() { writeBlocks(); }
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Creates (or overwrites) a file, with the default block size.
+	 * @param file the file
+	 * @throws IOException if the file cannot be written
+	 * @see #TrainingDataWriter(File, int)
+	 */
+	public TrainingDataWriter(File file) throws IOException { this(file, DEFAULT_BLOCK_ROWS); }
+
+	/**
+	 * Writes a buffer to the channel.
+	 * @param buf the buffer
+	 * @throws IOException if writing fails
+	 */
+	private void writeFully(ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining())
+			bytes += channel.write(buf);
+	}
+
+	/**
+	 * Compresses and writes queued blocks until the end marker (background thread).
+	 */
+	private void writeBlocks() {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		CRC32 crc = new CRC32();
+		ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] out = new byte[1 << 16];
+		try {
+			Block b;
+			while ((b = queued.take()) != END) {
+				try {
+					if (error == null) {
+						header.clear();
+						header.putInt(b.rows).flip();
+						writeFully(header);
+						for (Column column : Column.values()) {
+							ByteBuffer values = b.columns[column.ordinal()];
+							int length = b.rows * column.width;
+							crc.reset();
+							crc.update(values.array(), 0, length);
+							deflater.reset();
+							deflater.setInput(values.array(), 0, length);
+							deflater.finish();
+							int compressed = 0;
+							while (!deflater.finished()) {
+								if (compressed == out.length)
+									out = Arrays.copyOf(out, out.length * 2);
+								compressed += deflater.deflate(out, compressed, out.length - compressed);
+							}
+							header.clear();
+							header.putInt(compressed).putInt((int) crc.getValue()).flip();
+							writeFully(header);
+							writeFully(ByteBuffer.wrap(out, 0, compressed));
+						}
+					}
+				} catch (IOException e) {
+					error = e;
+				}
+				b.rows = 0;
+				free.put(b);
+			}
+		} catch (InterruptedException e) {
+			error = new IOException("Interrupted while writing.", e);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Throws the background writer's error, if any.
+	 * @throws IOException the error
+	 */
+	private void checkError() throws IOException {
+		if (error != null)
+			throw new IOException("Failed to write training data.", error);
+	}
+
+	/**
+	 * Queues the current block for writing, waiting for a free buffer.
+	 * @throws IOException if the background writer failed
+	 */
+	private void flushBlock() throws IOException {
+		try {
+			queued.put(block);
+			block = free.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing.", e);
+		}
+		checkError();
+	}
+
+	/**
+	 * Adds rows.
+	 * @param buf the rows in row-major form ({@link #ROW_BYTES} each, columns
+	 *        in {@link Column} order), from the position to the limit
+	 *        (must be backed by an array)
+	 * @throws IOException if writing fails
+	 */
+	public void write(ByteBuffer buf) throws IOException {
+		if (closed)
+			throw new IOException("Writer is closed.");
+		checkError();
+		Column[] columns = Column.values();
+		byte[] src = buf.array();
+		int start = buf.arrayOffset() + buf.position(), end = buf.arrayOffset() + buf.limit();
+		for (int row = start; row + ROW_BYTES <= end; row += ROW_BYTES) {
+			for (Column column : columns) {
+				byte[] values = block.columns[column.ordinal()].array();
+				int offset = block.rows * column.width, width = column.width;
+				for (int i = 0; i < width; i++)
+					values[offset + i] = src[row + column.offset + i];
+			}
+			rows++;
+			if (++block.rows == blockRows)
+				flushBlock();
+		}
+		buf.position(buf.limit());
+	}
+
+	/**
+	 * Returns the number of rows added.
+	 * @return the row count
+	 */
+	public long getRowCount() { return rows; }
+
+	/**
+	 * Returns the number of bytes written to the file so far.
+	 * @return the byte count
+	 */
+	public long getBytesWritten() { return bytes; }
+
+	/**
+	 * Writes the remaining rows and closes the file.
+	 * @throws IOException if writing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			if (block.rows > 0)
+				queued.put(block);
+			queued.put(END);
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing.", e);
+		} finally {
+			channel.close();
+		}
+		checkError();
+	}
+
+	/**
+	 * Puts the position of a simulated game in a row (all columns but the
+	 * move and score).
+	 * @param rows the rows
+	 * @param row the row index
+	 * @param batch the simulator
+	 * @param game the game index in the simulator
+	 * @param gameNumber the game number
+	 * @param ply the number of moves played
+	 */
+	public static void putPosition(ByteBuffer rows, int row, BatchSimulator batch, int game, int gameNumber, int ply) {
+		int base = row * ROW_BYTES;
+		rows.putInt(base + Column.GAME.offset, gameNumber);
+		rows.put(base + Column.PLY.offset, (byte) ply);
+		int owned = batch.getPlayerOwned(game);
+		for (int pos = 0; pos < 9; pos++) {
+			int card = batch.getBoardCard(game, pos);
+			rows.putShort(base + Column.CELLS.offset + pos * 2, (short) ((card == -1) ? 0 : batch.getCardID(game, card)));
+			rows.put(base + Column.OWNERS.offset + pos, (byte) ((card == -1) ? 0 : ((owned & (1 << pos)) != 0) ? 1 : 2));
+			rows.put(base + Column.ELEMENTS.offset + pos, (byte) batch.getElement(game, pos));
+		}
+		putHand(rows, base + Column.PLAYER_HAND.offset, batch, game, batch.getHand(game, TripleTriad.PLAYER));
+		putHand(rows, base + Column.OPPONENT_HAND.offset, batch, game, batch.getHand(game, TripleTriad.OPPONENT));
+		rows.put(base + Column.TURN.offset, (byte) ((batch.getTurn(game) == TripleTriad.PLAYER) ? 1 : 0));
+	}
+
+	/**
+	 * Puts the card IDs of a simulated hand.
+	 * @param rows the rows
+	 * @param offset the byte offset
+	 * @param batch the simulator
+	 * @param game the game index in the simulator
+	 * @param hand the bitmask of card indices
+	 */
+	private static void putHand(ByteBuffer rows, int offset, BatchSimulator batch, int game, int hand) {
+		for (int i = 0; i < 5; i++, hand &= hand - 1)
+			rows.putShort(offset + i * 2, (short) ((hand == 0) ? 0 : batch.getCardID(game, Integer.numberOfTrailingZeros(hand))));
+	}
+
+	/**
+	 * Puts a game state in a row (all columns but the move and score).
+	 * @param rows the rows
+	 * @param row the row index
+	 * @param state the game state
+	 * @param elements the element board (or null)
+	 * @param gameNumber the game number
+	 * @param ply the number of moves played
+	 */
+	public static void putPosition(ByteBuffer rows, int row, GameState state, Element[] elements, int gameNumber, int ply) {
+		int base = row * ROW_BYTES;
+		rows.putInt(base + Column.GAME.offset, gameNumber);
+		rows.put(base + Column.PLY.offset, (byte) ply);
+		int owned = state.getOwned(TripleTriad.PLAYER);
+		for (int pos = 0; pos < 9; pos++) {
+			int card = state.getBoardCard(pos);
+			rows.putShort(base + Column.CELLS.offset + pos * 2, (short) ((card == -1) ? 0 : state.getCard(card).getID()));
+			rows.put(base + Column.OWNERS.offset + pos, (byte) ((card == -1) ? 0 : ((owned & (1 << pos)) != 0) ? 1 : 2));
+			rows.put(base + Column.ELEMENTS.offset + pos, (byte) ((elements == null) ? 0 : elements[pos].ordinal()));
+		}
+		putHand(rows, base + Column.PLAYER_HAND.offset, state, state.getHand(TripleTriad.PLAYER));
+		putHand(rows, base + Column.OPPONENT_HAND.offset, state, state.getHand(TripleTriad.OPPONENT));
+		rows.put(base + Column.TURN.offset, (byte) ((state.getTurn() == TripleTriad.PLAYER) ? 1 : 0));
+	}
+
+	/**
+	 * Puts the card IDs of a hand in a game state.
+	 * @param rows the rows
+	 * @param offset the byte offset
+	 * @param state the game state
+	 * @param hand the bitmask of table indices
+	 */
+	private static void putHand(ByteBuffer rows, int offset, GameState state, int hand) {
+		for (int i = 0; i < 5; i++, hand &= hand - 1)
+			rows.putShort(offset + i * 2, (short) ((hand == 0) ? 0 : state.getCard(Integer.numberOfTrailingZeros(hand)).getID()));
+	}
+
+	/**
+	 * Puts the move played from a position in a row.
+	 * @param rows the rows
+	 * @param row the row index
+	 * @param cardID the ID of the card played
+	 * @param position the board position
+	 */
+	public static void putMove(ByteBuffer rows, int row, int cardID, int position) {
+		int base = row * ROW_BYTES;
+		rows.putShort(base + Column.MOVE_CARD.offset, (short) cardID);
+		rows.put(base + Column.MOVE_POSITION.offset, (byte) position);
+	}
+
+	/**
+	 * Puts the player's final score in a row.
+	 * @param rows the rows
+	 * @param row the row index
+	 * @param score the score [0, 10]
+	 */
+	public static void putScore(ByteBuffer rows, int row, int score) {
+		rows.put(row * ROW_BYTES + Column.SCORE.offset, (byte) score);
+	}
+
+	/**
+	 * Reads a file back, checking every block.
+	 * @param file the file
+	 * @return the number of rows
+	 * @throws IOException if reading fails or the file is invalid
+	 */
+	public static long verify(File file) throws IOException {
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(in, buf, 12);
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getInt() != Column.values().length)
+				throw new IOException("Not a training data file.");
+			for (Column column : Column.values()) {
+				readFully(in, buf, 1);
+				int length = buf.get();
+				readFully(in, buf, length + 1);
+				byte[] name = new byte[length];
+				buf.get(name);
+				if (!new String(name, StandardCharsets.US_ASCII).equals(column.toString()) || buf.get() != column.width)
+					throw new IOException(String.format("Unexpected column '%s'.", new String(name, StandardCharsets.US_ASCII)));
+			}
+
+			long rows = 0;
+			Inflater inflater = new Inflater();
+			CRC32 crc = new CRC32();
+			try {
+				ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+				while (in.position() < in.size()) {
+					readFully(in, header, 4);
+					int blockRows = header.getInt();
+					for (Column column : Column.values()) {
+						readFully(in, header, 8);
+						int compressed = header.getInt(), checksum = header.getInt();
+						ByteBuffer data = ByteBuffer.allocate(compressed);
+						readFully(in, data, compressed);
+						byte[] values = new byte[blockRows * column.width];
+						inflater.reset();
+						inflater.setInput(data.array(), 0, compressed);
+						if (inflater.inflate(values) != values.length || !inflater.finished())
+							throw new IOException(String.format("Column %s has the wrong length.", column.toString()));
+						crc.reset();
+						crc.update(values, 0, values.length);
+						if ((int) crc.getValue() != checksum)
+							throw new IOException(String.format("Column %s failed the checksum.", column.toString()));
+					}
+					rows += blockRows;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt block.", e);
+			} finally {
+				inflater.end();
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Reads bytes from a channel into a buffer (cleared first), then flips it.
+	 * @param in the channel
+	 * @param buf the buffer
+	 * @param length the number of bytes
+	 * @throws IOException if reading fails or the channel ends first
+	 */
+	private static void readFully(FileChannel in, ByteBuffer buf, int length) throws IOException {
+		buf.clear().limit(length);
+		while (buf.hasRemaining()) {
+			if (in.read(buf) == -1)
+				throw new IOException("Unexpected end of file.");
+		}
+		buf.flip();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: TrainingDataWriter <file> [games] [RANDOM|GREEDY]");
+			return;
+		}
+		File file = new File(args[0]);
+		int games = (args.length > 1) ? Integer.parseInt(args[1]) : 1000000;
+		BatchSimulator.Policy policy = (args.length > 2) ?
+			BatchSimulator.Policy.valueOf(args[2]) : BatchSimulator.Policy.GREEDY;
+		int batchSize = 4096;
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		List<Card> deck = new Deck().getCards();
+
+		// every game lasts 9 moves, so each game has 9 rows
+		Random random = new Random();
+		BatchSimulator batch = new BatchSimulator(batchSize, policy, random.nextLong());
+		ByteBuffer rows = ByteBuffer.allocate(batchSize * 9 * ROW_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		long time = System.nanoTime();
+		TrainingDataWriter writer = new TrainingDataWriter(file);
+		try {
+			for (int played = 0; played < games; played += batchSize) {
+				int count = Math.min(batchSize, games - played);
+				for (int g = 0; g < batchSize; g++) {
+					Card[][] hands = SelfPlay.deal(deck, random);
+					batch.deal(g, hands[0], hands[1], SelfPlay.getElements(random), random.nextBoolean());
+				}
+				for (int ply = 0; ply < 9; ply++) {
+					for (int g = 0; g < count; g++)
+						putPosition(rows, g * 9 + ply, batch, g, played + g, ply);
+					batch.step();
+					for (int g = 0; g < count; g++) {
+						int move = batch.getLastMove(g);
+						putMove(rows, g * 9 + ply,
+							batch.getCardID(g, GameState.getMoveCard(move)), GameState.getMovePosition(move));
+					}
+				}
+				for (int g = 0; g < count; g++) {
+					int score = batch.getScore(g);
+					for (int ply = 0; ply < 9; ply++)
+						putScore(rows, g * 9 + ply, score);
+				}
+				rows.position(0).limit(count * 9 * ROW_BYTES);
+				writer.write(rows);
+				rows.clear();
+			}
+		} finally {
+			writer.close();
+		}
+		time = System.nanoTime() - time;
+		long raw = writer.getRowCount() * ROW_BYTES;
+		System.out.printf("%d games, %d rows in %.2f s (%.0f rows/s)%n",
+			games, writer.getRowCount(), time / 1e9, writer.getRowCount() * 1e9 / time);
+		System.out.printf("%d bytes (%.1f bytes/row, %.1fx compression)%n",
+			writer.getBytesWritten(), (double) writer.getBytesWritten() / writer.getRowCount(),
+			(double) raw / writer.getBytesWritten());
+		System.out.printf("verified %d rows%n", verify(file));
+	}
+}
@@ -18,11 +18,9 @@
 
 package itdelatrisu.tripletriad;
 
-import itdelatrisu.tripletriad.ai.AI;
-import itdelatrisu.tripletriad.ai.BalancedAI;
-import itdelatrisu.tripletriad.ai.DefensiveAI;
-import itdelatrisu.tripletriad.ai.OffensiveAI;
-import itdelatrisu.tripletriad.ai.RandomAI;
+import itdelatrisu.tripletriad.ai.AIRegistry;
+import itdelatrisu.tripletriad.ai.HintSearch;
+import itdelatrisu.tripletriad.ai.TimedAI;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -30,7 +28,10 @@ import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import org.newdawn.slick.AppGameContainer;
 import org.newdawn.slick.BasicGame;
@@ -55,12 +56,24 @@ public class TripleTriad extends BasicGame {
 	/** Wait time unit, in milliseconds, between actions. */
 	private static final int WAIT_TIME = 1000;
 
+	/** Number of hinted moves shown on the board. */
+	private static final int HINT_COUNT = 3;
+
+	/** Number of asset loading stages. */
+	private static final int LOAD_STAGES = 5;
+
 	/** Delay timer. */
 	private int timer;
 
 	/** The deck of cards. */
 	private Deck deck;
 
+	/** Pending deck parsing task. */
+	private Future<Deck> deckTask;
+
+	/** Current asset loading stage (LOAD_STAGES if finished). */
+	private int loadStage;
+
 	/** Current board. */
 	private Card[] board;
 
@@ -74,7 +87,13 @@ public class TripleTriad extends BasicGame {
 	private ArrayList<Card> playerHand, opponentHand;
 
 	/** The AIs. */
-	private AI playerAI, opponentAI;
+	private TimedAI playerAI, opponentAI;
+
+	/** Background move analysis for the player (null if never enabled). */
+	private HintSearch hints;
+
+	/** Whether hint mode is enabled. */
+	private boolean hintMode = false;
 
 	/** Current card result. */
 	private CardResult result;
@@ -85,6 +104,12 @@ public class TripleTriad extends BasicGame {
 	/** Score. */
 	private int playerScore, opponentScore;
 
+	/** Whether the cards have been traded at the end of the game. */
+	private boolean traded;
+
+	/** Cards won and lost in the trade (empty if none). */
+	private String tradeText;
+
 	/** Turn (PLAYER or OPPONENT). */
 	private boolean turn;
 
@@ -165,17 +190,57 @@ public class TripleTriad extends BasicGame {
 	public void init(GameContainer container) throws SlickException {
 		this.container = container;
 
-		// initialize everything
+		// initialize options and fonts
+		long startTime = System.nanoTime();
 		Options.init(container);
-		AudioController.init();
-		GameImage.init();
-		Element.init();
-		Spinner.init();
-
-		// build deck
-		this.deck = new Deck();
+		AssetLoader.logTime("Options", startTime);
+
+		// decode everything else in the background (uploaded in update())
+		AssetLoader.start();
+		GameImage.load();
+		Element.load();
+		Spinner.load();
+		AudioController.load();
+		deckTask = AssetLoader.submit(new Callable<Deck>() {
+			@Override
+			public Deck call() { return new Deck(); }
+		});
+		loadStage = 0;
+	}
 
-		restart(true);
+	/**
+	 * Finishes the next asset loading stage on the main thread.
+	 * @throws SlickException failure to load an asset
+	 */
+	private void loadNextStage() throws SlickException {
+		long startTime = System.nanoTime();
+		switch (loadStage) {
+		case 0:
+			GameImage.init();
+			AssetLoader.logTime("GameImage", startTime);
+			break;
+		case 1:
+			Element.init();
+			AssetLoader.logTime("Element", startTime);
+			break;
+		case 2:
+			Spinner.init();
+			AssetLoader.logTime("Spinner", startTime);
+			break;
+		case 3:
+			AudioController.init();
+			AssetLoader.logTime("AudioController", startTime);
+			break;
+		case 4:
+			// build deck
+			this.deck = AssetLoader.get(deckTask);
+			deckTask = null;
+			AssetLoader.logTime("Deck", startTime);
+			AssetLoader.finish();
+			restart(true);
+			break;
+		}
+		loadStage++;
 	}
 
 	@Override
@@ -185,6 +250,17 @@ public class TripleTriad extends BasicGame {
 		int height = container.getHeight();
 		int cardLength = Options.getCardLength();
 
+		// asset loading: progress bar
+		if (loadStage < LOAD_STAGES) {
+			float progress = (loadStage + AssetLoader.getProgress()) / (LOAD_STAGES + 1);
+			float barWidth = width * 0.5f, barHeight = height * 0.01f;
+			float barX = (width - barWidth) / 2, barY = (height - barHeight) / 2;
+			g.setColor(Color.white);
+			g.drawRect(barX, barY, barWidth, barHeight);
+			g.fillRect(barX, barY, barWidth * progress, barHeight);
+			return;
+		}
+
 		// board
 		GameImage.BOARD_MAT.getImage().drawCentered(width / 2, height / 2);
 
@@ -269,11 +345,25 @@ public class TripleTriad extends BasicGame {
 				                                GameImage.RESULT_DRAW;
 			result.getImage().setAlpha(textAlpha);
 			result.getImage().drawCentered(width / 2, height / 2);
+
+			// trade
+			if (traded && !tradeText.isEmpty()) {
+				Color color = new Color(1f, 1f, 1f, textAlpha);
+				Options.getFont().drawString(
+					(width - Options.getFont().getWidth(tradeText)) / 2,
+					(height / 2) + result.getImage().getHeight(),
+					tradeText, color
+				);
+			}
 			return;
 		}
 
 		// player turn...
 		if (isPlayerTurn && !playerHand.isEmpty()) {
+			// hints
+			if (hintMode)
+				drawHints();
+
 			// cursor
 			Image cursor = GameImage.CURSOR.getImage();
 			cursor.setAlpha(1f);
@@ -317,9 +407,57 @@ public class TripleTriad extends BasicGame {
 		}
 	}
 
+	/**
+	 * Draws the best moves from the latest hint analysis on the board.
+	 */
+	private void drawHints() {
+		HintSearch.Analysis analysis = hints.getAnalysis();
+		GameState state = hints.getState();
+		if (analysis == null || state == null)
+			return;
+
+		// best move for each position (ranked)
+		int width = container.getWidth();
+		int height = container.getHeight();
+		int cardLength = Options.getCardLength();
+		int positions = 0, count = 0;
+		for (int i = 0; i < analysis.size() && count < HINT_COUNT; i++) {
+			int move = analysis.getMove(i);
+			int position = GameState.getMovePosition(move);
+			if ((positions & (1 << position)) != 0)
+				continue;
+			positions |= 1 << position;
+
+			// card preview and expected final score
+			float x = (width / 2) - ((1 - (position % 3)) * cardLength);
+			float y = (height / 2) - ((1 - (position / 3)) * cardLength);
+			Image img = state.getCard(GameState.getMoveCard(move)).getImage();
+			if (img != null) {
+				img.setAlpha(0.4f - (0.1f * count));
+				img.drawCentered(x, y);
+				img.setAlpha(1f);
+			}
+			String text = String.format((analysis.isExact()) ? "%d" : "~%d", analysis.getScore(i));
+			Options.getFont().drawString(
+				x - (Options.getFont().getWidth(text) / 2),
+				y - (Options.getFont().getLineHeight() / 2),
+				text, (count == 0) ? Color.yellow : Color.white
+			);
+			count++;
+		}
+	}
+
 	@Override
 	public void update(GameContainer container, int delta)
 			throws SlickException {
+		AudioController.update(delta);
+
+		// asset loading
+		if (loadStage < LOAD_STAGES) {
+			loadNextStage();
+			return;
+		}
+
 		// card loading
 		if (!init) {
 			// sound effect timer
@@ -407,6 +545,12 @@ public class TripleTriad extends BasicGame {
 
 		// game over
 		if (isGameOver()) {
+			// trade (unless continuing with sudden death)
+			if (!traded && !(Rule.SUDDEN_DEATH.isActive() && playerScore == opponentScore)) {
+				trade();
+				traded = true;
+			}
+
 			// fade in result
 			if (textAlpha < 1f)
 				textAlpha += (delta / 750f);
@@ -423,9 +567,11 @@ public class TripleTriad extends BasicGame {
 
 		// opponent turn
 		if (turn == OPPONENT) {
-			if (timer == 0) {  // calculate next move
-				opponentAI.update(opponentScore, playerScore);
-				timer += delta;
+			if (timer == 0) {  // calculate next move (in the background)
+				if (!opponentAI.isRunning())
+					opponentAI.start(opponentScore, playerScore);
+				if (opponentAI.poll())
+					timer += Math.max(delta, 1);
 			} else if (timer < WAIT_TIME) {  // delay, move card
 				int nextIndex = opponentAI.nextIndex();
 				if (selectedCard < nextIndex &&
@@ -438,11 +584,26 @@ public class TripleTriad extends BasicGame {
 			}
 			return;
 		}
+
+		// player turn: play the move chosen by the player's AI (F1) once ready
+		if (playerAI.isRunning()) {
+			if (playerAI.poll()) {
+				selectedCard = playerAI.nextIndex();
+				selectedPosition = playerAI.nextPosition();
+				playCard(playerHand, selectedCard, selectedPosition);
+				AudioController.Effect.SELECT.play();
+			}
+			return;
+		}
+
+		// player turn: analyze moves in the background
+		if (hintMode && !hints.isActive())
+			hints.start(new GameState(board, elements, playerHand, opponentHand, PLAYER));
 	}
 
 	@Override
 	public boolean closeRequested() {
-		Options.saveOptions();
+		shutdown();
 		return true;
 	}
 
@@ -450,11 +611,15 @@ public class TripleTriad extends BasicGame {
 	public void keyPressed(int key, char c) {
 		// exit
 		if (key == Input.KEY_ESCAPE) {
-			Options.saveOptions();
+			shutdown();
 			container.exit();
 			return;
 		}
 
+		// still loading
+		if (loadStage < LOAD_STAGES)
+			return;
+
 		// restart game
 		if (key == Input.KEY_F5 || (
 			isGameOver() && (playerScore != opponentScore || !Rule.SUDDEN_DEATH.isActive()) &&
@@ -465,8 +630,22 @@ public class TripleTriad extends BasicGame {
 			return;
 		}
 
-		// not player turn
-		if (turn != PLAYER || !init || result != null || isGameOver())
+		// toggle hint mode (only with open hands: the search uses the opposing hand)
+		if (key == Input.KEY_F2) {
+			if (!hintMode && !Rule.OPEN.isActive()) {
+				AudioController.Effect.INVALID.play();
+				return;
+			}
+			hintMode = !hintMode;
+			if (hintMode && hints == null)
+				hints = new HintSearch();
+			else if (!hintMode)
+				hints.cancel();
+			return;
+		}
+
+		// not player turn (or the player's AI is moving)
+		if (turn != PLAYER || !init || result != null || isGameOver() || playerAI.isRunning())
 			return;
 
 		switch (key) {
@@ -525,18 +704,14 @@ public class TripleTriad extends BasicGame {
 			}
 			break;
 		case Input.KEY_F1:
-			playerAI.update(playerScore, opponentScore);
-			selectedCard = playerAI.nextIndex();
-			selectedPosition = playerAI.nextPosition();
-			playCard(playerHand, selectedCard, selectedPosition);
-			AudioController.Effect.SELECT.play();
+			playerAI.start(playerScore, opponentScore);
 			break;
 		}
 	}
 
 	@Override
 	public void mousePressed(int button, int x, int y) {
-		if (button != Input.MOUSE_LEFT_BUTTON)
+		if (button != Input.MOUSE_LEFT_BUTTON || loadStage < LOAD_STAGES)
 			return;
 
 		// restart game
@@ -546,8 +721,8 @@ public class TripleTriad extends BasicGame {
 			return;
 		}
 
-		// not player turn
-		if (turn != PLAYER || !init || result != null || isGameOver())
+		// not player turn (or the player's AI is moving)
+		if (turn != PLAYER || !init || result != null || isGameOver() || playerAI.isRunning())
 			return;
 
 		int cardLength = Options.getCardLength();
@@ -596,6 +771,19 @@ public class TripleTriad extends BasicGame {
 		}
 	}
 
+	/**
+	 * Saves all persistent data before exiting.
+	 */
+	private void shutdown() {
+		Options.saveOptions();
+		ImageCache.save();
+		CardCollection.save();
+		AudioController.logStats();
+		if (hints != null)
+			hints.shutdown();
+		AIRegistry.shutdown();
+	}
+
 	/**
 	 * Re-initializes the game.
 	 * @param newHand whether or not to generate new hands (e.g. false for Sudden Death)
@@ -633,23 +821,25 @@ public class TripleTriad extends BasicGame {
 		}
 
 		// reset game data
+		if (hints != null)
+			hints.cancel();
+		if (playerAI != null) {
+			playerAI.cancel();
+			opponentAI.cancel();
+		}
 		board = new Card[9];
 		elements = (Rule.ELEMENTAL.isActive()) ? Element.getRandomBoard() : null;
-		switch (Options.getOpponentAI()) {
-			case RANDOM: opponentAI = new RandomAI(opponentHand, board, elements); break;
-			case OFFENSIVE: opponentAI = new OffensiveAI(opponentHand, board, elements); break;
-			case DEFENSIVE: opponentAI = new DefensiveAI(opponentHand, board, elements); break;
-			case BALANCED: opponentAI = new BalancedAI(opponentHand, board, elements); break;
-		}
-		switch (Options.getPlayerAI()) {
-			case RANDOM: playerAI = new RandomAI(playerHand, board, elements); break;
-			case OFFENSIVE: playerAI = new OffensiveAI(playerHand, board, elements); break;
-			case DEFENSIVE: playerAI = new DefensiveAI(playerHand, board, elements); break;
-			case BALANCED: playerAI = new BalancedAI(playerHand, board, elements); break;
+		opponentAI = AIRegistry.create(Options.getOpponentAI(), opponentHand, board, elements, Options.getAITime());
+		playerAI = AIRegistry.create(Options.getPlayerAI(), playerHand, board, elements, Options.getAITime());
+		if (Rule.OPEN.isActive()) {
+			opponentAI.setOpposingHand(playerHand);
+			playerAI.setOpposingHand(opponentHand);
 		}
 		result = null;
 		isCombo = false;
 		playerScore = opponentScore = 5;
+		traded = false;
+		tradeText = "";
 		turn = new Random().nextBoolean();
 		selectedCard = 0;
 		selectedPosition = -1;
@@ -659,6 +849,45 @@ public class TripleTriad extends BasicGame {
 		textAlpha = 0f;
 	}
 
+	/**
+	 * Exchanges cards according to the trade rule, and records the result in
+	 * the player's collection (in collection mode only).
+	 * <p>
+	 * The winner's AI chooses the cards for the "One", "Diff" and "All" rules.
+	 */
+	private void trade() {
+		TradeRule rule = Options.getTradeRule();
+		if (rule == TradeRule.NONE || !Options.isCollectionMode())
+			return;
+
+		List<Card> won = new ArrayList<Card>(), lost = new ArrayList<Card>();
+		if (rule == TradeRule.DIRECT) {
+			for (Card c : opponentCards) {
+				if (c.getOwner() == PLAYER)
+					won.add(c);
+			}
+			for (Card c : playerCards) {
+				if (c.getOwner() == OPPONENT)
+					lost.add(c);
+			}
+		} else if (playerScore > opponentScore)
+			won.addAll(playerAI.chooseCards(Arrays.asList(opponentCards),
+					rule.getCount(playerScore, opponentScore, opponentCards.length)));
+		else if (opponentScore > playerScore)
+			lost.addAll(opponentAI.chooseCards(Arrays.asList(playerCards),
+					rule.getCount(opponentScore, playerScore, playerCards.length)));
+		CardCollection.transfer(won, lost);
+
+		// result text
+		StringBuilder sb = new StringBuilder();
+		for (Card c : won)
+			sb.append((sb.length() == 0) ? "Won: " : ", ").append(c.getName());
+		int length = sb.length();
+		for (Card c : lost)
+			sb.append((sb.length() == length) ? ((length == 0) ? "Lost: " : "  Lost: ") : ", ").append(c.getName());
+		tradeText = sb.toString();
+	}
+
 	/**
 	 * Returns whether or not the game is over.
 	 * @return true if over
@@ -676,6 +905,10 @@ public class TripleTriad extends BasicGame {
 		if (board[position] != null)
 			return false;
 
+		// stop analyzing the old position
+		if (hints != null)
+			hints.cancel();
+
 		// set card
 		Card card = hand.get(index);
 		card.playAtPosition(position, index);
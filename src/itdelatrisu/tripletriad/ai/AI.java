@@ -22,6 +22,9 @@ import itdelatrisu.tripletriad.Card;
 import itdelatrisu.tripletriad.Element;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * Generic game AI.
@@ -36,11 +39,17 @@ public abstract class AI {
 	/** The element board. */
 	protected Element[] elements;
 
-	/** Hand index of the next card to be played. */
-	protected int nextIndex;
+	/** The opposing hand (null unless shown by the "Open" rule). */
+	protected ArrayList<Card> opposingHand;
+
+	/** Hand index of the next card to be played (may be read by another thread, see {@link TimedAI}). */
+	protected volatile int nextIndex;
 
 	/** Board position of the next card to be played.*/
-	protected int nextPosition;
+	protected volatile int nextPosition;
+
+	/** Evaluator for all candidate moves. */
+	protected final MoveEvaluator evaluator = new MoveEvaluator();
 
 	/**
 	 * Constructor.
@@ -61,6 +70,12 @@ public abstract class AI {
 	 */
 	public abstract void update(int thisScore, int thatScore);
 
+	/**
+	 * Sets the opposing hand, which is only known with the "Open" rule.
+	 * @param opposingHand the opposing hand (or null if hidden)
+	 */
+	public void setOpposingHand(ArrayList<Card> opposingHand) { this.opposingHand = opposingHand; }
+
 	/**
 	 * Returns the hand index of the next card to be played.
 	 * @return the hand index
@@ -73,6 +88,23 @@ public abstract class AI {
 	 */
 	public int nextPosition() { return nextPosition; }
 
+	/**
+	 * Chooses cards to take from the loser's hand after winning a game
+	 * (e.g. for the "One" and "Diff" trade rules).
+	 * The strongest cards are chosen (see {@link CardStats#compare(Card, Card)}).
+	 * @param cards the loser's original cards
+	 * @param count the number of cards to take
+	 * @return the chosen cards
+	 */
+	public List<Card> chooseCards(List<Card> cards, int count) {
+		List<Card> sorted = new ArrayList<Card>(cards);
+		Collections.sort(sorted, new Comparator<Card>() {
+			@Override
+			public int compare(Card c1, Card c2) { return CardStats.compare(c2, c1); }
+		});
+		return new ArrayList<Card>(sorted.subList(0, Math.min(count, sorted.size())));
+	}
+
 	/**
 	 * Returns a list containing all empty board positions [0, 8].
 	 * @return an ArrayList of empty positions
@@ -95,6 +127,19 @@ public abstract class AI {
 	 * @return the rank difference [0, 40]
 	 */
 	protected int getRankDiff(Card c, int position) {
+		return (int) getRankDiff(c, position, 1f);
+	}
+
+	/**
+	 * Returns the "rank difference" value of a card at a position, with
+	 * weighted element bonuses.
+	 * @param c the card
+	 * @param position the board position
+	 * @param elementWeight the weight of each element bonus
+	 * @return the rank difference (at least 0)
+	 * @see #getRankDiff(Card, int)
+	 */
+	protected float getRankDiff(Card c, int position, float elementWeight) {
 		int totalRank = 0;
 		int sides = 0;
 		if (position % 3 != 0 && board[position - 1] == null) {
@@ -115,24 +160,20 @@ public abstract class AI {
 		}
 
 		// element bonuses
+		float bonus = 0f;
 		if (elements != null && elements[position] != Element.NEUTRAL)
-			totalRank += ((c.getElement() == elements[position]) ? 1 : -1) * sides;
+			bonus = ((c.getElement() == elements[position]) ? elementWeight : -elementWeight) * sides;
 
-		return Math.max((sides * 10) - totalRank, 0);
+		return Math.max((sides * 10) - totalRank - bonus, 0f);
 	}
 
 	/**
 	 * Returns the sum "rank difference" of all of the owner's cards on the board.
+	 * @param elementWeight the weight of each element bonus
 	 * @return the board's rank difference
 	 */
-	private int getBoardRankDiff() {
-		boolean owner = hand.get(0).getOwner();
-		int totalRank = 0;
-		for (int i = 0; i < board.length; i++) {
-			if (board[i] != null && board[i].getOwner() == owner)
-				totalRank += getRankDiff(board[i], i);
-		}
-		return totalRank;
+	private float getBoardRankDiff(float elementWeight) {
+		return evaluator.getBoardRankDiff(board, elements, hand.get(0).getOwner(), elementWeight);
 	}
 
 	/**
@@ -140,34 +181,35 @@ public abstract class AI {
 	 * This takes elements into account, and is calculated using the formula:<ul>
 	 * <li>side_rank_diff = (10 * (# adjacent cards)) - sum(facing ranks of adjacent cards)</ul>
 	 * @param position the board position
-	 * @return the side rank difference [-4, 40]
+	 * @param elementWeight the weight of each element bonus
+	 * @return the side rank difference
 	 */
-	private int sideRankDiff(int position) {
+	private float sideRankDiff(int position, float elementWeight) {
 		boolean owner = hand.get(0).getOwner();
-		int totalRank = 0;
+		float totalRank = 0;
 		int sides = 0;
 		if (position % 3 != 0 && board[position - 1] != null && board[position - 1].getOwner() == owner) {
 			totalRank += board[position - 1].getRank(Card.Rank.RIGHT);
 			if (elements != null && elements[position - 1] != Element.NEUTRAL)
-				totalRank += (board[position - 1].getElement() == elements[position - 1]) ? 1 : -1;
+				totalRank += (board[position - 1].getElement() == elements[position - 1]) ? elementWeight : -elementWeight;
 			sides++;
 		}
 		if (position % 3 != 2 && board[position + 1] != null && board[position + 1].getOwner() == owner) {
 			totalRank += board[position + 1].getRank(Card.Rank.LEFT);
 			if (elements != null && elements[position + 1] != Element.NEUTRAL)
-				totalRank += (board[position + 1].getElement() == elements[position + 1]) ? 1 : -1;
+				totalRank += (board[position + 1].getElement() == elements[position + 1]) ? elementWeight : -elementWeight;
 			sides++;
 		}
 		if (position > 2 && board[position - 3] != null && board[position - 3].getOwner() == owner) {
 			totalRank += board[position - 3].getRank(Card.Rank.BOTTOM);
 			if (elements != null && elements[position - 3] != Element.NEUTRAL)
-				totalRank += (board[position - 3].getElement() == elements[position - 3]) ? 1 : -1;
+				totalRank += (board[position - 3].getElement() == elements[position - 3]) ? elementWeight : -elementWeight;
 			sides++;
 		}
 		if (position < 6 && board[position + 3] != null && board[position + 3].getOwner() == owner) {
 			totalRank += board[position + 3].getRank(Card.Rank.TOP);
 			if (elements != null && elements[position + 3] != Element.NEUTRAL)
-				totalRank += (board[position + 3].getElement() == elements[position + 3]) ? 1 : -1;
+				totalRank += (board[position + 3].getElement() == elements[position + 3]) ? elementWeight : -elementWeight;
 			sides++;
 		}
 
@@ -180,19 +222,31 @@ public abstract class AI {
 	 * @param spaces the list of empty spaces
 	 */
 	protected void useMinRankDiff(ArrayList<Integer> spaces) {
+		useMinRankDiff(spaces, 1f, 1f);
+	}
+
+	/**
+	 * Uses the card and position creating the lowest weighted "rank difference"
+	 * of all the owner's cards on the board.
+	 * @param spaces the list of empty spaces
+	 * @param sideWeight the weight of the "side rank difference"
+	 * @param elementWeight the weight of each element bonus
+	 */
+	protected void useMinRankDiff(ArrayList<Integer> spaces, float sideWeight, float elementWeight) {
 		int handSize = hand.size();
-		int boardRankDiff = getBoardRankDiff();
-		int minTotalRankDiff = Integer.MAX_VALUE;
+		float boardRankDiff = getBoardRankDiff(elementWeight);
+		evaluator.evaluate(hand, board, elements, elementWeight, false);
+		float minTotalRankDiff = Float.MAX_VALUE;
 		int nextLevel = -1;
 
 		// use lowest level card possible, except if starting second and on last turn
 		boolean useLowestLevel = ((spaces.size() % 2 > 0) || handSize != 2);
 
 		for (int space : spaces) {
-			int sideRankDiff = sideRankDiff(space);
+			float sideRankDiff = sideRankDiff(space, elementWeight) * sideWeight;
 			for (int index = 0; index < handSize; index++) {
 				Card c = hand.get(index);
-				int totalRankDiff = boardRankDiff + getRankDiff(c, space) - sideRankDiff;
+				float totalRankDiff = boardRankDiff + evaluator.getRankDiff(index, space) - sideRankDiff;
 				if (totalRankDiff < minTotalRankDiff ||
 					(totalRankDiff == minTotalRankDiff && (
 						(useLowestLevel && c.getLevel() < nextLevel) ||
@@ -207,4 +261,4 @@ public abstract class AI {
 			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,51 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Element;
+
+import java.util.ArrayList;
+
+/**
+ * Creates AIs of one type (see {@link AIRegistry}).
+ * <p>
+ * Plugins implement this interface in a jar placed in the plugin directory,
+ * listing the implementation in
+ * {@code META-INF/services/itdelatrisu.tripletriad.ai.AIProvider}.
+ * Implementations must have a public no-argument constructor.  Providers
+ * that hold resources may also implement {@link java.io.Closeable}, and
+ * are closed when the game exits.
+ */
+public interface AIProvider {
+	/**
+	 * Returns the AI type name (as used in the configuration file).
+	 * @return the name
+	 */
+	public String getName();
+
+	/**
+	 * Returns a new AI for a game.
+	 * @param hand the hand of cards
+	 * @param board the board
+	 * @param elements the element board
+	 * @return the AI
+	 */
+	public AI create(ArrayList<Card> hand, Card[] board, Element[] elements);
+}
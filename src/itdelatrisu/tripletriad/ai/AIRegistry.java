@@ -0,0 +1,224 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.Options;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.newdawn.slick.util.Log;
+
+/**
+ * Registry of AI types, by name.
+ * <p>
+ * The built-in types ({@link Options.AIType}) are registered first, then
+ * every {@link AIProvider} found by {@link ServiceLoader} on the class path
+ * or in a jar in the plugin directory.  AIs are created wrapped in a
+ * {@link TimedAI}, so no AI can delay its caller past its time limit.
+ */
+public class AIRegistry {
+	/** Plugin directory (jars containing {@link AIProvider} implementations). */
+	public static final File PLUGIN_DIR = new File("plugins");
+
+	/** Default AI type. */
+	private static final String DEFAULT_AI = Options.AIType.BALANCED.toString();
+
+	/** Providers, by name (in registration order). */
+	private static Map<String, AIProvider> providers;
+
+	// This class should not be instantiated.
+	private AIRegistry() {}
+
+	/**
+	 * Provider of a built-in AI type.
+	 */
+	private static class BuiltInProvider implements AIProvider {
+		/** The AI type. */
+		private final Options.AIType type;
+
+		/**
+		 * Constructor.
+		 * @param type the AI type
+		 */
+		public BuiltInProvider(Options.AIType type) { this.type = type; }
+
+		@Override
+		public String getName() { return type.toString(); }
+
+		@Override
+		public AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+			switch (type) {
+			case RANDOM: return new RandomAI(hand, board, elements);
+			case OFFENSIVE: return new OffensiveAI(hand, board, elements);
+			case DEFENSIVE: return new DefensiveAI(hand, board, elements);
+			case NEURAL:
+				NeuralNet net = NeuralNet.getDefault();
+				if (net != null)
+					return new NeuralAI(hand, board, elements, net);
+				return new BalancedAI(hand, board, elements);
+			default: return new BalancedAI(hand, board, elements);
+			}
+		}
+	}
+
+	/**
+	 * Returns the providers, registering them on first use.
+	 * @return the providers, by name
+	 */
+	private static synchronized Map<String, AIProvider> getProviders() {
+		if (providers != null)
+			return providers;
+
+		providers = new LinkedHashMap<String, AIProvider>();
+		for (Options.AIType type : Options.AIType.values()) {
+			if (type == Options.AIType.EXTERNAL)
+				register(new ExternalAI.Provider());
+			else
+				register(new BuiltInProvider(type));
+		}
+
+		// plugins
+		Iterator<AIProvider> iter = ServiceLoader.load(AIProvider.class, getPluginLoader()).iterator();
+		while (true) {
+			try {
+				if (!iter.hasNext())
+					break;
+				register(iter.next());
+			} catch (ServiceConfigurationError e) {
+				Log.warn("Failed to load an AI plugin.", e);
+			}
+		}
+		return providers;
+	}
+
+	/**
+	 * Returns a class loader for the jars in the plugin directory.
+	 * @return the class loader
+	 */
+	private static ClassLoader getPluginLoader() {
+		ClassLoader parent = AIRegistry.class.getClassLoader();
+		File[] jars = PLUGIN_DIR.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) { return file.isFile() && file.getName().endsWith(".jar"); }
+		});
+		if (jars == null || jars.length == 0)
+			return parent;
+
+		List<URL> urls = new ArrayList<URL>(jars.length);
+		for (File jar : jars) {
+			try {
+				urls.add(jar.toURI().toURL());
+			} catch (MalformedURLException e) {
+				Log.warn(String.format("Failed to read plugin '%s'.", jar.getAbsolutePath()), e);
+			}
+		}
+		return new URLClassLoader(urls.toArray(new URL[urls.size()]), parent);
+	}
+
+	/**
+	 * Registers a provider, unless its name is already registered.
+	 * @param provider the provider
+	 */
+	private static void register(AIProvider provider) {
+		String name = provider.getName();
+		if (providers.containsKey(name)) {
+			Log.warn(String.format("AI type '%s' (%s) is already registered.", name, provider.getClass().getName()));
+			return;
+		}
+		providers.put(name, provider);
+	}
+
+	/**
+	 * Returns the names of all registered AI types.
+	 * @return the names, built-in types first
+	 */
+	public static List<String> getNames() { return new ArrayList<String>(getProviders().keySet()); }
+
+	/**
+	 * Returns the provider of an AI type.
+	 * @param name the AI type name
+	 * @return the provider, or null if not registered
+	 */
+	public static AIProvider getProvider(String name) { return getProviders().get(name); }
+
+	/**
+	 * Returns a new AI with a time limit.
+	 * @param name the AI type name (the balanced AI is used if not registered)
+	 * @param hand the hand of cards
+	 * @param board the board
+	 * @param elements the element board
+	 * @param time the time limit per move, in ms
+	 * @return the AI (created by the provider on its first update, see {@link TimedAI})
+	 */
+	public static TimedAI create(String name, ArrayList<Card> hand, Card[] board, Element[] elements, int time) {
+		AIProvider provider = getProvider(name);
+		if (provider == null) {
+			Log.warn(String.format("Unknown AI type '%s', using '%s'.", name, DEFAULT_AI));
+			provider = getProvider(DEFAULT_AI);
+		}
+		return new TimedAI(provider, hand, board, elements, time);
+	}
+
+	/**
+	 * Returns a factory for self-play games, creating AIs with a time limit.
+	 * @param name the AI type name
+	 * @param time the time limit per move, in ms
+	 * @return the factory
+	 */
+	public static SelfPlay.AIFactory getFactory(final String name, final int time) {
+		return new SelfPlay.AIFactory() {
+			@Override
+			public AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+				return AIRegistry.create(name, hand, board, elements, time);
+			}
+		};
+	}
+
+	/**
+	 * Closes all providers holding resources (e.g. external engines).
+	 */
+	public static synchronized void shutdown() {
+		if (providers == null)
+			return;
+		for (AIProvider provider : providers.values()) {
+			if (provider instanceof Closeable) {
+				try {
+					((Closeable) provider).close();
+				} catch (IOException e) {
+					Log.warn(String.format("Failed to close AI '%s'.", provider.getName()), e);
+				}
+			}
+		}
+	}
+}
@@ -19,7 +19,6 @@
 package itdelatrisu.tripletriad.ai;
 
 import itdelatrisu.tripletriad.Card;
-import itdelatrisu.tripletriad.CardResult;
 import itdelatrisu.tripletriad.Element;
 
 import java.util.ArrayList;
@@ -29,6 +28,9 @@ import java.util.ArrayList;
  * Weighs capture count against best card placement for each move.
  */
 public class BalancedAI extends AI {
+	/** Evaluation weights (by {@link Weight} ordinal). */
+	private final float[] weights;
+
 	/**
 	 * Balanced AI constructor.
 	 * @param hand the hand of cards
@@ -37,13 +39,29 @@ public class BalancedAI extends AI {
 	 * @see itdelatrisu.tripletriad.ai.AI#AI(ArrayList, Card[], Element[])
 	 */
 	public BalancedAI(ArrayList<Card> hand, Card[] board, Element[] elements) {
+		this(hand, board, elements, Weight.getValues());
+	}
+
+	/**
+	 * Balanced AI constructor, with the given evaluation weights.
+	 * @param hand the hand of cards
+	 * @param board the board
+	 * @param elements the element board
+	 * @param weights the weights (by {@link Weight} ordinal)
+	 */
+	public BalancedAI(ArrayList<Card> hand, Card[] board, Element[] elements, float[] weights) {
 		super(hand, board, elements);
+		this.weights = weights;
 	}
 
 	@Override
 	public void update(int thisScore, int thatScore) {
 		int handSize = hand.size();
 		ArrayList<Integer> spaces = emptySpaces();
+		float captureThreshold = weights[Weight.CAPTURE_THRESHOLD.ordinal()];
+		float rankDiffLoss = weights[Weight.RANK_DIFF_LOSS.ordinal()];
+		float rankDiffGain = weights[Weight.RANK_DIFF_GAIN.ordinal()];
+		float elementWeight = weights[Weight.ELEMENT_WEIGHT.ordinal()];
 
 		// use lowest level card possible, except if starting second and on last turn
 		boolean useLowestLevel = ((spaces.size() % 2 > 0) || handSize != 2);
@@ -52,22 +70,22 @@ public class BalancedAI extends AI {
 		boolean isLosing = (thisScore < thatScore);
 
 		// find move with max number of captured cards
+		evaluator.evaluate(hand, board, elements, elementWeight, true);
 		int maxCapture = -1;
-		int nextRankDiff = 41;
+		float nextRankDiff = 41;
 		int nextLevel = -1;
 		for (int space : spaces) {
 			for (int index = 0; index < handSize; index++) {
 				Card c = hand.get(index);
-				CardResult result = new CardResult(c, space, board, elements);
-				int capturedCount = result.getCapturedCount();
-				int rankDiff = getRankDiff(c, space);
+				int capturedCount = evaluator.getCapturedCount(index, space);
+				float rankDiff = evaluator.getRankDiff(index, space);
 
 				// determine whether or not to use this result...
 				boolean isValid = false;
 				if (maxCapture == -1)
 					isValid = true;
 				else if (capturedCount > maxCapture) {
-					if (capturedCount > 2 || nextRankDiff - rankDiff > -5 || isLosing)
+					if (capturedCount > captureThreshold || nextRankDiff - rankDiff > -rankDiffLoss || isLosing)
 						isValid = true;
 				} else if (capturedCount == maxCapture) {
 					if (rankDiff < nextRankDiff ||
@@ -78,7 +96,7 @@ public class BalancedAI extends AI {
 					))
 						isValid = true;
 				} else if (capturedCount == maxCapture - 1 && !isLosing) {
-					if (nextRankDiff - rankDiff > 5)
+					if (nextRankDiff - rankDiff > rankDiffGain)
 						isValid = true;
 				}
 
@@ -94,6 +112,6 @@ public class BalancedAI extends AI {
 
 		// no capture possible: find lowest total rank difference
 		if (maxCapture == 0 && spaces.size() != 9)
-			useMinRankDiff(spaces);
+			useMinRankDiff(spaces, weights[Weight.SIDE_WEIGHT.ordinal()], elementWeight);
 	}
 }
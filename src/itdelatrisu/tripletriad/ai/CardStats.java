@@ -0,0 +1,424 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Deck;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.Options;
+import itdelatrisu.tripletriad.Rule;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.Log;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Precomputed card strength statistics.
+ * <p>
+ * The statistics are built offline by simulating games between balanced
+ * AIs over the whole deck ({@link #main(String[])}), and are stored in a
+ * compact binary table.  Each value is the mean final score difference
+ * [-10, 10] for the side holding a card:<ul>
+ * <li>for each card in a dealt hand,
+ * <li>for each card placed at each position, with and without an element
+ *     bonus or penalty,
+ * <li>for each pair of cards in the same hand.</ul>
+ * Values are stored as fixed-point shorts indexed by card ID, so each lookup
+ * is a single array access.  Values without enough samples fall back to the
+ * next less specific value.
+ */
+public class CardStats {
+	/** File for storing the statistics. */
+	public static final File STATS_FILE = new File(".triple-triad.stats");
+
+	/** File header. */
+	private static final int MAGIC = 0x54544353, VERSION = 1;
+
+	/** Fixed-point scale of stored values. */
+	private static final float SCALE = 1000f;
+
+	/** Stored value for too few samples. */
+	private static final short NO_DATA = Short.MIN_VALUE;
+
+	/** Minimum number of samples for a stored value. */
+	private static final int MIN_SAMPLES = 32;
+
+	/** Element states of a placement (no bonus, bonus, penalty). */
+	private static final int ELEMENT_STATES = 3;
+
+	/** Rules affecting the statistics (in header bit order). */
+	private static final Rule[] RULES = {
+		Rule.SAME, Rule.SAME_WALL, Rule.PLUS, Rule.COMBO, Rule.ELEMENTAL
+	};
+
+	/** Number of card IDs in the table (0 if not loaded). */
+	private static int cardCount = 0;
+
+	/** Mean values of cards in a hand (by ID). */
+	private static short[] cardValues;
+
+	/** Mean values of placed cards (by (ID * 9 + position) * 3 + element state). */
+	private static short[] placementValues;
+
+	/** Mean values of card pairs in a hand (by ID * card count + ID). */
+	private static short[] pairValues;
+
+	static {
+		load();
+	}
+
+	// This class should not be instantiated.
+	private CardStats() {}
+
+	/**
+	 * Returns whether or not statistics are loaded.
+	 * @return true if loaded
+	 */
+	public static boolean isLoaded() { return (cardCount > 0); }
+
+	/**
+	 * Returns the mean value of holding a card.
+	 * @param id the card ID
+	 * @return the value [-10, 10] (0 if unknown)
+	 */
+	public static float getValue(int id) {
+		if (id < 0 || id >= cardCount || cardValues[id] == NO_DATA)
+			return 0f;
+		return cardValues[id] / SCALE;
+	}
+
+	/**
+	 * Returns the mean value of placing a card at a position.
+	 * @param id the card ID
+	 * @param position the board position
+	 * @param bonus the element rank bonus at the position (-1, 0, or 1)
+	 * @return the value [-10, 10]
+	 */
+	public static float getValue(int id, int position, int bonus) {
+		if (id < 0 || id >= cardCount)
+			return 0f;
+		short value = placementValues[getPlacementIndex(id, position, bonus)];
+		return (value == NO_DATA) ? getValue(id) : value / SCALE;
+	}
+
+	/**
+	 * Returns the mean value of holding two cards in the same hand.
+	 * @param id1 the first card ID
+	 * @param id2 the second card ID
+	 * @return the value [-10, 10]
+	 */
+	public static float getPairValue(int id1, int id2) {
+		if (id1 < 0 || id1 >= cardCount || id2 < 0 || id2 >= cardCount)
+			return 0f;
+		short value = pairValues[id1 * cardCount + id2];
+		return (value == NO_DATA) ? (getValue(id1) + getValue(id2)) / 2f : value / SCALE;
+	}
+
+	/**
+	 * Returns the estimated strength of a hand, as the mean value of all
+	 * pairs of cards in it.
+	 * @param hand the hand
+	 * @return the value [-10, 10]
+	 */
+	public static float getHandValue(Card[] hand) {
+		if (hand.length == 1)
+			return getValue(hand[0].getID());
+
+		float total = 0f;
+		int pairs = 0;
+		for (int i = 0; i < hand.length; i++) {
+			for (int j = i + 1; j < hand.length; j++) {
+				total += getPairValue(hand[i].getID(), hand[j].getID());
+				pairs++;
+			}
+		}
+		return (pairs == 0) ? 0f : total / pairs;
+	}
+
+	/**
+	 * Compares the strength of two cards: by card value if statistics are
+	 * loaded, then by rank total and level.
+	 * @param c1 the first card
+	 * @param c2 the second card
+	 * @return a positive value if the first card is stronger
+	 */
+	public static int compare(Card c1, Card c2) {
+		if (isLoaded()) {
+			int cmp = Float.compare(getValue(c1.getID()), getValue(c2.getID()));
+			if (cmp != 0)
+				return cmp;
+		}
+		int cmp = Integer.compare(Deck.getRankTotal(c1), Deck.getRankTotal(c2));
+		return (cmp != 0) ? cmp : Integer.compare(c1.getLevel(), c2.getLevel());
+	}
+
+	/**
+	 * Returns the placement table index.
+	 * @param id the card ID
+	 * @param position the board position
+	 * @param bonus the element rank bonus (-1, 0, or 1)
+	 * @return the index
+	 */
+	private static int getPlacementIndex(int id, int position, int bonus) {
+		return (id * 9 + position) * ELEMENT_STATES + ((bonus > 0) ? 1 : (bonus < 0) ? 2 : 0);
+	}
+
+	/**
+	 * Returns the active rules affecting the statistics.
+	 * @return the rule bitmask
+	 */
+	private static int getRuleMask() {
+		int mask = 0;
+		for (int i = 0; i < RULES.length; i++) {
+			if (RULES[i].isActive())
+				mask |= 1 << i;
+		}
+		return mask;
+	}
+
+	/**
+	 * Reads the statistics file, if it exists.
+	 */
+	public static void load() {
+		if (!STATS_FILE.isFile())
+			return;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(STATS_FILE)))) {
+			if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+				Log.warn(String.format("Ignoring file '%s' (unknown format).", STATS_FILE.getAbsolutePath()));
+				return;
+			}
+			int count = in.readShort();
+			int rules = in.readInt();
+			in.readLong();  // games
+			if (rules != getRuleMask())
+				Log.warn("Card statistics were built for different rules.");
+
+			short[] cards = readShorts(in, count);
+			short[] placements = readShorts(in, count * 9 * ELEMENT_STATES);
+			short[] pairs = readShorts(in, count * count);
+			cardValues = cards;
+			placementValues = placements;
+			pairValues = pairs;
+			cardCount = count;
+		} catch (IOException e) {
+			Log.error(String.format("Failed to read file '%s'.", STATS_FILE.getAbsolutePath()), e);
+		}
+	}
+
+	/**
+	 * Reads an array of shorts.
+	 * @param in the input stream
+	 * @param length the array length
+	 * @return the array
+	 * @throws IOException failure to read
+	 */
+	private static short[] readShorts(DataInputStream in, int length) throws IOException {
+		short[] a = new short[length];
+		for (int i = 0; i < length; i++)
+			a[i] = in.readShort();
+		return a;
+	}
+
+	/** Sums of final score differences, and sample counts. */
+	private static class Totals {
+		/** Value sums (same indexing as the stored tables). */
+		final long[] cardSums, placementSums, pairSums;
+
+		/** Sample counts. */
+		final int[] cardCounts, placementCounts, pairCounts;
+
+		/**
+		 * Constructor.
+		 * @param count the number of card IDs
+		 */
+		Totals(int count) {
+			cardSums = new long[count];
+			cardCounts = new int[count];
+			placementSums = new long[count * 9 * ELEMENT_STATES];
+			placementCounts = new int[count * 9 * ELEMENT_STATES];
+			pairSums = new long[count * count];
+			pairCounts = new int[count * count];
+		}
+
+		/**
+		 * Adds a hand's result.
+		 * @param hand the hand
+		 * @param positions the board positions of all cards (-1 if not placed)
+		 * @param offset the index of the hand's first card in the positions
+		 * @param elements the element board (or null)
+		 * @param diff the final score difference for the hand's side
+		 */
+		void add(Card[] hand, int[] positions, int offset, Element[] elements, int diff) {
+			int count = cardSums.length;
+			for (int i = 0; i < hand.length; i++) {
+				Card c = hand[i];
+				int id = c.getID();
+				cardSums[id] += diff;
+				cardCounts[id]++;
+
+				int position = positions[offset + i];
+				if (position != -1) {
+					int bonus = 0;
+					if (elements != null && elements[position] != Element.NEUTRAL)
+						bonus = (c.getElement() == elements[position]) ? 1 : -1;
+					int index = getPlacementIndex(id, position, bonus);
+					placementSums[index] += diff;
+					placementCounts[index]++;
+				}
+
+				for (int j = 0; j < hand.length; j++) {
+					if (i != j) {
+						int index = id * count + hand[j].getID();
+						pairSums[index] += diff;
+						pairCounts[index]++;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Adds other totals to these.
+		 * @param t the totals
+		 */
+		void add(Totals t) {
+			for (int i = 0; i < cardSums.length; i++) {
+				cardSums[i] += t.cardSums[i];
+				cardCounts[i] += t.cardCounts[i];
+			}
+			for (int i = 0; i < placementSums.length; i++) {
+				placementSums[i] += t.placementSums[i];
+				placementCounts[i] += t.placementCounts[i];
+			}
+			for (int i = 0; i < pairSums.length; i++) {
+				pairSums[i] += t.pairSums[i];
+				pairCounts[i] += t.pairCounts[i];
+			}
+		}
+	}
+
+	/**
+	 * Builds the statistics file by simulating games (with the rules in the
+	 * configuration file).
+	 * <p>
+	 * Usage: {@code CardStats [games]}
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		long games = (args.length > 0) ? Long.parseLong(args[0]) : 1000000;
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		final List<Card> deck = new Deck().getCards();
+		int maxID = -1;
+		for (Card c : deck)
+			maxID = Math.max(maxID, c.getID());
+		final int count = maxID + 1;
+
+		// simulate games in parallel
+		final SelfPlay.AIFactory factory = new SelfPlay.AIFactory() {
+			@Override
+			public AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+				return new BalancedAI(hand, board, elements);
+			}
+		};
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Totals>> tasks = new ArrayList<Future<Totals>>(threads);
+		long seed = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			final long taskGames = games / threads + ((t < games % threads) ? 1 : 0);
+			final long taskSeed = seed + t;
+			tasks.add(pool.submit(new Callable<Totals>() {
+				@Override
+				public Totals call() {
+					Random random = new Random(taskSeed);
+					Totals totals = new Totals(count);
+					int[] positions = new int[10];
+					for (long i = 0; i < taskGames; i++) {
+						Card[][] hands = SelfPlay.deal(deck, random);
+						Element[] elements = SelfPlay.getElements(random);
+						int score = SelfPlay.play(hands[0], hands[1], elements, random.nextBoolean(),
+								factory, factory, positions);
+						int diff = score - (10 - score);
+						totals.add(hands[0], positions, 0, elements, diff);
+						totals.add(hands[1], positions, hands[0].length, elements, -diff);
+					}
+					return totals;
+				}
+			}));
+		}
+		Totals totals = new Totals(count);
+		try {
+			for (Future<Totals> task : tasks)
+				totals.add(task.get());
+		} finally {
+			pool.shutdown();
+		}
+
+		// write the table
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(STATS_FILE)))) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeShort(count);
+			out.writeInt(getRuleMask());
+			out.writeLong(games);
+			writeMeans(out, totals.cardSums, totals.cardCounts);
+			writeMeans(out, totals.placementSums, totals.placementCounts);
+			writeMeans(out, totals.pairSums, totals.pairCounts);
+		} catch (IOException e) {
+			Log.error(String.format("Failed to write to file '%s'.", STATS_FILE.getAbsolutePath()), e);
+			return;
+		}
+		System.out.printf("Wrote statistics for %d cards (%d games) to '%s'.%n",
+				deck.size(), games, STATS_FILE.getAbsolutePath());
+	}
+
+	/**
+	 * Writes fixed-point means.
+	 * @param out the output stream
+	 * @param sums the value sums
+	 * @param counts the sample counts
+	 * @throws IOException failure to write
+	 */
+	private static void writeMeans(DataOutputStream out, long[] sums, int[] counts) throws IOException {
+		for (int i = 0; i < sums.length; i++) {
+			if (counts[i] < MIN_SAMPLES)
+				out.writeShort(NO_DATA);
+			else
+				out.writeShort(Math.round(sums[i] * SCALE / counts[i]));
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Deck;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.Options;
+import itdelatrisu.tripletriad.Rule;
+import itdelatrisu.tripletriad.TripleTriad;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Text protocol for external engines, and an engine running a built-in AI.
+ * <p>
+ * The protocol is line-based, over the engine's standard input and output.
+ * Commands sent to the engine:<ul>
+ * <li>{@code ttp}: the engine replies {@code id name <name>}, then {@code ttpok}.
+ * <li>{@code isready}: the engine replies {@code readyok}.
+ * <li>{@code newgame}: a new game starts (no reply).
+ * <li>{@code position rules <mask> elements <elements> board <cells> hand <ids>
+ *     opponent <ids> score <own> <opposing>}: sets the position, with the
+ *     side to move owning {@code hand}:<ul>
+ *     <li>{@code mask}: the active rules (bit {@code 1 << ordinal} of each {@link Rule})
+ *     <li>{@code elements}: 9 comma-separated {@link Element} names, or {@code none}
+ *     <li>{@code cells}: 9 comma-separated card IDs ({@code 0} if empty,
+ *         negative if owned by the opposing side)
+ *     <li>{@code ids}: comma-separated card IDs, or {@code none} (the opposing
+ *         hand is only sent if known)
+ *     <li>{@code own}, {@code opposing}: the current scores</ul>
+ * <li>{@code go movetime <ms>}: the engine replies {@code bestmove <index> <position>}
+ *     (the hand index and board position of the card to play) within the time.
+ * <li>{@code quit}: the engine exits.</ul>
+ * The engine may send {@code info <text>} lines at any time; they are ignored.
+ * <p>
+ * Usage: {@code Engine [AI type]} (any type in the {@link AIRegistry} except
+ * {@code EXTERNAL}, run from the game directory).  Each move is limited to
+ * the {@code go} move time.
+ */
+public class Engine {
+	/** Protocol version (sent in reply to {@code ttp}). */
+	public static final String PROTOCOL = "ttp";
+
+	/** The deck. */
+	private final Deck deck;
+
+	/** The AI type name. */
+	private final String type;
+
+	/** Current position. */
+	private Card[] board = new Card[9];
+	private Element[] elements;
+	private ArrayList<Card> hand = new ArrayList<Card>();
+	private ArrayList<Card> opposingHand;
+	private int ownScore, opposingScore;
+
+	/**
+	 * Constructor.
+	 * @param deck the deck
+	 * @param type the AI type name
+	 */
+	public Engine(Deck deck, String type) {
+		this.deck = deck;
+		this.type = type;
+	}
+
+	/**
+	 * Returns the rule bitmask of the active rules.
+	 * @return the bitmask
+	 */
+	public static int getRuleMask() {
+		int mask = 0;
+		for (Rule rule : Rule.values()) {
+			if (rule.isActive())
+				mask |= 1 << rule.ordinal();
+		}
+		return mask;
+	}
+
+	/**
+	 * Returns a {@code position} command.
+	 * @param hand the hand of the side to move
+	 * @param opponentHand the opposing hand (or null if unknown)
+	 * @param board the board
+	 * @param elements the element board (or null)
+	 * @param ownScore the score of the side to move
+	 * @param opposingScore the opposing score
+	 * @return the command
+	 */
+	public static String getPositionCommand(ArrayList<Card> hand, ArrayList<Card> opponentHand,
+			Card[] board, Element[] elements, int ownScore, int opposingScore) {
+		boolean owner = hand.get(0).getOwner();
+		StringBuilder sb = new StringBuilder("position rules ");
+		sb.append(getRuleMask());
+		sb.append(" elements ");
+		if (elements == null)
+			sb.append("none");
+		else {
+			for (int i = 0; i < elements.length; i++)
+				sb.append((i > 0) ? "," : "").append(elements[i].toString());
+		}
+		sb.append(" board ");
+		for (int i = 0; i < board.length; i++) {
+			Card c = board[i];
+			sb.append((i > 0) ? "," : "").append((c == null) ? 0 : (c.getOwner() == owner) ? c.getID() : -c.getID());
+		}
+		sb.append(" hand ").append(getIDs(hand));
+		sb.append(" opponent ").append((opponentHand == null) ? "none" : getIDs(opponentHand));
+		sb.append(" score ").append(ownScore).append(' ').append(opposingScore);
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the comma-separated IDs of a list of cards.
+	 * @param cards the cards
+	 * @return the IDs, or "none" if empty
+	 */
+	private static String getIDs(ArrayList<Card> cards) {
+		if (cards.isEmpty())
+			return "none";
+		StringBuilder sb = new StringBuilder();
+		for (Card c : cards)
+			sb.append((sb.length() > 0) ? "," : "").append(c.getID());
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a new card instance by ID.
+	 * @param id the card ID
+	 * @param owner the card owner
+	 * @return the card
+	 * @throws IllegalArgumentException if no card has the ID
+	 */
+	private Card newCard(int id, boolean owner) {
+		Card c = deck.getCard(id);
+		if (c == null)
+			throw new IllegalArgumentException(String.format("Unknown card ID %d.", id));
+		Card card = new Card(c, false);
+		card.setOwner(owner);
+		return card;
+	}
+
+	/**
+	 * Sets the position from a {@code position} command.
+	 * The side to move owns the OPPONENT cards.
+	 * @param tokens the command tokens
+	 * @throws IllegalArgumentException if the command is invalid
+	 */
+	private void setPosition(String[] tokens) {
+		Card[] newBoard = new Card[9];
+		Element[] newElements = null;
+		ArrayList<Card> newHand = new ArrayList<Card>(5);
+		ArrayList<Card> newOpposingHand = null;
+		int newOwnScore = ownScore, newOpposingScore = opposingScore;
+		for (int i = 1; i < tokens.length; i++) {
+			switch (tokens[i]) {
+			case "rules":
+				int mask = Integer.parseInt(tokens[++i]);
+				for (Rule rule : Rule.values())
+					rule.setState((mask & (1 << rule.ordinal())) != 0);
+				break;
+			case "elements":
+				String value = tokens[++i];
+				if (!value.equals("none")) {
+					String[] names = value.split(",");
+					if (names.length != 9)
+						throw new IllegalArgumentException("Expected 9 elements.");
+					newElements = new Element[9];
+					for (int j = 0; j < 9; j++)
+						newElements[j] = Element.valueOf(names[j]);
+				}
+				break;
+			case "board":
+				String[] cells = tokens[++i].split(",");
+				if (cells.length != 9)
+					throw new IllegalArgumentException("Expected 9 board cells.");
+				for (int j = 0; j < 9; j++) {
+					int id = Integer.parseInt(cells[j]);
+					if (id != 0) {
+						newBoard[j] = newCard(Math.abs(id), (id > 0) ? TripleTriad.OPPONENT : TripleTriad.PLAYER);
+						newBoard[j].setPosition(j);
+					}
+				}
+				break;
+			case "hand":
+				for (String id : tokens[++i].split(",")) {
+					if (!id.equals("none"))
+						newHand.add(newCard(Integer.parseInt(id), TripleTriad.OPPONENT));
+				}
+				break;
+			case "opponent":
+				for (String id : tokens[++i].split(",")) {
+					if (id.equals("none"))
+						continue;
+					if (newOpposingHand == null)
+						newOpposingHand = new ArrayList<Card>(5);
+					newOpposingHand.add(newCard(Integer.parseInt(id), TripleTriad.PLAYER));
+				}
+				break;
+			case "score":
+				newOwnScore = Integer.parseInt(tokens[++i]);
+				newOpposingScore = Integer.parseInt(tokens[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unknown field '%s'.", tokens[i]));
+			}
+		}
+		this.board = newBoard;
+		this.elements = newElements;
+		this.hand = newHand;
+		this.opposingHand = newOpposingHand;
+		this.ownScore = newOwnScore;
+		this.opposingScore = newOpposingScore;
+	}
+
+	/**
+	 * Reads and answers commands until {@code quit} or the end of input.
+	 * @param in the input
+	 * @param out the output
+	 * @throws IOException if reading fails
+	 */
+	public void run(BufferedReader in, PrintStream out) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			String[] tokens = line.trim().split("\\s+");
+			try {
+				switch (tokens[0]) {
+				case PROTOCOL:
+					out.printf("id name %s %s%n", "triple-triad", type.toLowerCase());
+					out.println("ttpok");
+					break;
+				case "isready":
+					out.println("readyok");
+					break;
+				case "newgame":
+				case "":
+					break;
+				case "position":
+					setPosition(tokens);
+					break;
+				case "go":
+					if (hand.isEmpty())
+						throw new IllegalArgumentException("No cards in hand.");
+					int moveTime = (tokens.length > 2 && tokens[1].equals("movetime")) ?
+						Integer.parseInt(tokens[2]) : Options.getAITime();
+					AI ai = AIRegistry.create(type, hand, board, elements, Math.max(moveTime, 1));
+					ai.setOpposingHand(opposingHand);
+					ai.update(ownScore, opposingScore);
+					out.printf("bestmove %d %d%n", ai.nextIndex(), ai.nextPosition());
+					break;
+				case "quit":
+					return;
+				default:
+					out.printf("info string unknown command '%s'%n", tokens[0]);
+					break;
+				}
+			} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+				out.printf("info string error: %s%n", e.getMessage());
+			}
+			out.flush();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		String type = (args.length > 0) ? args[0] : Options.AIType.BALANCED.toString();
+		if (type.equals(Options.AIType.EXTERNAL.toString()))
+			throw new IllegalArgumentException("The engine cannot use an external AI.");
+		if (AIRegistry.getProvider(type) == null)
+			throw new IllegalArgumentException(String.format("Unknown AI type '%s'.", type));
+
+		// keep standard output for the protocol
+		PrintStream out = System.out;
+		System.setOut(System.err);
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		Engine engine = new Engine(new Deck(), type);
+		engine.run(new BufferedReader(new InputStreamReader(System.in, "utf-8")), out);
+	}
+}
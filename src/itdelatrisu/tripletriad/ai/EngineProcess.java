@@ -0,0 +1,209 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * An external engine running in a child process (see {@link Engine} for
+ * the protocol).
+ * <p>
+ * Commands are written to the engine's standard input and flushed at
+ * once, and replies are read from its standard output; the engine's
+ * standard error is inherited.  An engine that does not reply in time is
+ * killed.  The time taken by each move is recorded.
+ * <p>
+ * The engine is given the whole position with each move, so one process
+ * can be shared by several games (one move at a time).
+ */
+public class EngineProcess implements Closeable {
+	/** Time allowed for starting and answering non-move commands, in ms. */
+	private static final int STARTUP_TIME = 10000;
+
+	/** Extra time allowed for a move over the move time, in ms. */
+	private static final int MOVE_GRACE_TIME = 1000;
+
+	/** Watchdog for engines exceeding their time. */
+	private static final Timer watchdog = new Timer("EngineProcess", true);
+
+	/** The process. */
+	private final Process process;
+
+	/** Engine input and output. */
+	private final BufferedWriter out;
+	private final BufferedReader in;
+
+	/** Engine name. */
+	private String name = "unknown";
+
+	/** Move count, and total and maximum move times (in ns). */
+	private long moveCount = 0, totalTime = 0, maxTime = 0;
+
+	/**
+	 * Starts an engine and waits until it is ready.
+	 * @param command the command line
+	 * @throws IOException if the engine fails to start or to reply
+	 */
+	public EngineProcess(List<String> command) throws IOException {
+		this.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		this.out = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), "utf-8"));
+		this.in = new BufferedReader(new InputStreamReader(process.getInputStream(), "utf-8"));
+		try {
+			send(Engine.PROTOCOL);
+			String line;
+			while (!(line = receive(STARTUP_TIME)).equals("ttpok")) {
+				if (line.startsWith("id name "))
+					name = line.substring(8);
+			}
+			send("isready");
+			while (!receive(STARTUP_TIME).equals("readyok"))
+				;
+		} catch (IOException e) {
+			process.destroy();
+			throw e;
+		}
+	}
+
+	/**
+	 * Starts an engine.
+	 * @param command the command line, split on spaces
+	 * @throws IOException if the engine fails to start or to reply
+	 * @see #EngineProcess(List)
+	 */
+	public EngineProcess(String command) throws IOException {
+		this(Arrays.asList(command.trim().split("\\s+")));
+	}
+
+	/**
+	 * Sends a command.
+	 * @param command the command
+	 * @throws IOException if writing fails
+	 */
+	private void send(String command) throws IOException {
+		out.write(command);
+		out.newLine();
+		out.flush();
+	}
+
+	/**
+	 * Reads the next reply, skipping {@code info} lines.
+	 * The engine is killed if it does not reply within the time.
+	 * @param time the time allowed, in ms
+	 * @return the reply
+	 * @throws IOException if reading fails or the engine exits
+	 */
+	private String receive(int time) throws IOException {
+		TimerTask kill = new TimerTask() {
+			@Override
+			public void run() { process.destroy(); }
+		};
+		watchdog.schedule(kill, time);
+		try {
+			String line;
+			do {
+				line = in.readLine();
+				if (line == null)
+					throw new IOException(String.format("Engine '%s' exited or timed out.", name));
+				line = line.trim();
+			} while (line.isEmpty() || line.startsWith("info"));
+			return line;
+		} finally {
+			kill.cancel();
+		}
+	}
+
+	/**
+	 * Signals the start of a new game.
+	 * @throws IOException if writing fails
+	 */
+	public synchronized void newGame() throws IOException { send("newgame"); }
+
+	/**
+	 * Asks the engine for a move.
+	 * @param position the {@code position} command
+	 * @param moveTime the move time, in ms
+	 * @return the hand index and board position
+	 * @throws IOException if the engine fails or replies with an invalid command
+	 */
+	public synchronized int[] go(String position, int moveTime) throws IOException {
+		long time = System.nanoTime();
+		send(position);
+		send(String.format("go movetime %d", moveTime));
+		String line = receive(moveTime + MOVE_GRACE_TIME);
+		time = System.nanoTime() - time;
+		moveCount++;
+		totalTime += time;
+		maxTime = Math.max(maxTime, time);
+
+		String[] tokens = line.split("\\s+");
+		if (tokens.length != 3 || !tokens[0].equals("bestmove"))
+			throw new IOException(String.format("Engine '%s' sent '%s' instead of a move.", name, line));
+		try {
+			return new int[] { Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]) };
+		} catch (NumberFormatException e) {
+			throw new IOException(String.format("Engine '%s' sent an invalid move '%s'.", name, line), e);
+		}
+	}
+
+	/**
+	 * Returns the engine name.
+	 * @return the name
+	 */
+	public String getName() { return name; }
+
+	/**
+	 * Returns the number of moves requested.
+	 * @return the move count
+	 */
+	public synchronized long getMoveCount() { return moveCount; }
+
+	/**
+	 * Returns the mean time per move.
+	 * @return the time, in ms
+	 */
+	public synchronized double getMeanTime() { return (moveCount == 0) ? 0 : totalTime / 1e6 / moveCount; }
+
+	/**
+	 * Returns the maximum time of a move.
+	 * @return the time, in ms
+	 */
+	public synchronized double getMaxTime() { return maxTime / 1e6; }
+
+	/**
+	 * Stops the engine.
+	 */
+	@Override
+	public synchronized void close() {
+		try {
+			send("quit");
+		} catch (IOException e) {
+			// already stopped
+		}
+		process.destroy();
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Deck;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.Options;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.Log;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * AI played by an external engine (see {@link Engine}).
+ * If the engine fails or plays an illegal move, the card and position
+ * creating the lowest "rank difference" are used instead.
+ * <p>
+ * The {@code EXTERNAL} AI type ({@link Provider}) shares one engine, set in
+ * the configuration file, among all games.
+ * <p>
+ * Usage (match against the balanced AI):
+ * {@code ExternalAI <games> <engine command...>}
+ * (rules are read from the configuration file).
+ */
+public class ExternalAI extends AI {
+	/**
+	 * Provider of the {@code EXTERNAL} AI type.
+	 * The engine is started on first use (and retried on each use if it fails
+	 * to start, with the balanced AI used meanwhile).  An engine that fails
+	 * during a game is stopped, and a new one is started for the next game.
+	 */
+	public static class Provider implements AIProvider, Closeable {
+		/** The engine command line (null for the configured engine). */
+		private final List<String> command;
+
+		/** The engine (null if not started). */
+		private EngineProcess engine;
+
+		/**
+		 * Constructor (for the engine set in the configuration file).
+		 */
+		public Provider() { this(null); }
+
+		/**
+		 * Constructor.
+		 * @param command the engine command line
+		 */
+		public Provider(List<String> command) { this.command = command; }
+
+		@Override
+		public String getName() { return Options.AIType.EXTERNAL.toString(); }
+
+		@Override
+		public synchronized AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+			try {
+				if (engine == null)
+					engine = (command == null) ? new EngineProcess(Options.getEngine()) : new EngineProcess(command);
+				engine.newGame();
+			} catch (IOException e) {
+				Log.error(String.format("Failed to start engine '%s'.",
+						(command == null) ? Options.getEngine() : command), e);
+				if (engine != null) {
+					engine.close();
+					engine = null;
+				}
+				return new BalancedAI(hand, board, elements);
+			}
+			return new ExternalAI(hand, board, elements, engine, Options.getEngineTime(), this);
+		}
+
+		/**
+		 * Returns the current engine.
+		 * @return the engine, or null if not started
+		 */
+		public synchronized EngineProcess getEngine() { return engine; }
+
+		/**
+		 * Stops an engine that failed, if it is still the current engine.
+		 * @param failed the engine
+		 */
+		private synchronized void drop(EngineProcess failed) {
+			if (engine == failed) {
+				engine.close();
+				engine = null;
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			if (engine != null) {
+				engine.close();
+				engine = null;
+			}
+		}
+	}
+
+	/** The engine (null after it failed). */
+	private EngineProcess engine;
+
+	/** Time per move, in ms. */
+	private final int moveTime;
+
+	/** The provider of the engine (or null). */
+	private final Provider provider;
+
+	/**
+	 * External AI constructor.
+	 * @param hand the hand of cards
+	 * @param board the board
+	 * @param elements the element board
+	 * @param engine the engine
+	 * @param moveTime the time per move, in ms
+	 * @see itdelatrisu.tripletriad.ai.AI#AI(ArrayList, Card[], Element[])
+	 */
+	public ExternalAI(ArrayList<Card> hand, Card[] board, Element[] elements, EngineProcess engine, int moveTime) {
+		this(hand, board, elements, engine, moveTime, null);
+	}
+
+	/**
+	 * External AI constructor, for an engine owned by a provider.
+	 * @param hand the hand of cards
+	 * @param board the board
+	 * @param elements the element board
+	 * @param engine the engine
+	 * @param moveTime the time per move, in ms
+	 * @param provider the provider to notify if the engine fails (or null)
+	 */
+	private ExternalAI(ArrayList<Card> hand, Card[] board, Element[] elements,
+			EngineProcess engine, int moveTime, Provider provider) {
+		super(hand, board, elements);
+		this.engine = engine;
+		this.moveTime = moveTime;
+		this.provider = provider;
+	}
+
+	@Override
+	public void update(int thisScore, int thatScore) {
+		if (engine == null) {
+			useMinRankDiff(emptySpaces());
+			return;
+		}
+		try {
+			int[] move = engine.go(Engine.getPositionCommand(hand, opposingHand, board, elements, thisScore, thatScore), moveTime);
+			if (move[0] >= 0 && move[0] < hand.size() && move[1] >= 0 && move[1] < 9 && board[move[1]] == null) {
+				nextIndex = move[0];
+				nextPosition = move[1];
+				return;
+			}
+			Log.warn(String.format("Engine '%s' played an illegal move (%d, %d).",
+					engine.getName(), move[0], move[1]));
+		} catch (IOException e) {
+			Log.warn(String.format("Engine '%s' failed to move.", engine.getName()), e);
+
+			// the engine was killed or is out of sync: stop using it
+			if (provider != null)
+				provider.drop(engine);
+			else
+				engine.close();
+			engine = null;
+		}
+		useMinRankDiff(emptySpaces());
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		if (args.length < 2) {
+			System.err.println("Usage: ExternalAI <games> <engine command...>");
+			return;
+		}
+		int games = Integer.parseInt(args[0]);
+		final List<String> command = Arrays.asList(Arrays.copyOfRange(args, 1, args.length));
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		List<Card> deck = new Deck().getCards();
+
+		// one engine per thread
+		final List<Provider> providers = Collections.synchronizedList(new ArrayList<Provider>());
+		final ThreadLocal<Provider> provider = new ThreadLocal<Provider>() {
+			@Override
+			protected Provider initialValue() {
+				Provider p = new Provider(command);
+				providers.add(p);
+				return p;
+			}
+		};
+		SelfPlay.AIFactory external = new SelfPlay.AIFactory() {
+			@Override
+			public AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+				return provider.get().create(hand, board, elements);
+			}
+		};
+		SelfPlay.AIFactory balanced = new SelfPlay.AIFactory() {
+			@Override
+			public AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+				return new BalancedAI(hand, board, elements);
+			}
+		};
+
+		int tasks = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(tasks);
+		SelfPlay.MatchResult result;
+		long moves = 0;
+		double totalTime = 0, maxTime = 0;
+		try {
+			result = SelfPlay.match(pool, tasks, deck, external, balanced, games, new Random().nextLong());
+			for (Provider p : providers) {
+				EngineProcess engine = p.getEngine();
+				if (engine != null) {
+					moves += engine.getMoveCount();
+					totalTime += engine.getMeanTime() * engine.getMoveCount();
+					maxTime = Math.max(maxTime, engine.getMaxTime());
+				}
+			}
+		} finally {
+			pool.shutdown();
+			for (Provider p : providers)
+				p.close();
+		}
+		System.out.printf("engine vs balanced: %d wins, %d draws, %d losses%n",
+				result.wins, result.draws, result.losses);
+		System.out.printf("%d moves: %.3f ms mean, %.3f ms max%n",
+				moves, (moves == 0) ? 0 : totalTime / moves, maxTime);
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.GameState;
+import itdelatrisu.tripletriad.Options;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.newdawn.slick.util.Log;
+
+/**
+ * Background move analysis (hint mode).
+ * <p>
+ * While it is the player's turn, all legal moves are evaluated on a
+ * background thread by searching one move deeper at a time, until the
+ * values are exact.  The latest ranking is published after each depth,
+ * and the search is cancelled as soon as the player acts.
+ * <p>
+ * The search sees both hands, so it is only used under {@link
+ * itdelatrisu.tripletriad.Rule#OPEN}.
+ */
+public class HintSearch {
+	/** Ranked moves. */
+	public static class Analysis {
+		/** Moves, best first. */
+		private final int[] moves;
+
+		/** Expected final score of each move. */
+		private final int[] scores;
+
+		/** Search depth. */
+		private final int depth;
+
+		/** Whether the scores are exact. */
+		private final boolean exact;
+
+		/**
+		 * Constructor.
+		 * @param result the search result
+		 * @param depth the search depth
+		 * @param exact whether the result is exact
+		 */
+		private Analysis(Solver.Result result, int depth, boolean exact) {
+			this.moves = result.getMoves();
+			this.scores = new int[moves.length];
+			this.depth = depth;
+			this.exact = exact;
+
+			// final score = (total cards + score difference) / 2, sorted (descending)
+			for (int i = 0; i < moves.length; i++) {
+				int move = moves[i];
+				int score = (GameState.MAX_CARDS + result.getMoveValue(move)) / 2;
+				int j = i;
+				for (; j > 0 && scores[j - 1] < score; j--) {
+					moves[j] = moves[j - 1];
+					scores[j] = scores[j - 1];
+				}
+				moves[j] = move;
+				scores[j] = score;
+			}
+		}
+
+		/**
+		 * Returns the number of moves.
+		 * @return the move count
+		 */
+		public int size() { return moves.length; }
+
+		/**
+		 * Returns a move, by rank.
+		 * @param rank the rank (0 is best)
+		 * @return the move (see {@link GameState})
+		 */
+		public int getMove(int rank) { return moves[rank]; }
+
+		/**
+		 * Returns the expected final score of a move, by rank.
+		 * @param rank the rank (0 is best)
+		 * @return the expected final score [0, 10]
+		 */
+		public int getScore(int rank) { return scores[rank]; }
+
+		/**
+		 * Returns the number of moves searched ahead.
+		 * @return the depth
+		 */
+		public int getDepth() { return depth; }
+
+		/**
+		 * Returns whether or not the scores are exact (i.e. assume perfect play).
+		 * @return true if exact
+		 */
+		public boolean isExact() { return exact; }
+	}
+
+	/** Solver. */
+	private final Solver solver;
+
+	/** Analysis thread. */
+	private final ExecutorService executor;
+
+	/** Current analysis task (null if inactive). */
+	private Future<?> task;
+
+	/** State being analyzed. */
+	private GameState state;
+
+	/** Latest analysis (null if none yet). */
+	private volatile Analysis analysis;
+
+	/**
+	 * Constructor.
+	 */
+	public HintSearch() {
+		// leave a processor for the game loop
+		this.solver = new Solver(Options.getCacheSize(), Math.max(Runtime.getRuntime().availableProcessors() - 1, 1));
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "HintSearch");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts analyzing a position, cancelling any previous analysis.
+	 * @param state the position (with the player to move)
+	 */
+	public synchronized void start(final GameState state) {
+		cancel();
+		this.state = state;
+		task = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				int empty = state.getEmptyCount();
+				try {
+					for (int depth = 1; depth <= empty; depth++) {
+						if (depth == empty - 1 && depth > 1)
+							continue;  // almost as slow as an exact search
+						Solver.Result result = solver.solve(state, depth);
+						if (result == null || Thread.currentThread().isInterrupted())
+							return;
+						publish(state, new Analysis(result, depth, depth == empty));
+					}
+				} catch (InterruptedException e) {
+					// cancelled
+				} catch (RuntimeException e) {
+					if (!Thread.currentThread().isInterrupted())
+						Log.warn("Hint search failed.", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Publishes an analysis, unless the position has changed.
+	 * @param state the analyzed position
+	 * @param analysis the analysis
+	 */
+	private synchronized void publish(GameState state, Analysis analysis) {
+		if (this.state == state)
+			this.analysis = analysis;
+	}
+
+	/**
+	 * Cancels the current analysis and clears the results.
+	 */
+	public synchronized void cancel() {
+		if (task != null) {
+			task.cancel(true);
+			task = null;
+		}
+		state = null;
+		analysis = null;
+	}
+
+	/**
+	 * Returns whether or not a position is being (or has been) analyzed.
+	 * @return true if started and not cancelled
+	 */
+	public synchronized boolean isActive() { return (task != null); }
+
+	/**
+	 * Returns the state being analyzed.
+	 * @return the state, or null if inactive
+	 */
+	public synchronized GameState getState() { return state; }
+
+	/**
+	 * Returns the latest analysis.
+	 * @return the analysis, or null if none yet
+	 */
+	public Analysis getAnalysis() { return analysis; }
+
+	/**
+	 * Stops the analysis threads.
+	 */
+	public void shutdown() {
+		cancel();
+		executor.shutdownNow();
+		solver.shutdown();
+	}
+}
@@ -0,0 +1,464 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.CardResult;
+import itdelatrisu.tripletriad.Deck;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.GameState;
+import itdelatrisu.tripletriad.Options;
+import itdelatrisu.tripletriad.Rule;
+import itdelatrisu.tripletriad.TripleTriad;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Evaluates all candidate moves of a hand (every card at every empty
+ * position) in one pass.
+ * <p>
+ * The four ranks of a card are packed into the bytes of an int, one lane
+ * per {@link Card.Rank} (TOP in the lowest byte), and each position is
+ * described by lane masks of its open, occupied and opposing sides and the
+ * packed facing ranks of its neighbors.  The rank difference and the
+ * normal captures of a card at a position are then computed on all four
+ * lanes at once with a few integer operations.
+ * <p>
+ * Candidates that could trigger the "Same" or "Plus" rule (an equal rank
+ * or two equal sums next to an opposing card) are rare, and are resolved
+ * with a {@link CardResult} instead, so all values are identical to
+ * {@link CardResult#getCapturedCount()} and
+ * {@link AI#getRankDiff(Card, int, float)}.
+ * <p>
+ * Usage (benchmark): {@code MoveEvaluator [positions]}
+ * (rules are read from the configuration file).
+ */
+public class MoveEvaluator {
+	/** Lane constants. */
+	private static final int LANES_ONE = 0x01010101, LANES_HIGH = 0x80808080;
+
+	/** Distinct values for empty lanes in "Plus" sums (greater than any sum). */
+	private static final int SUM_SENTINELS = 0x43424140;
+
+	/** Neighbor positions of each position, by lane (-1 if wall). */
+	private static final int[] NEIGHBORS = new int[9 * 4];
+
+	/** Facing rank location of the neighbor in each lane. */
+	private static final Card.Rank[] FACING = {
+		Card.Rank.BOTTOM, Card.Rank.RIGHT, Card.Rank.LEFT, Card.Rank.TOP
+	};
+
+	static {
+		for (int pos = 0; pos < 9; pos++) {
+			NEIGHBORS[pos * 4]     = (pos > 2) ? pos - 3 : -1;
+			NEIGHBORS[pos * 4 + 1] = (pos % 3 != 0) ? pos - 1 : -1;
+			NEIGHBORS[pos * 4 + 2] = (pos % 3 != 2) ? pos + 1 : -1;
+			NEIGHBORS[pos * 4 + 3] = (pos < 6) ? pos + 3 : -1;
+		}
+	}
+
+	/** Packed ranks of each hand card. */
+	private final int[] packed = new int[5];
+
+	/** Captured counts (by hand index * 9 + position). */
+	private final int[] capturedCounts = new int[GameState.MAX_MOVES];
+
+	/** Rank differences (by hand index * 9 + position). */
+	private final float[] rankDiffs = new float[GameState.MAX_MOVES];
+
+	/** Inputs of the last evaluation (reused until the board or hand changes). */
+	private final Card[] lastHand = new Card[5];
+	private int lastHandSize = -1, lastOccupied, lastOwned;
+	private Element[] lastElements;
+	private float lastElementWeight;
+	private boolean lastCaptures;
+
+	/** Board cards and owners of the last board rank difference. */
+	private final Card[] boardCards = new Card[9];
+	private final boolean[] boardOwners = new boolean[9];
+
+	/** Rank difference of each owned board card (0 if not owned). */
+	private final float[] boardRankDiffs = new float[9];
+
+	/** Inputs of the last board rank difference (all positions are dirty if changed). */
+	private Element[] boardElements;
+	private float boardElementWeight;
+	private boolean boardOwner, boardValid = false;
+
+	/**
+	 * Returns the packed ranks of a card (one byte per rank location).
+	 * @param c the card
+	 * @return the packed ranks
+	 */
+	private static int pack(Card c) {
+		return c.getRank(Card.Rank.TOP) |
+		       (c.getRank(Card.Rank.LEFT) << 8) |
+		       (c.getRank(Card.Rank.RIGHT) << 16) |
+		       (c.getRank(Card.Rank.BOTTOM) << 24);
+	}
+
+	/**
+	 * Returns whether or not any lane is zero.
+	 * @param x the packed lanes (each less than 0x80)
+	 * @return true if a lane is zero
+	 */
+	private static boolean hasZeroLane(int x) {
+		return ((x - LANES_ONE) & ~x & LANES_HIGH) != 0;
+	}
+
+	/**
+	 * Returns whether or not any two lanes are equal.
+	 * @param x the packed lanes (each less than 0x80)
+	 * @return true if two lanes are equal
+	 */
+	private static boolean hasPairLane(int x) {
+		return hasZeroLane(x ^ Integer.rotateRight(x, 8)) || hasZeroLane(x ^ Integer.rotateRight(x, 16));
+	}
+
+	/**
+	 * Returns the element rank bonus of a card at a position.
+	 * @param c the card
+	 * @param position the board position
+	 * @param elements the element board (or null)
+	 * @return the bonus [-1, 1]
+	 */
+	private static int getBonus(Card c, int position, Element[] elements) {
+		if (elements == null || elements[position] == Element.NEUTRAL)
+			return 0;
+		return (c.getElement() == elements[position]) ? 1 : -1;
+	}
+
+	public static void main(String[] args) {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		List<Card> deck = new Deck().getCards();
+
+		// random positions: 0-8 cards on the board, 1-5 cards in hand
+		Random random = new Random(0);
+		Card[][] boards = new Card[count][];
+		Element[][] boardElements = new Element[count][];
+		List<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>(count);
+		for (int n = 0; n < count; n++) {
+			Card[][] dealt = SelfPlay.deal(deck, random);
+			Card[] board = new Card[9];
+			int placed = random.nextInt(9);
+			for (int i = 0; i < placed; i++) {
+				int pos;
+				do {
+					pos = random.nextInt(9);
+				} while (board[pos] != null);
+				Card c = new Card(dealt[i / 5][i % 5], false);
+				c.setOwner(random.nextBoolean());
+				c.setPosition(pos);
+				board[pos] = c;
+			}
+			ArrayList<Card> hand = new ArrayList<Card>(5);
+			for (int i = placed; i < 10 && hand.size() < Math.min(5, 9 - placed); i++) {
+				Card c = new Card(dealt[i / 5][i % 5], false);
+				c.setOwner(TripleTriad.OPPONENT);
+				hand.add(c);
+			}
+			boards[n] = board;
+			boardElements[n] = SelfPlay.getElements(random);
+			hands.add(hand);
+		}
+
+		float elementWeight = Weight.getValues()[Weight.ELEMENT_WEIGHT.ordinal()];
+		MoveEvaluator evaluator = new MoveEvaluator();
+		int mismatches = 0;
+		long checksum = 0;
+		for (int round = 0; round < 5; round++) {
+			// scalar: one CardResult and rank difference per candidate
+			long scalarTime = System.nanoTime();
+			for (int n = 0; n < count; n++) {
+				ArrayList<Card> hand = hands.get(n);
+				AI ai = new BalancedAI(hand, boards[n], boardElements[n]);
+				for (int pos = 0; pos < 9; pos++) {
+					if (boards[n][pos] != null)
+						continue;
+					for (int i = 0; i < hand.size(); i++) {
+						Card c = hand.get(i);
+						checksum += new CardResult(c, pos, boards[n], boardElements[n]).getCapturedCount();
+						checksum += (long) ai.getRankDiff(c, pos, elementWeight);
+					}
+				}
+			}
+			scalarTime = System.nanoTime() - scalarTime;
+
+			// packed
+			long packedTime = System.nanoTime();
+			for (int n = 0; n < count; n++) {
+				ArrayList<Card> hand = hands.get(n);
+				evaluator.evaluate(hand, boards[n], boardElements[n], elementWeight, true);
+				for (int pos = 0; pos < 9; pos++) {
+					if (boards[n][pos] != null)
+						continue;
+					for (int i = 0; i < hand.size(); i++) {
+						checksum += evaluator.getCapturedCount(i, pos);
+						checksum += (long) evaluator.getRankDiff(i, pos);
+					}
+				}
+			}
+			packedTime = System.nanoTime() - packedTime;
+
+			System.out.printf("round %d: scalar %.0f ns/position, packed %.0f ns/position (%.1fx)%n",
+					round + 1, (double) scalarTime / count, (double) packedTime / count,
+					(double) scalarTime / packedTime);
+		}
+
+		// compare all values
+		for (int n = 0; n < count; n++) {
+			ArrayList<Card> hand = hands.get(n);
+			AI ai = new BalancedAI(hand, boards[n], boardElements[n]);
+			evaluator.evaluate(hand, boards[n], boardElements[n], elementWeight, true);
+			for (int pos = 0; pos < 9; pos++) {
+				if (boards[n][pos] != null)
+					continue;
+				for (int i = 0; i < hand.size(); i++) {
+					Card c = hand.get(i);
+					if (evaluator.getCapturedCount(i, pos) != new CardResult(c, pos, boards[n], boardElements[n]).getCapturedCount() ||
+						evaluator.getRankDiff(i, pos) != ai.getRankDiff(c, pos, elementWeight))
+						mismatches++;
+				}
+			}
+		}
+		System.out.printf("%d positions, %d mismatches (checksum %d)%n", count, mismatches, checksum);
+	}
+
+	/**
+	 * Evaluates every card of a hand at every empty position.
+	 * <p>
+	 * The values are kept until the board or hand changes, so every pass of
+	 * an AI in the same turn reuses the same evaluation.
+	 * @param hand the hand (1 to 5 cards, all with the same owner)
+	 * @param board the board
+	 * @param elements the element board (or null)
+	 * @param elementWeight the weight of each element bonus in rank differences
+	 * @param captures whether to compute captured counts (otherwise only
+	 *        rank differences are computed)
+	 */
+	public void evaluate(List<Card> hand, Card[] board, Element[] elements,
+			float elementWeight, boolean captures) {
+		int handSize = hand.size();
+		boolean owner = hand.get(0).getOwner();
+		if (isEvaluated(hand, board, elements, elementWeight, captures))
+			return;
+		for (int i = 0; i < handSize; i++)
+			packed[i] = pack(hand.get(i));
+		boolean same = captures && Rule.SAME.isActive();
+		boolean plus = captures && Rule.PLUS.isActive();
+
+		for (int pos = 0; pos < 9; pos++) {
+			if (board[pos] != null)
+				continue;
+
+			// lane masks and facing ranks of the neighbors
+			int open = 0, occupied = 0, opposing = 0, facing = 0, facingBonus = 0;
+			for (int lane = 0; lane < 4; lane++) {
+				int target = NEIGHBORS[pos * 4 + lane];
+				if (target == -1)
+					continue;
+				int shift = lane * 8;
+				Card c = board[target];
+				if (c == null) {
+					open |= 0xFF << shift;
+					continue;
+				}
+				occupied |= 0xFF << shift;
+				if (c.getOwner() != owner)
+					opposing |= 0xFF << shift;
+				int rank = c.getRank(FACING[lane]);
+				facing |= rank << shift;
+				facingBonus |= (rank + getBonus(c, target, elements) + 1) << shift;
+			}
+			int sides = Integer.bitCount(open) >>> 3;
+			Element element = (elements != null) ? elements[pos] : Element.NEUTRAL;
+
+			for (int i = 0; i < handSize; i++) {
+				Card c = hand.get(i);
+				int ranks = packed[i];
+				int index = i * 9 + pos;
+
+				// rank difference: sum the open lanes
+				int totalRank = ((ranks & open) * LANES_ONE) >>> 24;
+				float bonus = 0f;
+				if (element != Element.NEUTRAL)
+					bonus = ((c.getElement() == element) ? elementWeight : -elementWeight) * sides;
+				rankDiffs[index] = Math.max((sides * 10) - totalRank - bonus, 0f);
+
+				if (!captures)
+					continue;
+
+				// "Same" or "Plus" possible: resolve exactly
+				if (opposing != 0 && (
+					(same && hasZeroLane((ranks ^ facing) | (~occupied & LANES_ONE))) ||
+					(plus && hasPairLane((((ranks & occupied) + facing) & occupied) | (SUM_SENTINELS & ~occupied))))) {
+					capturedCounts[index] = new CardResult(c, pos, board, elements).getCapturedCount();
+					continue;
+				}
+
+				// normal captures: source lane > target lane (offset by 1, so that no lane is negative)
+				int source = ranks + (getBonus(c, pos, elements) + 1) * LANES_ONE;
+				int greater = ((source | LANES_HIGH) - facingBonus - LANES_ONE) & opposing & LANES_HIGH;
+				capturedCounts[index] = Integer.bitCount(greater);
+			}
+		}
+
+		// remember the inputs
+		for (int i = 0; i < handSize; i++)
+			lastHand[i] = hand.get(i);
+		lastHandSize = handSize;
+		lastElements = elements;
+		lastElementWeight = elementWeight;
+		lastCaptures = captures;
+	}
+
+	/**
+	 * Returns whether or not the current values were evaluated with the
+	 * same inputs (or with captures, if captures are not needed).
+	 * Records the board occupancy and owners for the next evaluation.
+	 * @param hand the hand
+	 * @param board the board
+	 * @param elements the element board (or null)
+	 * @param elementWeight the weight of each element bonus
+	 * @param captures whether captured counts are needed
+	 * @return true if the values can be reused
+	 */
+	private boolean isEvaluated(List<Card> hand, Card[] board, Element[] elements,
+			float elementWeight, boolean captures) {
+		boolean owner = hand.get(0).getOwner();
+		int occupied = 0, owned = 0;
+		for (int pos = 0; pos < 9; pos++) {
+			if (board[pos] != null) {
+				occupied |= 1 << pos;
+				if (board[pos].getOwner() == owner)
+					owned |= 1 << pos;
+			}
+		}
+		boolean isEvaluated = (
+			occupied == lastOccupied && owned == lastOwned && hand.size() == lastHandSize &&
+			elements == lastElements && elementWeight == lastElementWeight && (lastCaptures || !captures)
+		);
+		for (int i = 0; isEvaluated && i < lastHandSize; i++)
+			isEvaluated = (hand.get(i) == lastHand[i]);
+		lastOccupied = occupied;
+		lastOwned = owned;
+		if (!isEvaluated)
+			lastHandSize = -1;
+		return isEvaluated;
+	}
+
+	/**
+	 * Returns the sum of the rank differences of all of a side's cards on
+	 * the board (see {@link AI#getRankDiff(Card, int, float)}).
+	 * <p>
+	 * Only the positions that changed since the last call (a new card or
+	 * owner) and their neighbors are recomputed.
+	 * @param board the board
+	 * @param elements the element board (or null)
+	 * @param owner the side
+	 * @param elementWeight the weight of each element bonus
+	 * @return the board's rank difference
+	 */
+	public float getBoardRankDiff(Card[] board, Element[] elements, boolean owner, float elementWeight) {
+		int dirty = 0;
+		if (!boardValid || elements != boardElements || elementWeight != boardElementWeight || owner != boardOwner) {
+			dirty = 0x1FF;
+			boardElements = elements;
+			boardElementWeight = elementWeight;
+			boardOwner = owner;
+			boardValid = true;
+		}
+		for (int pos = 0; pos < 9; pos++) {
+			Card c = board[pos];
+			if (c != boardCards[pos] || (c != null && c.getOwner() != boardOwners[pos])) {
+				dirty |= 1 << pos;
+				for (int lane = 0; lane < 4; lane++) {
+					int neighbor = NEIGHBORS[pos * 4 + lane];
+					if (neighbor != -1)
+						dirty |= 1 << neighbor;
+				}
+				boardCards[pos] = c;
+				boardOwners[pos] = (c != null && c.getOwner());
+			}
+		}
+
+		// recompute the changed positions, then sum in board order
+		for (int d = dirty; d != 0; d &= d - 1) {
+			int pos = Integer.numberOfTrailingZeros(d);
+			Card c = board[pos];
+			boardRankDiffs[pos] = (c != null && c.getOwner() == owner) ?
+				getRankDiff(c, pos, board, elements, elementWeight) : 0f;
+		}
+		float total = 0;
+		for (int pos = 0; pos < 9; pos++)
+			total += boardRankDiffs[pos];
+		return total;
+	}
+
+	/**
+	 * Returns the rank difference of a card at a position.
+	 * @param c the card
+	 * @param position the board position
+	 * @param board the board
+	 * @param elements the element board (or null)
+	 * @param elementWeight the weight of each element bonus
+	 * @return the rank difference (at least 0)
+	 */
+	private static float getRankDiff(Card c, int position, Card[] board, Element[] elements, float elementWeight) {
+		int open = 0;
+		for (int lane = 0; lane < 4; lane++) {
+			int neighbor = NEIGHBORS[position * 4 + lane];
+			if (neighbor != -1 && board[neighbor] == null)
+				open |= 0xFF << (lane * 8);
+		}
+		int sides = Integer.bitCount(open) >>> 3;
+		int totalRank = ((pack(c) & open) * LANES_ONE) >>> 24;
+		float bonus = 0f;
+		if (elements != null && elements[position] != Element.NEUTRAL)
+			bonus = ((c.getElement() == elements[position]) ? elementWeight : -elementWeight) * sides;
+		return Math.max((sides * 10) - totalRank - bonus, 0f);
+	}
+
+	/**
+	 * Returns the number of cards captured by a candidate move.
+	 * @param index the hand index
+	 * @param position the board position
+	 * @return the captured count
+	 * @see CardResult#getCapturedCount()
+	 */
+	public int getCapturedCount(int index, int position) { return capturedCounts[index * 9 + position]; }
+
+	/**
+	 * Returns the rank difference of a candidate move.
+	 * @param index the hand index
+	 * @param position the board position
+	 * @return the rank difference
+	 * @see AI#getRankDiff(Card, int, float)
+	 */
+	public float getRankDiff(int index, int position) { return rankDiffs[index * 9 + position]; }
+}
@@ -0,0 +1,82 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.GameState;
+import itdelatrisu.tripletriad.TripleTriad;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Neural network AI.
+ * Plays the move after which the {@link NeuralNet} estimates the highest
+ * final score (from its own view of the game, without the opposing hand).
+ */
+public class NeuralAI extends AI {
+	/** The network evaluator. */
+	private final NeuralNet.Evaluator network;
+
+	/** Legal moves buffer. */
+	private final int[] moves = new int[GameState.MAX_MOVES];
+
+	/**
+	 * Neural network AI constructor.
+	 * @param hand the hand of cards
+	 * @param board the board
+	 * @param elements the element board
+	 * @param net the network
+	 * @see itdelatrisu.tripletriad.ai.AI#AI(ArrayList, Card[], Element[])
+	 */
+	public NeuralAI(ArrayList<Card> hand, Card[] board, Element[] elements, NeuralNet net) {
+		super(hand, board, elements);
+		this.network = new NeuralNet.Evaluator(net);
+	}
+
+	@Override
+	public void update(int thisScore, int thatScore) {
+		boolean side = hand.get(0).getOwner();
+		List<Card> none = Collections.emptyList();
+		GameState state = (side == TripleTriad.PLAYER) ?
+			new GameState(board, elements, hand, none, side) :
+			new GameState(board, elements, none, hand, side);
+
+		int count = state.getMoves(moves), bestMove = moves[0];
+		float bestValue = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			state.makeMove(moves[i]);
+			float value = network.evaluate(state, side);
+			state.unmakeMove();
+			if (value > bestValue) {
+				bestValue = value;
+				bestMove = moves[i];
+			}
+		}
+
+		Card c = state.getCard(GameState.getMoveCard(bestMove));
+		for (int i = 0; i < hand.size(); i++) {
+			if (hand.get(i) == c)
+				nextIndex = i;
+		}
+		nextPosition = GameState.getMovePosition(bestMove);
+	}
+}
@@ -0,0 +1,459 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Deck;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.GameState;
+import itdelatrisu.tripletriad.Options;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.Log;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Small position evaluation network (see {@link NeuralTrainer}).
+ * <p>
+ * A multilayer perceptron with two hidden ReLU layers and a tanh output,
+ * estimating the final score of one side from that side's view of the
+ * game: the board, the element layout and its own hand (the opposing hand
+ * is only counted, so the network never uses hidden cards).  The output is
+ * (score - 5) / 5, in [-1, 1].
+ * <p>
+ * The inputs are mostly one-hot (e.g. one input per rank value of each
+ * side of each position) and at most {@link #MAX_ACTIVE} are non-zero, so
+ * the first layer adds one weight row per non-zero input.  Its weights are
+ * also kept quantized to bytes (with one scale per hidden unit) and
+ * accumulated in integers; the other layers use floats.  The weights are immutable and
+ * can be shared, and each thread evaluates through its own
+ * {@link Evaluator}, which holds every buffer, so evaluations do not
+ * allocate.
+ * <p>
+ * Usage (benchmark): {@code NeuralNet [positions]}
+ * (uses random weights if no network file exists).
+ */
+public class NeuralNet {
+	/** File for storing the trained network. */
+	public static final File NETWORK_FILE = new File(".triple-triad.nn");
+
+	/** File format identifier ("TTNN") and version. */
+	private static final int MAGIC = 0x54544E4E, VERSION = 1;
+
+	/** Input layout (offsets of each feature group). */
+	static final int
+		CELL = 0,              // 9 positions * (own, opposing) * (card, 4 ranks with element bonus [0, 11])
+		ELEMENT = 882,         // element on an empty position
+		ELEMENT_MATCH = 891,   // own hand cards matching the element of an empty position
+		HAND_RANK = 900,       // own hand cards with each rank [1, 10] at each location
+		HAND_COUNT = 940,      // own hand size
+		OPPOSING_COUNT = 941,  // opposing hand size
+		TURN = 942,            // side to move
+		SCORE = 943,           // own score [0, 10]
+		INPUTS = 954;
+
+	/** Inputs of one side's card on one position. */
+	private static final int CELL_INPUTS = 1 + 4 * 12;
+
+	/** Maximum number of non-zero inputs. */
+	static final int MAX_ACTIVE = 9 * 5 + 9 * 2 + 4 * 5 + 4;
+
+	/** Layer sizes. */
+	public static final int HIDDEN1 = 32, HIDDEN2 = 16;
+
+	/** Parameter offsets (weights and biases of each layer), and parameter count. */
+	public static final int
+		W1 = 0,
+		B1 = W1 + INPUTS * HIDDEN1,
+		W2 = B1 + HIDDEN1,
+		B2 = W2 + HIDDEN1 * HIDDEN2,
+		W3 = B2 + HIDDEN2,
+		B3 = W3 + HIDDEN2,
+		PARAMETERS = B3 + 1;
+
+	/** Maximum absolute quantized weight. */
+	private static final int QUANT_MAX = 127;
+
+	/** The network read from the network file (null if not read or missing). */
+	private static NeuralNet defaultNet;
+
+	/** Whether the network file was read. */
+	private static boolean defaultLoaded = false;
+
+	/** First layer weights (by input * HIDDEN1 + unit) and biases. */
+	private final float[] w1, b1;
+
+	/** Second layer weights (by input * HIDDEN2 + unit) and biases. */
+	private final float[] w2, b2;
+
+	/** Output weights and bias. */
+	private final float[] w3;
+	private final float b3;
+
+	/** Quantized first layer weights, and the scale of each unit. */
+	private final byte[] q1;
+	private final float[] scale1;
+
+	/**
+	 * Evaluates positions with a network.
+	 * Not thread-safe: use one evaluator per thread.
+	 */
+	public static class Evaluator {
+		/** The network. */
+		private final NeuralNet net;
+
+		/** Non-zero inputs (indices and values). */
+		private final int[] indices = new int[MAX_ACTIVE], values = new int[MAX_ACTIVE];
+
+		/** First layer accumulators. */
+		private final int[] acc = new int[HIDDEN1];
+
+		/** Hidden layer activations. */
+		private final float[] h1 = new float[HIDDEN1], h2 = new float[HIDDEN2];
+
+		/**
+		 * Constructor.
+		 * @param net the network
+		 */
+		public Evaluator(NeuralNet net) { this.net = net; }
+
+		/**
+		 * Evaluates a position with the quantized first layer.
+		 * @param state the game state
+		 * @param side the side whose score is estimated (PLAYER or OPPONENT)
+		 * @return the estimated (score - 5) / 5, in [-1, 1]
+		 */
+		public float evaluate(GameState state, boolean side) {
+			int n = getFeatures(state, side, indices, values);
+			int[] acc = this.acc;
+			byte[] q1 = net.q1;
+			Arrays.fill(acc, 0);
+			for (int k = 0; k < n; k++) {
+				int x = values[k], offset = indices[k] * HIDDEN1;
+				for (int j = 0; j < HIDDEN1; j++)
+					acc[j] += x * q1[offset + j];
+			}
+			float[] scale1 = net.scale1, b1 = net.b1;
+			for (int j = 0; j < HIDDEN1; j++)
+				h1[j] = Math.max(0f, acc[j] * scale1[j] + b1[j]);
+			return net.getOutput(h1, h2);
+		}
+
+		/**
+		 * Evaluates a position with float weights only.
+		 * @param state the game state
+		 * @param side the side whose score is estimated (PLAYER or OPPONENT)
+		 * @return the estimated (score - 5) / 5, in [-1, 1]
+		 */
+		public float evaluateFloat(GameState state, boolean side) {
+			int n = getFeatures(state, side, indices, values);
+			float[] w1 = net.w1;
+			System.arraycopy(net.b1, 0, h1, 0, HIDDEN1);
+			for (int k = 0; k < n; k++) {
+				float x = values[k];
+				int offset = indices[k] * HIDDEN1;
+				for (int j = 0; j < HIDDEN1; j++)
+					h1[j] += x * w1[offset + j];
+			}
+			for (int j = 0; j < HIDDEN1; j++)
+				h1[j] = Math.max(0f, h1[j]);
+			return net.getOutput(h1, h2);
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * @param parameters the weights and biases ({@link #PARAMETERS} values,
+	 *        at the offsets W1, B1, W2, B2, W3 and B3; weights by input * size + unit)
+	 */
+	public NeuralNet(float[] parameters) {
+		if (parameters.length != PARAMETERS)
+			throw new IllegalArgumentException(String.format("Expected %d parameters.", PARAMETERS));
+		this.w1 = Arrays.copyOfRange(parameters, W1, B1);
+		this.b1 = Arrays.copyOfRange(parameters, B1, W2);
+		this.w2 = Arrays.copyOfRange(parameters, W2, B2);
+		this.b2 = Arrays.copyOfRange(parameters, B2, W3);
+		this.w3 = Arrays.copyOfRange(parameters, W3, B3);
+		this.b3 = parameters[B3];
+
+		// quantize the first layer
+		this.q1 = new byte[w1.length];
+		this.scale1 = new float[HIDDEN1];
+		for (int j = 0; j < HIDDEN1; j++) {
+			float max = 0f;
+			for (int i = 0; i < INPUTS; i++)
+				max = Math.max(max, Math.abs(w1[i * HIDDEN1 + j]));
+			scale1[j] = (max == 0f) ? 1f : max / QUANT_MAX;
+			for (int i = 0; i < INPUTS; i++)
+				q1[i * HIDDEN1 + j] = (byte) Math.round(w1[i * HIDDEN1 + j] / scale1[j]);
+		}
+	}
+
+	/**
+	 * Returns random weights (and zero biases).
+	 * @param random the random number generator
+	 * @return the parameters (see {@link #NeuralNet(float[])})
+	 */
+	public static float[] getRandomParameters(Random random) {
+		float[] p = new float[PARAMETERS];
+		for (int i = W1; i < B1; i++)
+			p[i] = (float) (random.nextGaussian() * Math.sqrt(2.0 / MAX_ACTIVE));
+		for (int i = W2; i < B2; i++)
+			p[i] = (float) (random.nextGaussian() * Math.sqrt(2.0 / HIDDEN1));
+		for (int i = W3; i < B3; i++)
+			p[i] = (float) (random.nextGaussian() * Math.sqrt(1.0 / HIDDEN2));
+		return p;
+	}
+
+	/**
+	 * Returns the weights and biases.
+	 * @return a copy of the parameters (see {@link #NeuralNet(float[])})
+	 */
+	public float[] getParameters() {
+		float[] p = new float[PARAMETERS];
+		System.arraycopy(w1, 0, p, W1, w1.length);
+		System.arraycopy(b1, 0, p, B1, b1.length);
+		System.arraycopy(w2, 0, p, W2, w2.length);
+		System.arraycopy(b2, 0, p, B2, b2.length);
+		System.arraycopy(w3, 0, p, W3, w3.length);
+		p[B3] = b3;
+		return p;
+	}
+
+	/**
+	 * Returns the network read from the network file, reading it on first use.
+	 * @return the network, or null if the file is missing or invalid
+	 */
+	public static synchronized NeuralNet getDefault() {
+		if (!defaultLoaded) {
+			defaultLoaded = true;
+			if (NETWORK_FILE.isFile()) {
+				try {
+					defaultNet = load(NETWORK_FILE);
+				} catch (IOException e) {
+					Log.error(String.format("Failed to read file '%s'.", NETWORK_FILE.getAbsolutePath()), e);
+				}
+			} else
+				Log.warn(String.format("Network file '%s' not found (see NeuralTrainer).", NETWORK_FILE.getAbsolutePath()));
+		}
+		return defaultNet;
+	}
+
+	/**
+	 * Reads a network.
+	 * @param file the file
+	 * @return the network
+	 * @throws IOException if reading fails or the file is not a network of this size
+	 */
+	public static NeuralNet load(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a network file.");
+			if (in.readInt() != INPUTS || in.readInt() != HIDDEN1 || in.readInt() != HIDDEN2)
+				throw new IOException("Network layer sizes do not match.");
+			float[] p = new float[PARAMETERS];
+			for (int i = 0; i < p.length; i++)
+				p[i] = in.readFloat();
+			return new NeuralNet(p);
+		}
+	}
+
+	/**
+	 * (Over)writes a network file.
+	 * @param file the file
+	 * @throws IOException if writing fails
+	 */
+	public void save(File file) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(INPUTS);
+			out.writeInt(HIDDEN1);
+			out.writeInt(HIDDEN2);
+			for (float f : getParameters())
+				out.writeFloat(f);
+		}
+	}
+
+	/**
+	 * Computes the second layer and the output.
+	 * @param h1 the first layer activations
+	 * @param h2 the buffer for the second layer activations
+	 * @return the output
+	 */
+	private float getOutput(float[] h1, float[] h2) {
+		System.arraycopy(b2, 0, h2, 0, HIDDEN2);
+		for (int i = 0; i < HIDDEN1; i++) {
+			float h = h1[i];
+			if (h == 0f)
+				continue;
+			int offset = i * HIDDEN2;
+			for (int j = 0; j < HIDDEN2; j++)
+				h2[j] += h * w2[offset + j];
+		}
+		float sum = b3;
+		for (int j = 0; j < HIDDEN2; j++)
+			sum += Math.max(0f, h2[j]) * w3[j];
+		return (float) Math.tanh(sum);
+	}
+
+	/**
+	 * Fills the non-zero inputs of a position.
+	 * @param state the game state
+	 * @param side the side whose view is used (PLAYER or OPPONENT)
+	 * @param indices the array to fill with input indices (at least {@link #MAX_ACTIVE} long)
+	 * @param values the array to fill with input values (at least {@link #MAX_ACTIVE} long)
+	 * @return the number of non-zero inputs
+	 */
+	static int getFeatures(GameState state, boolean side, int[] indices, int[] values) {
+		int n = 0;
+		int owned = state.getOwned(side), hand = state.getHand(side), occupied = 0;
+
+		// board
+		for (int pos = 0; pos < 9; pos++) {
+			int card = state.getBoardCard(pos);
+			if (card == -1)
+				continue;
+			occupied |= 1 << pos;
+			int base = CELL + (pos * 2 + ((((owned >>> pos) & 1) != 0) ? 0 : 1)) * CELL_INPUTS;
+			indices[n] = base;
+			values[n++] = 1;
+			int bonus = state.getBonus(card, pos);
+			for (int r = 0; r < 4; r++) {
+				indices[n] = base + 1 + r * 12 + Math.max(0, Math.min(11, state.getRank(card, r) + bonus));
+				values[n++] = 1;
+			}
+		}
+
+		// elements of empty positions (every card has a bonus on an element)
+		if (state.getCardCount() > 0) {
+			for (int e = ~occupied & 0x1FF; e != 0; e &= e - 1) {
+				int pos = Integer.numberOfTrailingZeros(e);
+				if (state.getBonus(0, pos) == 0)
+					continue;
+				indices[n] = ELEMENT + pos;
+				values[n++] = 1;
+				int match = 0;
+				for (int h = hand; h != 0; h &= h - 1) {
+					if (state.getBonus(Integer.numberOfTrailingZeros(h), pos) > 0)
+						match++;
+				}
+				if (match > 0) {
+					indices[n] = ELEMENT_MATCH + pos;
+					values[n++] = match;
+				}
+			}
+		}
+
+		// hands (cards with the same rank share an input)
+		int count = Integer.bitCount(hand);
+		for (int r = 0; r < 4; r++) {
+			int start = n;
+			for (int h = hand; h != 0; h &= h - 1) {
+				int index = HAND_RANK + r * 10 + state.getRank(Integer.numberOfTrailingZeros(h), r) - 1, k = start;
+				while (k < n && indices[k] != index)
+					k++;
+				if (k < n)
+					values[k]++;
+				else {
+					indices[n] = index;
+					values[n++] = 1;
+				}
+			}
+		}
+		if (count > 0) {
+			indices[n] = HAND_COUNT;
+			values[n++] = count;
+		}
+		int opposing = GameState.MAX_CARDS - Integer.bitCount(occupied) - count;
+		if (opposing > 0) {
+			indices[n] = OPPOSING_COUNT;
+			values[n++] = opposing;
+		}
+		if (state.getTurn() == side) {
+			indices[n] = TURN;
+			values[n++] = 1;
+		}
+		indices[n] = SCORE + Integer.bitCount(owned) + count;
+		values[n++] = 1;
+		return n;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		List<Card> deck = new Deck().getCards();
+		NeuralNet net = NETWORK_FILE.isFile() ? load(NETWORK_FILE) : new NeuralNet(getRandomParameters(new Random(1)));
+
+		// random positions from random games
+		Random random = new Random(1);
+		GameState[] states = new GameState[count];
+		boolean[] sides = new boolean[count];
+		int[] moves = new int[GameState.MAX_MOVES];
+		for (int i = 0; i < count; i++) {
+			Card[][] hands = SelfPlay.deal(deck, random);
+			Element[] elements = SelfPlay.getElements(random);
+			GameState state = new GameState(new Card[9], elements,
+				Arrays.asList(hands[0]), Arrays.asList(hands[1]), random.nextBoolean());
+			for (int plies = random.nextInt(9); plies > 0; plies--)
+				state.makeMove(moves[random.nextInt(state.getMoves(moves))]);
+			states[i] = new GameState(state);
+			sides[i] = random.nextBoolean();
+		}
+
+		// accuracy of the quantized layer
+		Evaluator evaluator = new Evaluator(net);
+		double maxError = 0, totalError = 0;
+		for (int i = 0; i < count; i++) {
+			double error = Math.abs(evaluator.evaluate(states[i], sides[i]) - evaluator.evaluateFloat(states[i], sides[i]));
+			maxError = Math.max(maxError, error);
+			totalError += error;
+		}
+		System.out.printf("quantization error: %.5f mean, %.5f max%n", totalError / count, maxError);
+
+		// throughput
+		for (int round = 0; round < 5; round++) {
+			float sum = 0;
+			long time = System.nanoTime();
+			for (int i = 0; i < count; i++)
+				sum += evaluator.evaluate(states[i], sides[i]);
+			long quantized = System.nanoTime() - time;
+			time = System.nanoTime();
+			for (int i = 0; i < count; i++)
+				sum += evaluator.evaluateFloat(states[i], sides[i]);
+			long full = System.nanoTime() - time;
+			System.out.printf("round %d: quantized %.0f evals/s, float %.0f evals/s (%.1f)%n", round,
+				count * 1e9 / quantized, count * 1e9 / full, sum);
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Deck;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.GameState;
+import itdelatrisu.tripletriad.Options;
+import itdelatrisu.tripletriad.TripleTriad;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Offline trainer for the {@link NeuralNet}.
+ * <p>
+ * Each iteration plays a batch of self-play games with the current
+ * network (as {@link NeuralAI}, with some random moves for exploration),
+ * in parallel on all processors.  Every position of each game is a training sample for both
+ * sides, labeled with that side's final score, and the network takes one
+ * Adam step on the mean squared error of the batch.  Training continues
+ * from the network file if it exists, and the file is rewritten
+ * periodically.  Finally, the network plays a match against the balanced
+ * AI.
+ * <p>
+ * Usage: {@code NeuralTrainer [iterations] [games per iteration]}
+ * (rules are read from the configuration file).
+ */
+public class NeuralTrainer {
+	/** Adam parameters. */
+	private static final float LEARNING_RATE = 0.001f, BETA1 = 0.9f, BETA2 = 0.999f, EPSILON = 1e-8f;
+
+	/** Probability of a random move in self-play. */
+	private static final double EXPLORATION = 0.2;
+
+	/** Iterations between writes of the network file. */
+	private static final int SAVE_INTERVAL = 100;
+
+	/** Number of games in the final match. */
+	private static final int MATCH_GAMES = 2000;
+
+	// This class should not be instantiated.
+	private NeuralTrainer() {}
+
+	/**
+	 * Plays games and accumulates the gradient of their samples.
+	 */
+	private static class Worker implements Callable<Double> {
+		/** The cards to deal from. */
+		private final List<Card> deck;
+
+		/** Current parameters (read only). */
+		private float[] parameters;
+
+		/** Current network (for choosing moves). */
+		private NeuralNet.Evaluator network;
+
+		/** Gradient sum. */
+		private final float[] gradient = new float[NeuralNet.PARAMETERS];
+
+		/** Number of games, and samples added to the gradient. */
+		private int games, samples;
+
+		/** Random seed. */
+		private long seed;
+
+		/** Buffers. */
+		private final int[]
+			indices = new int[NeuralNet.MAX_ACTIVE],
+			values = new int[NeuralNet.MAX_ACTIVE],
+			moves = new int[GameState.MAX_MOVES];
+		private final float[]
+			a1 = new float[NeuralNet.HIDDEN1], d1 = new float[NeuralNet.HIDDEN1],
+			z2 = new float[NeuralNet.HIDDEN2], a2 = new float[NeuralNet.HIDDEN2], d2 = new float[NeuralNet.HIDDEN2];
+		private final GameState[] states = new GameState[9];
+
+		/**
+		 * Constructor.
+		 * @param deck the cards to deal from
+		 */
+		public Worker(List<Card> deck) { this.deck = deck; }
+
+		/**
+		 * Sets up the next batch.
+		 * @param parameters the current parameters
+		 * @param net the current network
+		 * @param games the number of games
+		 * @param seed the random seed
+		 */
+		public void reset(float[] parameters, NeuralNet net, int games, long seed) {
+			this.parameters = parameters;
+			this.network = new NeuralNet.Evaluator(net);
+			this.games = games;
+			this.seed = seed;
+		}
+
+		@Override
+		public Double call() {
+			Arrays.fill(gradient, 0f);
+			samples = 0;
+			Random random = new Random(seed);
+			double loss = 0;
+			for (int i = 0; i < games; i++) {
+				Card[][] hands = SelfPlay.deal(deck, random);
+				Element[] elements = SelfPlay.getElements(random);
+				GameState state = new GameState(new Card[9], elements,
+					Arrays.asList(hands[0]), Arrays.asList(hands[1]), random.nextBoolean());
+				int plies = 0;
+				while (!state.isGameOver()) {
+					states[plies++] = new GameState(state);
+					state.makeMove(getMove(state, random));
+				}
+				for (boolean side : new boolean[] { TripleTriad.PLAYER, TripleTriad.OPPONENT }) {
+					float target = (state.getScore(side) - 5) / 5f;
+					for (int j = 0; j < plies; j++)
+						loss += addGradient(states[j], side, target);
+				}
+				samples += plies * 2;
+			}
+			return loss;
+		}
+
+		/**
+		 * Returns a self-play move: the best move for the network (see
+		 * {@link NeuralAI}), or a random move.
+		 * @param state the game state
+		 * @param random the random number generator
+		 * @return the move
+		 */
+		private int getMove(GameState state, Random random) {
+			int count = state.getMoves(moves);
+			if (random.nextDouble() < EXPLORATION)
+				return moves[random.nextInt(count)];
+			boolean side = state.getTurn();
+			int best = moves[0];
+			float bestValue = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < count; i++) {
+				state.makeMove(moves[i]);
+				float value = network.evaluate(state, side);
+				state.unmakeMove();
+				if (value > bestValue) {
+					bestValue = value;
+					best = moves[i];
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Adds the squared error gradient of one sample.
+		 * @param state the game state
+		 * @param side the side whose view is used
+		 * @param target the final score of the side, as (score - 5) / 5
+		 * @return the squared error
+		 */
+		private double addGradient(GameState state, boolean side, float target) {
+			final int H1 = NeuralNet.HIDDEN1, H2 = NeuralNet.HIDDEN2;
+			float[] p = parameters, g = gradient;
+			int n = NeuralNet.getFeatures(state, side, indices, values);
+
+			// forward
+			System.arraycopy(p, NeuralNet.B1, a1, 0, H1);
+			for (int k = 0; k < n; k++) {
+				float x = values[k];
+				int offset = NeuralNet.W1 + indices[k] * H1;
+				for (int j = 0; j < H1; j++)
+					a1[j] += x * p[offset + j];
+			}
+			for (int j = 0; j < H1; j++)
+				a1[j] = Math.max(0f, a1[j]);
+			System.arraycopy(p, NeuralNet.B2, z2, 0, H2);
+			for (int i = 0; i < H1; i++) {
+				if (a1[i] == 0f)
+					continue;
+				int offset = NeuralNet.W2 + i * H2;
+				for (int j = 0; j < H2; j++)
+					z2[j] += a1[i] * p[offset + j];
+			}
+			float z3 = p[NeuralNet.B3];
+			for (int j = 0; j < H2; j++) {
+				a2[j] = Math.max(0f, z2[j]);
+				z3 += a2[j] * p[NeuralNet.W3 + j];
+			}
+			float y = (float) Math.tanh(z3), error = y - target;
+
+			// backward
+			float d3 = error * (1 - y * y);
+			g[NeuralNet.B3] += d3;
+			for (int j = 0; j < H2; j++) {
+				g[NeuralNet.W3 + j] += d3 * a2[j];
+				d2[j] = (z2[j] > 0f) ? d3 * p[NeuralNet.W3 + j] : 0f;
+				g[NeuralNet.B2 + j] += d2[j];
+			}
+			for (int i = 0; i < H1; i++) {
+				d1[i] = 0f;
+				if (a1[i] == 0f)
+					continue;
+				int offset = NeuralNet.W2 + i * H2;
+				for (int j = 0; j < H2; j++) {
+					g[offset + j] += a1[i] * d2[j];
+					d1[i] += p[offset + j] * d2[j];
+				}
+				g[NeuralNet.B1 + i] += d1[i];
+			}
+			for (int k = 0; k < n; k++) {
+				float x = values[k];
+				int offset = NeuralNet.W1 + indices[k] * H1;
+				for (int j = 0; j < H1; j++)
+					g[offset + j] += x * d1[j];
+			}
+			return error * error;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException, IOException {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		int games = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		List<Card> deck = new Deck().getCards();
+
+		Random random = new Random();
+		float[] theta = NeuralNet.NETWORK_FILE.isFile() ?
+			NeuralNet.load(NeuralNet.NETWORK_FILE).getParameters() :
+			NeuralNet.getRandomParameters(random);
+		float[] m = new float[theta.length], v = new float[theta.length];
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<Worker> workers = new ArrayList<Worker>(threads);
+		for (int t = 0; t < threads; t++)
+			workers.add(new Worker(deck));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			double loss = 0;
+			long samples = 0;
+			for (int k = 0; k < iterations; k++) {
+				NeuralNet net = new NeuralNet(theta);
+				for (int t = 0; t < threads; t++)
+					workers.get(t).reset(theta, net, games / threads + ((t < games % threads) ? 1 : 0), random.nextLong());
+				int batch = 0;
+				for (Future<Double> result : pool.invokeAll(workers))
+					loss += result.get();
+				for (Worker worker : workers)
+					batch += worker.samples;
+				samples += batch;
+
+				// Adam step on the mean gradient
+				float c1 = 1 - (float) Math.pow(BETA1, k + 1), c2 = 1 - (float) Math.pow(BETA2, k + 1);
+				for (int i = 0; i < theta.length; i++) {
+					float g = 0f;
+					for (Worker worker : workers)
+						g += worker.gradient[i];
+					g /= batch;
+					m[i] = BETA1 * m[i] + (1 - BETA1) * g;
+					v[i] = BETA2 * v[i] + (1 - BETA2) * g * g;
+					theta[i] -= LEARNING_RATE * (m[i] / c1) / ((float) Math.sqrt(v[i] / c2) + EPSILON);
+				}
+
+				if ((k + 1) % 10 == 0) {
+					// error in final score units
+					System.out.printf("%d/%d: score error %.3f (%d samples)%n",
+						k + 1, iterations, Math.sqrt(loss / samples) * 5, samples);
+					loss = 0;
+					samples = 0;
+				}
+				if ((k + 1) % SAVE_INTERVAL == 0 || k + 1 == iterations)
+					new NeuralNet(theta).save(NeuralNet.NETWORK_FILE);
+			}
+
+			final NeuralNet net = new NeuralNet(theta);
+			SelfPlay.AIFactory neural = new SelfPlay.AIFactory() {
+				@Override
+				public AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+					return new NeuralAI(hand, board, elements, net);
+				}
+			};
+			SelfPlay.AIFactory balanced = new SelfPlay.AIFactory() {
+				@Override
+				public AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+					return new BalancedAI(hand, board, elements);
+				}
+			};
+			SelfPlay.MatchResult result = SelfPlay.match(pool, threads, deck, neural, balanced, MATCH_GAMES, random.nextLong());
+			System.out.printf("neural vs balanced: %+.3f mean score difference (%d games)%n",
+				result.getMeanScoreDifference(), result.getGames());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
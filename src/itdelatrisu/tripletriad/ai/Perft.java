@@ -0,0 +1,434 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.CardResult;
+import itdelatrisu.tripletriad.Deck;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.GameState;
+import itdelatrisu.tripletriad.Options;
+import itdelatrisu.tripletriad.Rule;
+import itdelatrisu.tripletriad.TripleTriad;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Game tree enumerator ("perft"), for validating and benchmarking the rules.
+ * <p>
+ * Every move of a deal is played to a fixed depth with {@link CardResult},
+ * exactly as in a game, counting the nodes, the leaves and the cards
+ * flipped by each rule.  Each move is also played on a {@link GameState},
+ * and any difference between the two is counted as a mismatch.  The same
+ * deal, rules and depth always give the same counts, so the counts catch
+ * changes to the rules and the node rates measure their throughput.
+ * <p>
+ * Usage: {@code Perft [depth] [seed]}
+ * (rules are read from the configuration file).
+ */
+public class Perft {
+	/** Perft counts. */
+	public static class Counts {
+		/** Moves played. */
+		public long nodes;
+
+		/** Positions at the final depth (or with the game over). */
+		public long leaves;
+
+		/** Cards flipped by normal captures, "Same", "Plus" and "Combo". */
+		public long captures, same, plus, combo;
+
+		/** Moves where {@link GameState} and {@link CardResult} differ. */
+		public long mismatches;
+
+		/**
+		 * Adds other counts to these counts.
+		 * @param counts the other counts
+		 */
+		public void add(Counts counts) {
+			nodes += counts.nodes;
+			leaves += counts.leaves;
+			captures += counts.captures;
+			same += counts.same;
+			plus += counts.plus;
+			combo += counts.combo;
+			mismatches += counts.mismatches;
+		}
+
+		/**
+		 * Returns whether or not other counts are equal to these counts.
+		 * @param counts the other counts
+		 * @return true if equal
+		 */
+		public boolean equals(Counts counts) {
+			return (nodes == counts.nodes && leaves == counts.leaves &&
+			        captures == counts.captures && same == counts.same &&
+			        plus == counts.plus && combo == counts.combo &&
+			        mismatches == counts.mismatches);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("nodes=%d leaves=%d captures=%d same=%d plus=%d combo=%d mismatches=%d",
+					nodes, leaves, captures, same, plus, combo, mismatches);
+		}
+	}
+
+	/** The board. */
+	private final Card[] board = new Card[9];
+
+	/** The element board (or null). */
+	private final Element[] elements;
+
+	/** The hands. */
+	private final ArrayList<Card> playerHand, opponentHand;
+
+	/** The state mirroring the board and hands. */
+	private final GameState state;
+
+	/** Side to move (PLAYER or OPPONENT). */
+	private boolean turn;
+
+	/** The counts. */
+	private final Counts counts = new Counts();
+
+	/**
+	 * Constructor.
+	 * Copies of the cards are used, so the given cards are never modified.
+	 * @param playerCards the player's cards
+	 * @param opponentCards the opponent's cards
+	 * @param elements the element board (or null)
+	 * @param turn the side to move first (PLAYER or OPPONENT)
+	 */
+	public Perft(Card[] playerCards, Card[] opponentCards, Element[] elements, boolean turn) {
+		this.elements = elements;
+		this.playerHand = new ArrayList<Card>(playerCards.length);
+		this.opponentHand = new ArrayList<Card>(opponentCards.length);
+		for (Card c : playerCards) {
+			Card card = new Card(c, false);
+			card.setOwner(TripleTriad.PLAYER);
+			playerHand.add(card);
+		}
+		for (Card c : opponentCards) {
+			Card card = new Card(c, false);
+			card.setOwner(TripleTriad.OPPONENT);
+			opponentHand.add(card);
+		}
+		this.turn = turn;
+		this.state = new GameState(board, elements, playerHand, opponentHand, turn);
+	}
+
+	/**
+	 * Enumerates the game tree.
+	 * @param depth the number of moves (plies) to play
+	 * @return the counts
+	 */
+	public Counts run(int depth) {
+		search(depth);
+		return counts;
+	}
+
+	/**
+	 * Enumerates the game tree below one first move.
+	 * @param index the hand index of the first card
+	 * @param position the board position of the first card
+	 * @param depth the number of moves (plies) to play, including the first
+	 * @return the counts
+	 */
+	public Counts run(int index, int position, int depth) {
+		play(index, position, depth);
+		return counts;
+	}
+
+	/**
+	 * Returns the number of first moves.
+	 * @return the number of cards in the hand of the side to move, times 9
+	 */
+	public int getRootMoves() {
+		return ((turn == TripleTriad.PLAYER) ? playerHand : opponentHand).size() * 9;
+	}
+
+	/**
+	 * Plays all moves of the side to move.
+	 * @param depth the remaining depth
+	 */
+	private void search(int depth) {
+		if (depth == 0 || state.isGameOver()) {
+			counts.leaves++;
+			return;
+		}
+		ArrayList<Card> hand = (turn == TripleTriad.PLAYER) ? playerHand : opponentHand;
+		for (int index = 0; index < hand.size(); index++) {
+			for (int pos = 0; pos < 9; pos++) {
+				if (board[pos] == null)
+					play(index, pos, depth);
+			}
+		}
+	}
+
+	/**
+	 * Plays a move, searches the resulting position and takes the move back.
+	 * @param index the hand index of the card
+	 * @param position the board position (must be empty)
+	 * @param depth the remaining depth, including this move
+	 */
+	private void play(int index, int position, int depth) {
+		ArrayList<Card> hand = (turn == TripleTriad.PLAYER) ? playerHand : opponentHand;
+		counts.nodes++;
+
+		// place the card
+		Card card = hand.remove(index);
+		card.setPosition(position);
+		board[position] = card;
+		int move = state.getMove(card, position);
+		int expected = state.getCaptures(move);
+
+		// change owners
+		CardResult result = new CardResult(card, position, board, elements);
+		int flipped = 0, mask;
+		mask = flip(result.getSameList(), turn);
+		counts.same += Integer.bitCount(mask);
+		flipped |= mask;
+		mask = flip(result.getPlusList(), turn);
+		counts.plus += Integer.bitCount(mask);
+		flipped |= mask;
+		mask = flip(result.getCapturedList(), turn);
+		counts.captures += Integer.bitCount(mask);
+		flipped |= mask;
+		ArrayList<Card> combo;
+		while ((combo = result.nextCombo()) != null) {
+			mask = flip(combo, turn);
+			counts.combo += Integer.bitCount(mask);
+			flipped |= mask;
+		}
+		if (flipped != expected)
+			counts.mismatches++;
+
+		// search (following the game, not the state, on a mismatch)
+		state.makeMove(move, flipped);
+		turn = !turn;
+		search(depth - 1);
+		turn = !turn;
+		state.unmakeMove();
+
+		// take back the move
+		for (int f = flipped; f != 0; f &= f - 1)
+			board[Integer.numberOfTrailingZeros(f)].setOwner(!turn);
+		board[position] = null;
+		card.resetPosition();
+		hand.add(index, card);
+	}
+
+	/**
+	 * Changes the owners of a list of cards.
+	 * @param list the cards (or null)
+	 * @param owner the new owner
+	 * @return the bitmask of the positions changed
+	 */
+	private static int flip(ArrayList<Card> list, boolean owner) {
+		if (list == null)
+			return 0;
+
+		int mask = 0;
+		for (Card c : list) {
+			if (c.getOwner() != owner) {
+				c.setOwner(owner);
+				mask |= 1 << c.getPosition();
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Enumerates the game tree in parallel, one task per first move.
+	 * @param pool the thread pool
+	 * @param playerCards the player's cards
+	 * @param opponentCards the opponent's cards
+	 * @param elements the element board (or null)
+	 * @param turn the side to move first (PLAYER or OPPONENT)
+	 * @param depth the number of moves (plies) to play
+	 * @return the counts
+	 */
+	public static Counts run(ExecutorService pool, final Card[] playerCards, final Card[] opponentCards,
+			final Element[] elements, final boolean turn, final int depth)
+			throws InterruptedException, ExecutionException {
+		if (depth == 0)
+			return new Perft(playerCards, opponentCards, elements, turn).run(depth);
+
+		int rootMoves = new Perft(playerCards, opponentCards, elements, turn).getRootMoves();
+		List<Future<Counts>> results = new ArrayList<Future<Counts>>(rootMoves);
+		for (int i = 0; i < rootMoves; i++) {
+			final int index = i / 9, position = i % 9;
+			results.add(pool.submit(new Callable<Counts>() {
+				@Override
+				public Counts call() {
+					return new Perft(playerCards, opponentCards, elements, turn).run(index, position, depth);
+				}
+			}));
+		}
+		Counts counts = new Counts();
+		for (Future<Counts> result : results)
+			counts.add(result.get());
+		return counts;
+	}
+
+	/**
+	 * Counts the leaves of the game tree of a state, using only
+	 * {@link GameState} moves.
+	 * @param state the state
+	 * @param depth the number of moves (plies) to play
+	 * @param moves the move lists of each ply (at least depth arrays of
+	 *        {@link GameState#MAX_MOVES})
+	 * @return the number of leaves
+	 */
+	public static long countLeaves(GameState state, int depth, int[][] moves) {
+		if (depth == 0 || state.isGameOver())
+			return 1;
+		int[] list = moves[depth - 1];
+		int count = state.getMoves(list);
+		if (depth == 1)
+			return count;
+		long leaves = 0;
+		for (int i = 0; i < count; i++) {
+			state.makeMove(list[i]);
+			leaves += countLeaves(state, depth - 1, moves);
+			state.unmakeMove();
+		}
+		return leaves;
+	}
+
+	/**
+	 * Counts the leaves of the game tree of a state in parallel, one task
+	 * per first move.
+	 * @param pool the thread pool
+	 * @param state the state
+	 * @param depth the number of moves (plies) to play
+	 * @return the number of leaves
+	 */
+	public static long countLeaves(ExecutorService pool, final GameState state, final int depth)
+			throws InterruptedException, ExecutionException {
+		if (depth == 0 || state.isGameOver())
+			return 1;
+		int[] rootMoves = new int[GameState.MAX_MOVES];
+		int count = state.getMoves(rootMoves);
+		List<Future<Long>> results = new ArrayList<Future<Long>>(count);
+		for (int i = 0; i < count; i++) {
+			final int move = rootMoves[i];
+			results.add(pool.submit(new Callable<Long>() {
+				@Override
+				public Long call() {
+					GameState copy = state.play(move);
+					return countLeaves(copy, depth - 1, new int[Math.max(depth - 1, 1)][GameState.MAX_MOVES]);
+				}
+			}));
+		}
+		long leaves = 0;
+		for (Future<Long> result : results)
+			leaves += result.get();
+		return leaves;
+	}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+		depth = Math.max(1, Math.min(depth, 9));  // a game has at most 9 moves
+		long seed = (args.length > 1) ? Long.parseLong(args[1]) : 0;
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		List<Card> deck = new Deck().getCards();
+
+		// seeded deal
+		Random random = new Random(seed);
+		Card[][] hands = SelfPlay.deal(deck, random);
+		Element[] elements = SelfPlay.getElements(random);
+		boolean turn = random.nextBoolean();
+		System.out.printf("seed %d: player %s, opponent %s, elements %s, %s first%n", seed,
+				getNames(hands[0]), getNames(hands[1]),
+				(elements == null) ? "none" : Arrays.toString(elements),
+				(turn == TripleTriad.PLAYER) ? "player" : "opponent");
+		StringBuilder rules = new StringBuilder();
+		for (Rule rule : Rule.values()) {
+			if (rule.isActive())
+				rules.append(' ').append(rule.toString());
+		}
+		System.out.printf("rules:%s%n", rules.toString());
+
+		// single-threaded, by depth
+		Counts counts = null;
+		for (int d = 1; d <= depth; d++) {
+			long time = System.nanoTime();
+			counts = new Perft(hands[0], hands[1], elements, turn).run(d);
+			time = System.nanoTime() - time;
+			System.out.printf("depth %d: %s (%.0f nodes/s)%n", d, counts.toString(), counts.nodes * 1e9 / time);
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			// multi-threaded
+			long time = System.nanoTime();
+			Counts parallel = run(pool, hands[0], hands[1], elements, turn, depth);
+			time = System.nanoTime() - time;
+			System.out.printf("parallel (%d threads): %s (%.0f nodes/s)%s%n", threads, parallel.toString(),
+					parallel.nodes * 1e9 / time, parallel.equals(counts) ? "" : " DIFFERENT");
+
+			// state moves only
+			Perft perft = new Perft(hands[0], hands[1], elements, turn);
+			time = System.nanoTime();
+			long leaves = countLeaves(perft.state, depth, new int[Math.max(depth, 1)][GameState.MAX_MOVES]);
+			time = System.nanoTime() - time;
+			System.out.printf("state only: leaves=%d (%.0f nodes/s)%s%n", leaves,
+					counts.nodes * 1e9 / time, (leaves == counts.leaves) ? "" : " DIFFERENT");
+			time = System.nanoTime();
+			leaves = countLeaves(pool, perft.state, depth);
+			time = System.nanoTime() - time;
+			System.out.printf("state only, parallel (%d threads): leaves=%d (%.0f nodes/s)%s%n", threads, leaves,
+					counts.nodes * 1e9 / time, (leaves == counts.leaves) ? "" : " DIFFERENT");
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the names of a hand of cards.
+	 * @param cards the cards
+	 * @return the names, comma-separated
+	 */
+	private static String getNames(Card[] cards) {
+		StringBuilder sb = new StringBuilder();
+		for (Card c : cards) {
+			if (sb.length() > 0)
+				sb.append(", ");
+			sb.append(c.getName());
+		}
+		return sb.toString();
+	}
+}
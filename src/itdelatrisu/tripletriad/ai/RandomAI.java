@@ -22,6 +22,8 @@ import itdelatrisu.tripletriad.Card;
 import itdelatrisu.tripletriad.Element;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Random AI.
@@ -46,4 +48,11 @@ public class RandomAI extends AI {
 		nextPosition = spaces.get((int) (Math.random() * spaces.size()));
 		return;
 	}
+
+	@Override
+	public List<Card> chooseCards(List<Card> cards, int count) {
+		List<Card> shuffled = new ArrayList<Card>(cards);
+		Collections.shuffle(shuffled);
+		return new ArrayList<Card>(shuffled.subList(0, Math.min(count, shuffled.size())));
+	}
 }
\ No newline at end of file
@@ -0,0 +1,316 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.CardResult;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.Rule;
+import itdelatrisu.tripletriad.TripleTriad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Headless games between two AIs (no rendering or GL context required).
+ * <p>
+ * Games follow the same sequence as {@link TripleTriad}: each AI is updated
+ * with the current scores, its card is placed, and the owners of all cards
+ * in the {@link CardResult} are changed.  Card copies are used, so the
+ * given cards are never modified.
+ */
+public class SelfPlay {
+	/** Creates an AI for a game. */
+	public interface AIFactory {
+		/**
+		 * Returns a new AI.
+		 * @param hand the hand of cards
+		 * @param board the board
+		 * @param elements the element board
+		 * @return the AI
+		 */
+		public AI create(ArrayList<Card> hand, Card[] board, Element[] elements);
+	}
+
+	/** Results of a match, for the first AI. */
+	public static class MatchResult {
+		/** Games won, drawn and lost. */
+		public long wins, draws, losses;
+
+		/** Sum of the final score differences. */
+		public long scoreDifference;
+
+		/**
+		 * Adds the result of a game.
+		 * @param score the final score [0, 10]
+		 */
+		private void add(int score) {
+			if (score > 5)
+				wins++;
+			else if (score < 5)
+				losses++;
+			else
+				draws++;
+			scoreDifference += score - (10 - score);
+		}
+
+		/**
+		 * Adds other results to these results.
+		 * @param result the other results
+		 */
+		private void add(MatchResult result) {
+			wins += result.wins;
+			draws += result.draws;
+			losses += result.losses;
+			scoreDifference += result.scoreDifference;
+		}
+
+		/**
+		 * Returns the number of games.
+		 * @return the game count
+		 */
+		public long getGames() { return wins + draws + losses; }
+
+		/**
+		 * Returns the mean final score difference.
+		 * @return the mean score difference [-10, 10]
+		 */
+		public double getMeanScoreDifference() {
+			long games = getGames();
+			return (games == 0) ? 0 : (double) scoreDifference / games;
+		}
+	}
+
+	// This class should not be instantiated.
+	private SelfPlay() {}
+
+	/**
+	 * Deals two random hands of 5 cards, without repeats.
+	 * @param deck the cards to deal from
+	 * @param random the random number generator
+	 * @return the player and opponent hands
+	 */
+	public static Card[][] deal(List<Card> deck, Random random) {
+		Card[][] hands = new Card[2][5];
+		int[] indices = new int[10];
+		for (int i = 0; i < indices.length; i++) {
+			// draw distinct deck indices
+			int index;
+			boolean repeat;
+			do {
+				index = random.nextInt(deck.size());
+				repeat = false;
+				for (int j = 0; j < i && !repeat; j++)
+					repeat = (indices[j] == index);
+			} while (repeat);
+			indices[i] = index;
+			hands[i / 5][i % 5] = deck.get(index);
+		}
+		return hands;
+	}
+
+	/**
+	 * Returns a random element board if the "Elemental" rule is active.
+	 * @param random the random number generator
+	 * @return the element board, or null
+	 */
+	public static Element[] getElements(Random random) {
+		return (Rule.ELEMENTAL.isActive()) ? Element.getRandomBoard(random) : null;
+	}
+
+	/**
+	 * Plays a game.
+	 * @param playerCards the player's cards
+	 * @param opponentCards the opponent's cards
+	 * @param elements the element board (or null)
+	 * @param turn the side to move first (PLAYER or OPPONENT)
+	 * @param player the player's AI
+	 * @param opponent the opponent's AI
+	 * @return the player's final score [0, 10]
+	 */
+	public static int play(Card[] playerCards, Card[] opponentCards, Element[] elements,
+			boolean turn, AIFactory player, AIFactory opponent) {
+		return play(playerCards, opponentCards, elements, turn, player, opponent, null);
+	}
+
+	/**
+	 * Plays a game, recording where each card was placed.
+	 * @param playerCards the player's cards
+	 * @param opponentCards the opponent's cards
+	 * @param elements the element board (or null)
+	 * @param turn the side to move first (PLAYER or OPPONENT)
+	 * @param player the player's AI
+	 * @param opponent the opponent's AI
+	 * @param positions if non-null, filled with the board position of each
+	 *        player card followed by each opponent card (-1 if not placed)
+	 * @return the player's final score [0, 10]
+	 */
+	public static int play(Card[] playerCards, Card[] opponentCards, Element[] elements,
+			boolean turn, AIFactory player, AIFactory opponent, int[] positions) {
+		ArrayList<Card> playerHand = new ArrayList<Card>(playerCards.length);
+		ArrayList<Card> opponentHand = new ArrayList<Card>(opponentCards.length);
+		Card[] copies = new Card[playerCards.length + opponentCards.length];
+		for (int i = 0; i < playerCards.length; i++) {
+			Card card = new Card(playerCards[i], false);
+			card.setOwner(TripleTriad.PLAYER);
+			playerHand.add(card);
+			copies[i] = card;
+		}
+		for (int i = 0; i < opponentCards.length; i++) {
+			Card card = new Card(opponentCards[i], false);
+			card.setOwner(TripleTriad.OPPONENT);
+			opponentHand.add(card);
+			copies[playerCards.length + i] = card;
+		}
+		if (positions != null)
+			Arrays.fill(positions, -1);
+		Card[] board = new Card[9];
+		AI playerAI = player.create(playerHand, board, elements);
+		AI opponentAI = opponent.create(opponentHand, board, elements);
+		if (Rule.OPEN.isActive()) {
+			playerAI.setOpposingHand(opponentHand);
+			opponentAI.setOpposingHand(playerHand);
+		}
+
+		int playerScore = 5, opponentScore = 5;
+		while (!playerHand.isEmpty() && !opponentHand.isEmpty()) {
+			ArrayList<Card> hand;
+			AI ai;
+			if (turn == TripleTriad.PLAYER) {
+				hand = playerHand;
+				ai = playerAI;
+				ai.update(playerScore, opponentScore);
+			} else {
+				hand = opponentHand;
+				ai = opponentAI;
+				ai.update(opponentScore, playerScore);
+			}
+
+			// place the card
+			int position = ai.nextPosition();
+			Card card = hand.remove(ai.nextIndex());
+			card.setPosition(position);
+			board[position] = card;
+			if (positions != null) {
+				for (int i = 0; i < copies.length; i++) {
+					if (copies[i] == card)
+						positions[i] = position;
+				}
+			}
+
+			// change owners
+			int captured = flip(new CardResult(card, position, board, elements));
+			if (turn == TripleTriad.PLAYER) {
+				playerScore += captured;
+				opponentScore -= captured;
+			} else {
+				playerScore -= captured;
+				opponentScore += captured;
+			}
+			turn = !turn;
+		}
+		return playerScore;
+	}
+
+	/**
+	 * Plays games between two AIs, in parallel.
+	 * Every deal (with its elements and first move) is played twice, with
+	 * the sides swapped.  The factories are called from all tasks at once.
+	 * @param pool the thread pool
+	 * @param tasks the number of tasks to split the games into
+	 * @param deck the cards to deal from
+	 * @param first the first AI
+	 * @param second the second AI
+	 * @param games the number of games (rounded up to an even number)
+	 * @param seed the random seed
+	 * @return the results, for the first AI
+	 */
+	public static MatchResult match(ExecutorService pool, int tasks, final List<Card> deck,
+			final AIFactory first, final AIFactory second, int games, long seed)
+			throws InterruptedException, ExecutionException {
+		final int deals = (games + 1) / 2;
+		List<Future<MatchResult>> results = new ArrayList<Future<MatchResult>>(tasks);
+		for (int t = 0; t < tasks; t++) {
+			final int count = deals / tasks + ((t < deals % tasks) ? 1 : 0);
+			final long taskSeed = seed + t;
+			results.add(pool.submit(new Callable<MatchResult>() {
+				@Override
+				public MatchResult call() {
+					Random random = new Random(taskSeed);
+					MatchResult result = new MatchResult();
+					for (int i = 0; i < count; i++) {
+						Card[][] hands = deal(deck, random);
+						Element[] elements = getElements(random);
+						boolean turn = random.nextBoolean();
+						result.add(play(hands[0], hands[1], elements, turn, first, second));
+						result.add(10 - play(hands[0], hands[1], elements, turn, second, first));
+					}
+					return result;
+				}
+			}));
+		}
+		MatchResult result = new MatchResult();
+		for (Future<MatchResult> r : results)
+			result.add(r.get());
+		return result;
+	}
+
+	/**
+	 * Changes the owners of all cards captured in a result.
+	 * @param result the card result
+	 * @return the number of cards changed
+	 */
+	private static int flip(CardResult result) {
+		int count = 0;
+		boolean owner = result.getSourceCard().getOwner();
+		count += flip(result.getSameList(), owner);
+		count += flip(result.getPlusList(), owner);
+		count += flip(result.getCapturedList(), owner);
+		ArrayList<Card> combo;
+		while ((combo = result.nextCombo()) != null)
+			count += flip(combo, owner);
+		return count;
+	}
+
+	/**
+	 * Changes the owners of a list of cards.
+	 * @param list the cards (or null)
+	 * @param owner the new owner
+	 * @return the number of cards changed
+	 */
+	private static int flip(ArrayList<Card> list, boolean owner) {
+		if (list == null)
+			return 0;
+
+		int count = 0;
+		for (Card c : list) {
+			if (c.getOwner() != owner) {
+				c.setOwner(owner);
+				count++;
+			}
+		}
+		return count;
+	}
+}
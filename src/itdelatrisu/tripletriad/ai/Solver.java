@@ -0,0 +1,363 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.GameState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exact solver for open-hand games.
+ * <p>
+ * Positions are searched to the end of the game with alpha-beta pruning.
+ * The value of a position is the final score difference for the side to
+ * move under perfect play.  Searched positions are memoized in a fixed-size
+ * off-heap {@link TranspositionTable} shared by all threads, and the moves
+ * at the root are searched in parallel.
+ */
+public class Solver {
+	/** Game outcomes (for the side to move). */
+	public enum Outcome { WIN, DRAW, LOSS };
+
+	/** Value bounds (exclusive). */
+	private static final int MIN_VALUE = -11, MAX_VALUE = 11;
+
+	/** Solved position. */
+	public static class Result {
+		/** Legal moves. */
+		private final int[] moves;
+
+		/** Exact value of each move. */
+		private final int[] values;
+
+		/** Position value. */
+		private final int value;
+
+		/**
+		 * Constructor.
+		 * @param moves the legal moves
+		 * @param values the value of each move
+		 * @param value the position value
+		 */
+		private Result(int[] moves, int[] values, int value) {
+			this.moves = moves;
+			this.values = values;
+			this.value = value;
+		}
+
+		/**
+		 * Returns the position value: the final score difference for the
+		 * side to move under perfect play.
+		 * @return the value [-10, 10]
+		 */
+		public int getValue() { return value; }
+
+		/**
+		 * Returns the outcome for the side to move under perfect play.
+		 * @return the outcome
+		 */
+		public Outcome getOutcome() { return getOutcome(value); }
+
+		/**
+		 * Returns the outcome of a value.
+		 * @param value the value
+		 * @return the outcome
+		 */
+		public static Outcome getOutcome(int value) {
+			return (value > 0) ? Outcome.WIN : (value < 0) ? Outcome.LOSS : Outcome.DRAW;
+		}
+
+		/**
+		 * Returns all legal moves.
+		 * @return the moves
+		 */
+		public int[] getMoves() { return moves.clone(); }
+
+		/**
+		 * Returns the moves achieving the position value.
+		 * @return the best moves
+		 */
+		public int[] getBestMoves() {
+			int count = 0;
+			int[] best = new int[moves.length];
+			for (int i = 0; i < moves.length; i++) {
+				if (values[i] == value)
+					best[count++] = moves[i];
+			}
+			return Arrays.copyOf(best, count);
+		}
+
+		/**
+		 * Returns the exact value of a move.
+		 * @param move the move
+		 * @return the value, or {@code Integer.MIN_VALUE} if not a legal move
+		 */
+		public int getMoveValue(int move) {
+			for (int i = 0; i < moves.length; i++) {
+				if (moves[i] == move)
+					return values[i];
+			}
+			return Integer.MIN_VALUE;
+		}
+	}
+
+	/** Memo table. */
+	private final TranspositionTable table;
+
+	/** State whose cards the table entries refer to. */
+	private GameState tableState;
+
+	/** Move ordering priorities from card statistics [0, 7] (by move). */
+	private int[] priorities = new int[256];
+
+	/** Worker thread pool. */
+	private final ExecutorService pool;
+
+	/**
+	 * Constructor.
+	 * @param cacheSize the memo table size, in MB (rounded down to a power of two)
+	 * @param threads the number of search threads
+	 */
+	public Solver(int cacheSize, int threads) {
+		this.table = new TranspositionTable(cacheSize);
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, String.format("Solver-%d", count.incrementAndGet()));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Constructor (one search thread per processor).
+	 * @param cacheSize the memo table size, in MB
+	 */
+	public Solver(int cacheSize) {
+		this(cacheSize, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() { pool.shutdownNow(); }
+
+	/**
+	 * Solves a position.
+	 * @param state the position
+	 * @return the result, or null if the game is over
+	 * @throws InterruptedException if interrupted while searching
+	 */
+	public Result solve(GameState state) throws InterruptedException {
+		return solve(state, GameState.MAX_CARDS);
+	}
+
+	/**
+	 * Evaluates a position by searching a limited number of moves ahead.
+	 * <p>
+	 * The result is exact if the depth reaches the end of the game (i.e. is
+	 * at least {@link GameState#getEmptyCount()}); otherwise, values are the
+	 * best score differences reachable after {@code depth} moves.
+	 * @param state the position
+	 * @param depth the number of moves to search (at least 1)
+	 * @return the result, or null if the game is over
+	 * @throws InterruptedException if interrupted while searching
+	 */
+	public Result solve(final GameState state, final int depth) throws InterruptedException {
+		if (state.isGameOver())
+			return null;
+
+		// the table is only valid for the same cards and rules
+		synchronized (this) {
+			if (!state.isCompatible(tableState)) {
+				table.clear();
+				tableState = state;
+				priorities = getPriorities(state);
+			}
+			table.nextAge();
+		}
+
+		// search every move with a full window, in parallel
+		int[] moves = new int[GameState.MAX_MOVES];
+		int moveCount = state.getMoves(moves);
+		moves = Arrays.copyOf(moves, moveCount);
+		List<Future<Integer>> tasks = new ArrayList<Future<Integer>>(moveCount);
+		for (final int move : moves) {
+			tasks.add(pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					GameState s = new GameState(state);
+					s.makeMove(move);
+					return -search(s, MIN_VALUE, MAX_VALUE, depth - 1, new int[GameState.MAX_CARDS][GameState.MAX_MOVES]);
+				}
+			}));
+		}
+		int[] values = new int[moveCount];
+		int value = MIN_VALUE;
+		try {
+			for (int i = 0; i < moveCount; i++) {
+				values[i] = tasks.get(i).get();
+				value = Math.max(value, values[i]);
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Solver failed.", e.getCause());
+		} finally {
+			for (Future<Integer> task : tasks)
+				task.cancel(true);
+		}
+		return new Result(moves, values, value);
+	}
+
+	/**
+	 * Solves every position of a game.
+	 * @param state the initial position
+	 * @param moves the moves played
+	 * @return the result before each move (compare {@link Result#getMoveValue(int)}
+	 *         of the played move with {@link Result#getValue()} to annotate it)
+	 * @throws InterruptedException if interrupted while searching
+	 */
+	public Result[] annotate(GameState state, int[] moves) throws InterruptedException {
+		Result[] results = new Result[moves.length];
+		for (int i = 0; i < moves.length; i++) {
+			results[i] = solve(state);
+			state = state.play(moves[i]);
+		}
+		return results;
+	}
+
+	/**
+	 * Returns the move ordering priority of every move in a game, from the
+	 * mean value of each card at each position (see {@link CardStats}).
+	 * @param state the game state
+	 * @return the priorities [0, 7] (by move), all 0 if no statistics are loaded
+	 */
+	private static int[] getPriorities(GameState state) {
+		int[] priorities = new int[256];
+		if (!CardStats.isLoaded())
+			return priorities;
+
+		for (int i = 0, n = state.getCardCount(); i < n; i++) {
+			int id = state.getCard(i).getID();
+			for (int pos = 0; pos < 9; pos++) {
+				float value = CardStats.getValue(id, pos, state.getBonus(i, pos));
+				priorities[GameState.getMove(i, pos)] = Math.max(0, Math.min(7, (int) ((value + 2f) * 2f)));
+			}
+		}
+		return priorities;
+	}
+
+	/**
+	 * Returns the value of a position (negamax with alpha-beta pruning).
+	 * <p>
+	 * If the search depth does not reach the end of the game, the value is
+	 * an estimate: the score difference after {@code depth} moves.  Only
+	 * exact values are stored in the memo table.
+	 * @param state the position
+	 * @param alpha the lower bound
+	 * @param beta the upper bound
+	 * @param depth the number of moves to search
+	 * @param buffers move buffers (one per number of empty positions)
+	 * @return the value, exact (for the depth) if within (alpha, beta)
+	 */
+	private int search(GameState state, int alpha, int beta, int depth, int[][] buffers) {
+		boolean turn = state.getTurn();
+		int score = state.getScore(turn) - state.getScore(!turn);
+		if (depth == 0 || state.isGameOver())
+			return score;
+
+		// last move: each capture moves the score difference by 2
+		int empty = state.getEmptyCount();
+		int[] moves = buffers[empty];
+		int moveCount = state.getMoves(moves);
+		if (depth == 1 || empty == 1) {
+			int best = MIN_VALUE;
+			for (int i = 0; i < moveCount; i++)
+				best = Math.max(best, score + 2 * Integer.bitCount(state.getCaptures(moves[i])));
+			return best;
+		}
+
+		// memo table
+		boolean isExact = (depth >= empty);
+		long key = state.getKey();
+		long data = table.probe(key);
+		if (data != 0) {
+			int value = TranspositionTable.getValue(data);
+			int bound = TranspositionTable.getBound(data);
+			if (bound == TranspositionTable.EXACT)
+				return value;
+			if (isExact) {
+				if ((bound == TranspositionTable.LOWER && value >= beta) ||
+					(bound == TranspositionTable.UPPER && value <= alpha))
+					return value;
+				if (bound == TranspositionTable.LOWER)
+					alpha = Math.max(alpha, value);
+				else
+					beta = Math.min(beta, value);
+			}
+		}
+		if (Thread.interrupted())
+			throw new IllegalStateException(new InterruptedException());
+
+		// order moves by number of captures, then by placement value
+		// (packed above the captured positions and move)
+		for (int i = 0; i < moveCount; i++) {
+			int captures = state.getCaptures(moves[i]);
+			moves[i] |= (Integer.bitCount(captures) << 27) | (priorities[moves[i]] << 24) | (captures << 8);
+			for (int j = i; j > 0 && moves[j] > moves[j - 1]; j--) {
+				int tmp = moves[j];
+				moves[j] = moves[j - 1];
+				moves[j - 1] = tmp;
+			}
+		}
+
+		int alphaOrig = alpha;
+		int best = MIN_VALUE;
+		for (int i = 0; i < moveCount; i++) {
+			state.makeMove(moves[i] & 0xFF, (moves[i] >>> 8) & 0x1FF);
+			int value = -search(state, -beta, -alpha, depth - 1, buffers);
+			state.unmakeMove();
+			if (value > best) {
+				best = value;
+				if (value > alpha)
+					alpha = value;
+				if (alpha >= beta)
+					break;
+			}
+		}
+
+		if (isExact) {
+			int bound = (best <= alphaOrig) ? TranspositionTable.UPPER :
+			            (best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+			table.store(key, best, bound, empty);
+		}
+		return best;
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Element;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.newdawn.slick.util.Log;
+
+/**
+ * AI running another AI with a time limit.
+ * <p>
+ * Each update of the AI runs on a worker thread, on a copy of the hand,
+ * board and opposing hand, and is given a deadline.  If it has not
+ * returned by then, it is interrupted and the move it had chosen so far is
+ * used, or the card and position creating the lowest "rank difference" if
+ * it had not chosen a legal move yet.  An AI that ignores the interrupt
+ * keeps its worker thread and its copies until it returns, and a new AI
+ * is created by the provider for the next update; its results are ignored.
+ * <p>
+ * AIs are created by the provider on the worker thread, within the time
+ * limit of the update, so a slow provider (e.g. starting an external
+ * engine) never delays the caller either.
+ * <p>
+ * The game loop uses {@link #start(int, int)} and {@link #poll()}, so it
+ * never waits for the AI; {@link #update(int, int)} waits until the move
+ * is ready (for simulations).
+ * <p>
+ * The CPU time of each update is measured on the worker thread.
+ */
+public class TimedAI extends AI {
+	/** Worker threads (created as needed, so a stuck AI never blocks another). */
+	private static final ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, String.format("TimedAI-%d", count.incrementAndGet()));
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** Thread CPU time source. */
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	/** An update, and what its worker thread publishes. */
+	private static class Update {
+		/** The task. */
+		Future<?> task;
+
+		/** The AI running the update (null until created). */
+		volatile AI ai;
+
+		/** Hand index and board position chosen (null until the update returns). */
+		volatile int[] move;
+
+		/** CPU time of the update, in ns (-1 if not measured or not finished). */
+		volatile long cpuTime = -1;
+
+		/** Whether the worker may still be running (even if cancelled). */
+		final AtomicBoolean busy = new AtomicBoolean(true);
+	}
+
+	/** The provider of the AI. */
+	private final AIProvider provider;
+
+	/** The AI of the last finished update (null if none). */
+	private AI ai;
+
+	/** AI name (for logging). */
+	private final String name;
+
+	/** Time limit per update, in ms. */
+	private final int time;
+
+	/** Current update (null if none), and the last update started. */
+	private Update update, lastUpdate;
+
+	/** Deadline of the current update (in {@link System#nanoTime()} units). */
+	private long deadline;
+
+	/** CPU time of the last update, in ns (-1 if not measured). */
+	private long cpuTime = -1;
+
+	/** Total CPU time of all updates, in ns. */
+	private long totalCpuTime = 0;
+
+	/** Number of updates exceeding the time limit. */
+	private int timeouts = 0;
+
+	/**
+	 * Constructor.
+	 * The AI is created by the provider on the first update.
+	 * @param provider the provider of the AI
+	 * @param hand the hand of cards
+	 * @param board the board
+	 * @param elements the element board
+	 * @param time the time limit per update, in ms
+	 */
+	public TimedAI(AIProvider provider, ArrayList<Card> hand, Card[] board, Element[] elements, int time) {
+		super(hand, board, elements);
+		this.provider = provider;
+		this.name = provider.getName();
+		this.time = time;
+	}
+
+	/**
+	 * Starts calculating the next move in the background.
+	 * Any update in progress is cancelled.
+	 * @param thisScore the AI's score [1, 9]
+	 * @param thatScore the opposing player's score [1, 9]
+	 * @see #poll()
+	 */
+	public void start(final int thisScore, final int thatScore) {
+		cancel();
+
+		// copy the position, and reuse the AI unless it is still running
+		final ArrayList<Card> handCopy = copy(hand);
+		final Card[] boardCopy = new Card[board.length];
+		for (int i = 0; i < board.length; i++) {
+			if (board[i] != null)
+				boardCopy[i] = copy(board[i]);
+		}
+		final ArrayList<Card> opposingCopy = (opposingHand == null) ? null : copy(opposingHand);
+		final AI reuse = (lastUpdate != null && lastUpdate.busy.get()) ? null : ai;
+
+		final Update u = update = lastUpdate = new Update();
+		deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(time);
+		u.task = pool.submit(new Runnable() {
+			@Override
+			public void run() {
+				boolean measure = threads.isCurrentThreadCpuTimeSupported();
+				long start = measure ? threads.getCurrentThreadCpuTime() : 0;
+				try {
+					AI worker;
+					if (reuse != null) {
+						worker = reuse;
+						worker.hand = handCopy;
+						worker.board = boardCopy;
+					} else
+						worker = create(handCopy, boardCopy);
+					worker.setOpposingHand(opposingCopy);
+					worker.nextIndex = -1;
+					worker.nextPosition = -1;
+					u.ai = worker;
+					worker.update(thisScore, thatScore);
+					u.move = new int[] { worker.nextIndex, worker.nextPosition };
+				} finally {
+					if (measure)
+						u.cpuTime = threads.getCurrentThreadCpuTime() - start;
+					u.busy.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns a new AI from the provider (or the balanced AI if it fails).
+	 * @param hand the hand of cards
+	 * @param board the board
+	 * @return the AI
+	 */
+	private AI create(ArrayList<Card> hand, Card[] board) {
+		try {
+			return provider.create(hand, board, elements);
+		} catch (RuntimeException e) {
+			Log.error(String.format("Failed to create AI '%s'.", name), e);
+			return new BalancedAI(hand, board, elements);
+		}
+	}
+
+	/**
+	 * Checks whether the next move is ready, without waiting.
+	 * Once the update has returned or exceeded its time limit, the move is
+	 * set (see {@link #nextIndex()} and {@link #nextPosition()}).
+	 * @return true if the move is ready (or no update was started)
+	 * @see #start(int, int)
+	 */
+	public boolean poll() {
+		if (update == null)
+			return true;
+		if (!update.task.isDone() && System.nanoTime() < deadline)
+			return false;
+		finish();
+		return true;
+	}
+
+	/**
+	 * Returns whether an update was started and its move is not set yet.
+	 * @return true if running
+	 */
+	public boolean isRunning() { return update != null; }
+
+	/**
+	 * Cancels the update in progress, if any (its result is ignored).
+	 */
+	public void cancel() {
+		if (update != null) {
+			update.task.cancel(true);
+			update = null;
+		}
+	}
+
+	@Override
+	public void update(int thisScore, int thatScore) {
+		start(thisScore, thatScore);
+		try {
+			update.task.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException | ExecutionException | CancellationException e) {
+			// handled below
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		finish();
+	}
+
+	/**
+	 * Ends the current update, and sets the move it chose (if legal).
+	 */
+	private void finish() {
+		Update u = update;
+		update = null;
+		if (!u.task.isDone()) {
+			u.task.cancel(true);
+			timeouts++;
+			Log.warn(String.format("AI '%s' exceeded its time limit (%d ms).", name, time));
+		} else {
+			try {
+				u.task.get();
+			} catch (ExecutionException e) {
+				Log.error(String.format("AI '%s' failed.", name), e.getCause());
+			} catch (InterruptedException | CancellationException e) {
+				// not finished
+			}
+		}
+		cpuTime = u.cpuTime;
+		if (cpuTime > 0)
+			totalCpuTime += cpuTime;
+
+		// use the move chosen by this update, or so far, if legal
+		AI worker = u.ai;
+		if (worker != null)
+			ai = worker;
+		int[] move = u.move;
+		int index = -1, position = -1;
+		if (move != null) {
+			index = move[0];
+			position = move[1];
+		} else if (worker != null) {
+			index = worker.nextIndex;
+			position = worker.nextPosition;
+		}
+		if (index >= 0 && index < hand.size() && position >= 0 && position < 9 && board[position] == null) {
+			nextIndex = index;
+			nextPosition = position;
+		} else
+			useMinRankDiff(emptySpaces());
+	}
+
+	/**
+	 * Returns a copy of a card, with the same owner and position.
+	 * @param c the card
+	 * @return the copy
+	 */
+	private static Card copy(Card c) {
+		Card card = new Card(c, false);
+		card.setOwner(c.getOwner());
+		card.setPosition(c.getPosition());
+		return card;
+	}
+
+	/**
+	 * Returns copies of a list of cards.
+	 * @param cards the cards
+	 * @return the copies
+	 */
+	private static ArrayList<Card> copy(List<Card> cards) {
+		ArrayList<Card> list = new ArrayList<Card>(cards.size());
+		for (Card c : cards)
+			list.add(copy(c));
+		return list;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The AI's choice is used if it has been created (by an update).
+	 */
+	@Override
+	public List<Card> chooseCards(List<Card> cards, int count) {
+		return (ai != null) ? ai.chooseCards(cards, count) : super.chooseCards(cards, count);
+	}
+
+	/**
+	 * Returns the AI.
+	 * @return the AI of the last finished update, or null if none
+	 */
+	public AI getAI() { return ai; }
+
+	/**
+	 * Returns the CPU time of the last update.
+	 * @return the time, in ns (-1 if not measured or not finished)
+	 */
+	public long getCpuTime() { return cpuTime; }
+
+	/**
+	 * Returns the total CPU time of all finished updates.
+	 * @return the time, in ns
+	 */
+	public long getTotalCpuTime() { return totalCpuTime; }
+
+	/**
+	 * Returns the number of updates exceeding the time limit.
+	 * @return the timeout count
+	 */
+	public int getTimeouts() { return timeouts; }
+}
@@ -0,0 +1,194 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed-size transposition table, stored off the Java heap.
+ * <p>
+ * The table is an array of 64-byte buckets of 4 entries, in direct byte
+ * buffers of up to 1 GB each, so large tables are neither scanned by the
+ * garbage collector nor limited by the heap size.  Each entry is a pair of
+ * longs (key ^ data, data), written without locking: a pair torn by
+ * concurrent writes fails the key check on the next probe and is ignored.
+ * <p>
+ * Each entry records the search "age" (incremented by {@link #nextAge()})
+ * and the number of empty positions it was searched with.  A new entry
+ * replaces, in order, an entry with the same key, an empty entry, an entry
+ * from an older search, and then the entry with the fewest empty positions
+ * (the smallest subtree).
+ */
+public class TranspositionTable {
+	/** Entry bound types. */
+	public static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+	/** Bucket layout. */
+	private static final int ENTRY_BYTES = 16, BUCKET_ENTRIES = 4, BUCKET_BYTES = ENTRY_BYTES * BUCKET_ENTRIES;
+
+	/** Number of bits of the byte offset within a buffer. */
+	private static final int SEGMENT_BITS = 30;
+
+	/** Minimum table size, in bytes. */
+	private static final long MIN_BYTES = 1 << 16;
+
+	/** Buffers (all the same size). */
+	private final ByteBuffer[] segments;
+
+	/** Number of bits used for bucket indices. */
+	private final int bucketBits;
+
+	/** Current search age [0, 255]. */
+	private volatile int age = 0;
+
+	/**
+	 * Constructor.
+	 * @param size the table size, in MB (rounded down to a power of two)
+	 */
+	public TranspositionTable(int size) {
+		long bytes = Math.max((long) size << 20, MIN_BYTES);
+		bytes = Long.highestOneBit(bytes);
+		this.bucketBits = 63 - Long.numberOfLeadingZeros(bytes / BUCKET_BYTES);
+		int segmentSize = (int) Math.min(bytes, 1L << SEGMENT_BITS);
+		this.segments = new ByteBuffer[(int) (bytes / segmentSize)];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = ByteBuffer.allocateDirect(segmentSize).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Returns the table size.
+	 * @return the size, in bytes
+	 */
+	public long getSize() { return (long) BUCKET_BYTES << bucketBits; }
+
+	/**
+	 * Removes all entries.
+	 * Must not be called while the table is in use by other threads.
+	 */
+	public void clear() {
+		for (ByteBuffer segment : segments) {
+			for (int i = 0, n = segment.capacity(); i < n; i += 8)
+				segment.putLong(i, 0L);
+		}
+		age = 0;
+	}
+
+	/**
+	 * Starts a new search: entries stored before are replaced first.
+	 */
+	public void nextAge() { age = (age + 1) & 0xFF; }
+
+	/**
+	 * Returns the buffer holding the bucket of a key.
+	 * @param key the key
+	 * @return the buffer
+	 */
+	private ByteBuffer getSegment(long key) {
+		long offset = (key >>> (64 - bucketBits)) * BUCKET_BYTES;
+		return segments[(int) (offset >>> SEGMENT_BITS)];
+	}
+
+	/**
+	 * Returns the byte offset of the bucket of a key within its buffer.
+	 * @param key the key
+	 * @return the offset
+	 */
+	private int getOffset(long key) {
+		long offset = (key >>> (64 - bucketBits)) * BUCKET_BYTES;
+		return (int) (offset & ((1L << SEGMENT_BITS) - 1));
+	}
+
+	/**
+	 * Looks up a position.
+	 * @param key the position key
+	 * @return the entry data (see {@link #getValue(long)} and
+	 *         {@link #getBound(long)}), or 0 if not found
+	 */
+	public long probe(long key) {
+		ByteBuffer segment = getSegment(key);
+		int offset = getOffset(key);
+		for (int i = 0; i < BUCKET_ENTRIES; i++, offset += ENTRY_BYTES) {
+			long data = segment.getLong(offset + 8);
+			if (data != 0 && (segment.getLong(offset) ^ data) == key)
+				return data;
+		}
+		return 0;
+	}
+
+	/**
+	 * Stores a position.
+	 * @param key the position key
+	 * @param value the value [-15, 15]
+	 * @param bound the bound type (EXACT, LOWER or UPPER)
+	 * @param empty the number of empty positions [0, 9]
+	 */
+	public void store(long key, int value, int bound, int empty) {
+		int currentAge = age;
+		ByteBuffer segment = getSegment(key);
+		int base = getOffset(key);
+
+		// same key, then lowest replacement priority
+		int target = base, targetPriority = Integer.MAX_VALUE;
+		for (int i = 0, offset = base; i < BUCKET_ENTRIES; i++, offset += ENTRY_BYTES) {
+			long data = segment.getLong(offset + 8);
+			if (data != 0 && (segment.getLong(offset) ^ data) == key) {
+				target = offset;
+				break;
+			}
+			int priority = (data == 0) ? -1 : ((getAge(data) == currentAge) ? 16 : 0) + getEmpty(data);
+			if (priority < targetPriority) {
+				target = offset;
+				targetPriority = priority;
+			}
+		}
+
+		long data = (value + 16) | (bound << 5) | (empty << 7) | (currentAge << 11);
+		segment.putLong(target, key ^ data);
+		segment.putLong(target + 8, data);
+	}
+
+	/**
+	 * Returns the value of an entry.
+	 * @param data the entry data
+	 * @return the value
+	 */
+	public static int getValue(long data) { return (int) (data & 0x1F) - 16; }
+
+	/**
+	 * Returns the bound type of an entry.
+	 * @param data the entry data
+	 * @return EXACT, LOWER or UPPER
+	 */
+	public static int getBound(long data) { return (int) (data >>> 5) & 0x3; }
+
+	/**
+	 * Returns the number of empty positions of an entry.
+	 * @param data the entry data
+	 * @return the number of empty positions
+	 */
+	private static int getEmpty(long data) { return (int) (data >>> 7) & 0xF; }
+
+	/**
+	 * Returns the search age of an entry.
+	 * @param data the entry data
+	 * @return the age
+	 */
+	private static int getAge(long data) { return (int) (data >>> 11) & 0xFF; }
+}
@@ -0,0 +1,122 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import itdelatrisu.tripletriad.Card;
+import itdelatrisu.tripletriad.Deck;
+import itdelatrisu.tripletriad.Element;
+import itdelatrisu.tripletriad.Options;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.newdawn.slick.util.FileSystemLocation;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Offline tuner for the {@link Weight} values.
+ * <p>
+ * Uses SPSA (simultaneous perturbation stochastic approximation): each
+ * iteration perturbs all weights at once in a random direction and plays
+ * a batch of self-play games between the two perturbed weight sets, in
+ * parallel on all processors.  Every deal is played twice with the sides
+ * swapped, and the weights move along the direction by the mean score
+ * difference.  The weights file is rewritten periodically.
+ * <p>
+ * Usage: {@code Tuner [iterations] [games per iteration]}
+ * (rules are read from the configuration file).
+ */
+public class Tuner {
+	/** SPSA gain parameters (in units of each weight's range). */
+	private static final double A = 0.05, C = 0.1, ALPHA = 0.602, GAMMA = 0.101;
+
+	/** Iterations between writes of the weights file. */
+	private static final int SAVE_INTERVAL = 10;
+
+	// This class should not be instantiated.
+	private Tuner() {}
+
+	public static void main(String[] args) throws InterruptedException, ExecutionException {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		int games = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+
+		Options.parseOptions();
+		ResourceLoader.addResourceLocation(new FileSystemLocation(new File("./cards/")));
+		List<Card> deck = new Deck().getCards();
+
+		Weight[] weights = Weight.values();
+		float[] theta = Weight.getValues();
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Random random = new Random();
+		double stability = iterations * 0.1;
+		try {
+			for (int k = 0; k < iterations; k++) {
+				double ak = A / Math.pow(k + 1 + stability, ALPHA);
+				double ck = C / Math.pow(k + 1, GAMMA);
+
+				// perturb all weights
+				float[] plus = new float[theta.length], minus = new float[theta.length];
+				int[] delta = new int[theta.length];
+				for (int i = 0; i < theta.length; i++) {
+					delta[i] = random.nextBoolean() ? 1 : -1;
+					float step = (float) (ck * delta[i] * (weights[i].getMax() - weights[i].getMin()));
+					plus[i] = weights[i].clamp(theta[i] + step);
+					minus[i] = weights[i].clamp(theta[i] - step);
+				}
+
+				// play, and move along the gradient estimate (score difference in [-1, 1])
+				double result = SelfPlay.match(pool, threads, deck, getFactory(plus), getFactory(minus),
+						games, random.nextLong()).getMeanScoreDifference() / 10;
+				for (int i = 0; i < theta.length; i++) {
+					double g = result / (2 * ck * delta[i]);
+					theta[i] = weights[i].clamp((float) (theta[i] + ak * g * (weights[i].getMax() - weights[i].getMin())));
+				}
+
+				System.out.printf("%d/%d: %+.3f", k + 1, iterations, result * 10);
+				for (int i = 0; i < theta.length; i++)
+					System.out.printf(" %s=%.3f", weights[i].toString(), theta[i]);
+				System.out.println();
+				if ((k + 1) % SAVE_INTERVAL == 0 || k + 1 == iterations)
+					Weight.save(theta, String.format("tuned by SPSA: %d iterations, %d games each", k + 1, games));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Returns a factory for balanced AIs with the given weights.
+	 * @param weights the weights
+	 * @return the AI factory
+	 */
+	private static SelfPlay.AIFactory getFactory(final float[] weights) {
+		return new SelfPlay.AIFactory() {
+			@Override
+			public AI create(ArrayList<Card> hand, Card[] board, Element[] elements) {
+				return new BalancedAI(hand, board, elements, weights);
+			}
+		};
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Triple Triad - a card game from FFVIII
+ * Copyright (C) 2014 Jeffrey Han
+ *
+ * Triple Triad is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Triple Triad is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Triple Triad.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package itdelatrisu.tripletriad.ai;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+import org.newdawn.slick.util.Log;
+
+/**
+ * Evaluation weights used by {@link BalancedAI}.
+ * <p>
+ * The defaults reproduce the original hand-picked values.  Tuned values
+ * (see {@link Tuner}) are read from the weights file on first use.
+ */
+public enum Weight {
+	/** Captures above which a move is used regardless of placement. */
+	CAPTURE_THRESHOLD (2f, 0f, 5f),
+
+	/** Rank difference increase allowed for one more capture. */
+	RANK_DIFF_LOSS (5f, 0f, 20f),
+
+	/** Rank difference decrease required to give up one capture. */
+	RANK_DIFF_GAIN (5f, 0f, 20f),
+
+	/** Weight of the "side rank difference" of adjacent owned cards. */
+	SIDE_WEIGHT (1f, 0f, 3f),
+
+	/** Weight of each element bonus. */
+	ELEMENT_WEIGHT (1f, 0f, 3f);
+
+	/** File for storing tuned weights. */
+	public static final File WEIGHTS_FILE = new File(".triple-triad.weights");
+
+	/** Default value. */
+	private final float defaultValue;
+
+	/** Value range. */
+	private final float min, max;
+
+	/** Current value. */
+	private float value;
+
+	static {
+		load();
+	}
+
+	/**
+	 * Constructor.
+	 * @param defaultValue the default value
+	 * @param min the minimum value
+	 * @param max the maximum value
+	 */
+	Weight(float defaultValue, float min, float max) {
+		this.defaultValue = defaultValue;
+		this.min = min;
+		this.max = max;
+		this.value = defaultValue;
+	}
+
+	/**
+	 * Returns the current value.
+	 * @return the value
+	 */
+	public float get() { return value; }
+
+	/**
+	 * Returns the default value.
+	 * @return the default value
+	 */
+	public float getDefault() { return defaultValue; }
+
+	/**
+	 * Returns the minimum value.
+	 * @return the minimum value
+	 */
+	public float getMin() { return min; }
+
+	/**
+	 * Returns the maximum value.
+	 * @return the maximum value
+	 */
+	public float getMax() { return max; }
+
+	/**
+	 * Clamps a value to the range of this weight.
+	 * @param v the value
+	 * @return the clamped value
+	 */
+	public float clamp(float v) { return Math.max(min, Math.min(max, v)); }
+
+	/**
+	 * Returns the current values of all weights.
+	 * @return the values (by ordinal)
+	 */
+	public static float[] getValues() {
+		Weight[] weights = values();
+		float[] values = new float[weights.length];
+		for (int i = 0; i < weights.length; i++)
+			values[i] = weights[i].value;
+		return values;
+	}
+
+	/**
+	 * Reads the weights file, if it exists.
+	 */
+	public static void load() {
+		if (!WEIGHTS_FILE.isFile())
+			return;
+
+		try (BufferedReader in = new BufferedReader(new FileReader(WEIGHTS_FILE))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() < 2 || line.charAt(0) == '#')
+					continue;
+				int index = line.indexOf('=');
+				if (index == -1)
+					continue;
+				try {
+					Weight weight = Weight.valueOf(line.substring(0, index).trim());
+					weight.value = weight.clamp(Float.parseFloat(line.substring(index + 1).trim()));
+				} catch (IllegalArgumentException e) {
+					Log.warn(String.format("Failed to read line: %s", line));
+				}
+			}
+		} catch (IOException e) {
+			Log.error(String.format("Failed to read file '%s'.", WEIGHTS_FILE.getAbsolutePath()), e);
+		}
+	}
+
+	/**
+	 * (Over)writes the weights file.
+	 * @param values the values (by ordinal)
+	 * @param comment a comment line for the header
+	 */
+	public static void save(float[] values, String comment) {
+		try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(WEIGHTS_FILE), "utf-8"))) {
+			writer.write("# Triple Triad evaluation weights");
+			writer.newLine();
+			writer.write(String.format("# %s", comment));
+			writer.newLine();
+			writer.newLine();
+			for (Weight weight : values()) {
+				writer.write(String.format("%s = %s", weight.toString(), Float.toString(values[weight.ordinal()])));
+				writer.newLine();
+			}
+		} catch (IOException e) {
+			Log.error(String.format("Failed to write to file '%s'.", WEIGHTS_FILE.getAbsolutePath()), e);
+		}
+	}
+}